@@ -0,0 +1,73 @@
+package me.threefour.omniport;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Map;
+
+/**
+ * Stand-in for the plugin so the forwarding engines can run inside a benchmark JVM
+ */
+final class BenchmarkHost implements ProxyHost {
+    private final SocketAddress backendAddress;
+    private final BufferPool bufferPool;
+    private final ProxyStats stats = new ProxyStats();
+    // Far more workers than a benchmark opens connections, so the limit never shows up in the results
+    private final WorkerPool forwardingPool = new WorkerPool("forwarding", Thread.ofPlatform().daemon().factory(), 4096, 0);
+
+    BenchmarkHost(SocketAddress backendAddress, int bufferSize) {
+        this.backendAddress = backendAddress;
+        this.bufferPool = new BufferPool(bufferSize, Map.of(), 1024);
+    }
+
+    @Override
+    public int getMainServerPort() {
+        return backendAddress instanceof InetSocketAddress inet ? inet.getPort() : -1;
+    }
+
+    @Override
+    public int getConnectTimeout() {
+        return 0;
+    }
+
+    @Override
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    @Override
+    public ProxyStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public StatusCache getStatusCache() {
+        // Every connection is forwarded
+        return null;
+    }
+
+    @Override
+    public BackendPool getBackendPool() {
+        // Connect cost is part of what the benchmarks measure
+        return null;
+    }
+
+    @Override
+    public WorkerPool getForwardingPool() {
+        return forwardingPool;
+    }
+
+    @Override
+    public void log(String message) {
+        // Benchmarks measure forwarding, not console output
+    }
+
+    @Override
+    public void logConnectionEvent(String message) {
+        // Benchmarks measure forwarding, not console output
+    }
+
+    @Override
+    public void removeConnection(long id) {
+        // Nothing is tracked
+    }
+}
@@ -0,0 +1,64 @@
+package me.threefour.omniport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a whole proxied connection: connect, first round trip through the backend, close
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConnectionSetupBenchmark {
+
+    @Param({"blocking", "nio"})
+    public String engine;
+
+    // How the proxy reaches the backend
+    @Param({"tcp", "unix"})
+    public String transport;
+
+    private ProxyFixture fixture;
+
+    @Setup(Level.Trial)
+    public void startProxy() throws IOException {
+        fixture = new ProxyFixture(engine, 16384, transport);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopProxy() throws IOException {
+        fixture.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Buffers {
+        final ByteBuffer payload = ByteBuffer.allocateDirect(1);
+        final ByteBuffer response = ByteBuffer.allocateDirect(1);
+    }
+
+    @Benchmark
+    public ByteBuffer connectRoundTripClose(Buffers buffers) throws IOException {
+        try (SocketChannel channel = fixture.connect()) {
+            ProxyFixture.roundTrip(channel, buffers.payload, buffers.response);
+        }
+        return buffers.response;
+    }
+}
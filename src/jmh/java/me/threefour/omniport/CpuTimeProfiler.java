@@ -0,0 +1,45 @@
+package me.threefour.omniport;
+
+import com.sun.management.OperatingSystemMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.List;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+/**
+ * Reports the CPU time the whole benchmark JVM spent per operation, user and kernel combined.
+ * The client, the engine and the echo backend all run in that JVM, so this covers both hops of the proxy,
+ * including the kernel work a loopback TCP connection costs compared with a Unix domain socket.
+ * Enable with -prof me.threefour.omniport.CpuTimeProfiler
+ */
+public class CpuTimeProfiler implements InternalProfiler {
+    private final OperatingSystemMXBean os = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    private long startCpu;
+
+    @Override
+    public String getDescription() {
+        return "Process CPU time per operation";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        startCpu = os.getProcessCpuTime();
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams,
+                                                       IterationResult result) {
+        long cpu = os.getProcessCpuTime() - startCpu;
+        long ops = result.getMetadata().getAllOps();
+        if (ops <= 0) {
+            return List.of();
+        }
+        return List.of(new ScalarResult("cpu.time/op", cpu / 1000.0 / ops, "us/op", AggregationPolicy.AVG));
+    }
+}
@@ -0,0 +1,78 @@
+package me.threefour.omniport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Local backend that writes back everything it receives, standing in for the Minecraft server.
+ * Listens on a loopback port, or on a Unix domain socket in a temporary directory.
+ */
+final class EchoServer implements AutoCloseable {
+    private final ServerSocketChannel listener;
+    private final SocketAddress address;
+    private final Path socketDirectory;
+
+    /**
+     * @param transport "tcp" or "unix"
+     */
+    EchoServer(String transport) throws IOException {
+        if ("unix".equals(transport)) {
+            socketDirectory = Files.createTempDirectory("omniport-bench");
+            listener = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            listener.bind(UnixDomainSocketAddress.of(socketDirectory.resolve("backend.sock")));
+        } else {
+            socketDirectory = null;
+            listener = ServerSocketChannel.open();
+            listener.bind(new InetSocketAddress("127.0.0.1", 0));
+        }
+        address = listener.getLocalAddress();
+        Thread.ofPlatform().daemon().name("bench-echo-accept").start(this::acceptLoop);
+    }
+
+    SocketAddress getAddress() {
+        return address;
+    }
+
+    private void acceptLoop() {
+        try {
+            while (listener.isOpen()) {
+                SocketChannel channel = listener.accept();
+                Thread.ofPlatform().daemon().name("bench-echo").start(() -> echo(channel));
+            }
+        } catch (IOException e) {
+            // Listener closed
+        }
+    }
+
+    private void echo(SocketChannel channel) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+        try (channel) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            // Client went away
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        listener.close();
+        if (socketDirectory != null) {
+            Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+            Files.deleteIfExists(socketDirectory);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package me.threefour.omniport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round trips through an established proxied connection. Throughput mode gives round trips per second,
+ * sample mode gives the p50/p99 latency distribution.
+ * Small payloads stand in for game packets, large ones for chunk data.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ForwardingBenchmark {
+
+    @Param({"blocking", "nio"})
+    public String engine;
+
+    @Param({"64", "1024", "32768"})
+    public int payloadSize;
+
+    @Param({"4096", "16384", "65536"})
+    public int bufferSize;
+
+    // How the proxy reaches the backend
+    @Param({"tcp", "unix"})
+    public String transport;
+
+    private ProxyFixture fixture;
+
+    @Setup(Level.Trial)
+    public void startProxy() throws IOException {
+        fixture = new ProxyFixture(engine, bufferSize, transport);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopProxy() throws IOException {
+        fixture.close();
+    }
+
+    /**
+     * One connection per benchmark thread, kept open for the whole trial
+     */
+    @State(Scope.Thread)
+    public static class Connection {
+        SocketChannel channel;
+        ByteBuffer payload;
+        ByteBuffer response;
+
+        @Setup(Level.Trial)
+        public void open(ForwardingBenchmark benchmark) throws IOException {
+            channel = benchmark.fixture.connect();
+            payload = ByteBuffer.allocateDirect(benchmark.payloadSize);
+            while (payload.hasRemaining()) {
+                payload.put((byte) payload.position());
+            }
+            response = ByteBuffer.allocateDirect(benchmark.payloadSize);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer roundTrip(Connection connection) throws IOException {
+        ProxyFixture.roundTrip(connection.channel, connection.payload, connection.response);
+        return connection.response;
+    }
+}
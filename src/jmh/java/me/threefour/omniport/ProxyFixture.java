@@ -0,0 +1,103 @@
+package me.threefour.omniport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A proxy listener on a loopback port that hands clients to the selected engine, in front of an echo backend
+ * reached over loopback TCP or a Unix domain socket
+ */
+final class ProxyFixture implements AutoCloseable {
+    private final EchoServer backend;
+    private final Backend target;
+    // Only touched by the accept thread
+    private long nextId = 0;
+    private final BenchmarkHost host;
+    private final ServerSocketChannel listener;
+    private final NioProxyEngine nioEngine;
+    private final ExecutorService executor;
+
+    ProxyFixture(String engine, int bufferSize, String transport) throws IOException {
+        backend = new EchoServer(transport);
+        host = new BenchmarkHost(backend.getAddress(), bufferSize);
+        // The benchmark backend is always up, so its health is not tracked
+        target = new Backend(Routing.MAIN, backend.getAddress(), 1, null);
+
+        if ("nio".equals(engine)) {
+            nioEngine = new NioProxyEngine(host, 0);
+            nioEngine.start();
+            executor = null;
+        } else {
+            nioEngine = null;
+            executor = Executors.newCachedThreadPool(Thread.ofPlatform().daemon().factory());
+        }
+
+        listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress("127.0.0.1", 0));
+        Thread.ofPlatform().daemon().name("bench-proxy-accept").start(this::acceptLoop);
+    }
+
+    private void acceptLoop() {
+        int port = ((InetSocketAddress) listener.socket().getLocalSocketAddress()).getPort();
+        try {
+            while (listener.isOpen()) {
+                SocketChannel client = listener.accept();
+                ConnectionInfo info = new ConnectionInfo(client.socket().getInetAddress(), port);
+                info.setBackend(target);
+                // The host tracks nothing, ids only have to be distinct
+                long id = nextId++;
+                if (nioEngine != null) {
+                    nioEngine.register(client, info, id);
+                } else {
+                    executor.submit(new ClientHandler(client, info, host, id));
+                }
+            }
+        } catch (IOException e) {
+            // Listener closed
+        }
+    }
+
+    /**
+     * Open a client connection through the proxy
+     */
+    SocketChannel connect() throws IOException {
+        SocketChannel channel = SocketChannel.open(listener.socket().getLocalSocketAddress());
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        return channel;
+    }
+
+    /**
+     * Send a payload and wait until the echo has fully come back
+     */
+    static void roundTrip(SocketChannel channel, ByteBuffer payload, ByteBuffer response) throws IOException {
+        payload.rewind();
+        while (payload.hasRemaining()) {
+            channel.write(payload);
+        }
+        response.clear();
+        while (response.hasRemaining()) {
+            if (channel.read(response) == -1) {
+                throw new EOFException("Proxy closed the connection");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        listener.close();
+        if (nioEngine != null) {
+            nioEngine.shutdown();
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        backend.close();
+    }
+}
@@ -0,0 +1,212 @@
+package me.threefour.omniport;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Accepts connections for every proxied port on a few selector threads, instead of parking one thread
+ * in accept() per listener. Hundreds of ports cost a registration each, not a thread each.
+ */
+public class AcceptorGroup {
+    private static final long SELECT_TIMEOUT = 1000;
+    // Accept at most this many connections from one listener before looking at the others
+    private static final int MAX_ACCEPTS_PER_KEY = 64;
+
+    private final ProxyHost plugin;
+    private final Handler handler;
+    private final Acceptor[] acceptors;
+    private volatile boolean running = false;
+
+    /**
+     * Receives every accepted connection on an acceptor thread
+     */
+    public interface Handler {
+        /**
+         * @param client the accepted connection, in blocking mode
+         * @param port the port it arrived on
+         * @param portStats the counters of that port
+         */
+        void accepted(SocketChannel client, int port, PortStats portStats) throws IOException;
+
+        /**
+         * Called when accept() fails on a listener
+         */
+        void acceptFailed(int port, IOException e);
+    }
+
+    /**
+     * @param plugin host used for logging
+     * @param threads number of selector threads
+     * @param handler receives every accepted connection
+     */
+    public AcceptorGroup(ProxyHost plugin, int threads, Handler handler) throws IOException {
+        this.plugin = plugin;
+        this.handler = handler;
+        this.acceptors = new Acceptor[Math.max(1, threads)];
+        for (int i = 0; i < acceptors.length; i++) {
+            acceptors[i] = new Acceptor(i);
+        }
+    }
+
+    /**
+     * Start all acceptor threads
+     */
+    public void start() {
+        running = true;
+        for (Acceptor acceptor : acceptors) {
+            acceptor.thread.start();
+        }
+    }
+
+    /**
+     * Get the number of acceptor threads
+     */
+    public int getAcceptorCount() {
+        return acceptors.length;
+    }
+
+    /**
+     * Start accepting on a bound listener
+     * @param listener the listener, switched to non-blocking mode here
+     * @param port the port it is bound to
+     * @param portStats the counters of that port
+     * @param index which acceptor thread serves it, wrapped around the number of threads
+     */
+    public void register(ServerSocketChannel listener, int port, PortStats portStats, int index) throws IOException {
+        listener.configureBlocking(false);
+        Acceptor acceptor = acceptors[Math.floorMod(index, acceptors.length)];
+        acceptor.execute(() -> {
+            try {
+                listener.register(acceptor.selector, SelectionKey.OP_ACCEPT, new Listener(port, portStats));
+            } catch (IOException e) {
+                handler.acceptFailed(port, e);
+            }
+        });
+    }
+
+    /**
+     * Stop all acceptor threads, the listeners themselves are left to their owner
+     */
+    public void shutdown() {
+        running = false;
+        for (Acceptor acceptor : acceptors) {
+            acceptor.selector.wakeup();
+        }
+        for (Acceptor acceptor : acceptors) {
+            try {
+                acceptor.thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * A selector thread that accepts for a subset of the listeners
+     */
+    private final class Acceptor implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+
+        Acceptor(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "OmniPort-Acceptor-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        /**
+         * Run a task on this acceptor's thread
+         */
+        void execute(Runnable task) {
+            pendingTasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(SELECT_TIMEOUT);
+
+                    Runnable task;
+                    while ((task = pendingTasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        try {
+                            if (key.isValid() && key.isAcceptable()) {
+                                accept((ServerSocketChannel) key.channel(), (Listener) key.attachment());
+                            }
+                        } catch (CancelledKeyException e) {
+                            // The listener was closed
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (running) {
+                    plugin.log(OmniPort.ERROR + "Acceptor stopped unexpectedly §8(" + e.getMessage() + ")");
+                }
+            } finally {
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+
+        /**
+         * Take the connections waiting on a listener, up to a fair share
+         */
+        private void accept(ServerSocketChannel serverSocket, Listener listener) {
+            for (int i = 0; i < MAX_ACCEPTS_PER_KEY; i++) {
+                SocketChannel client;
+                try {
+                    client = serverSocket.accept();
+                } catch (IOException e) {
+                    if (running && serverSocket.isOpen()) {
+                        handler.acceptFailed(listener.port, e);
+                    }
+                    return;
+                }
+                if (client == null) {
+                    return;
+                }
+                try {
+                    handler.accepted(client, listener.port, listener.portStats);
+                } catch (IOException e) {
+                    handler.acceptFailed(listener.port, e);
+                    try {
+                        client.close();
+                    } catch (IOException ignored) {
+                        // Ignore
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Listener {
+        private final int port;
+        private final PortStats portStats;
+
+        Listener(int port, PortStats portStats) {
+            this.port = port;
+            this.portStats = portStats;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package me.threefour.omniport;
+
+import java.net.SocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A server connections are forwarded to, with its live connection count and health
+ */
+public class Backend {
+    private final String name;
+    private final SocketAddress address;
+    private final int weight;
+    private final BackendHealth health;
+    private final AtomicInteger active = new AtomicInteger(0);
+    private final LongAdder total = new LongAdder();
+
+    /**
+     * @param name name used in routes, groups and the console
+     * @param address where connections are forwarded
+     * @param weight share of its groups' connections relative to the other members
+     * @param health prober and circuit breaker, or null if health is not tracked
+     */
+    public Backend(String name, SocketAddress address, int weight, BackendHealth health) {
+        this.name = name;
+        this.address = address;
+        this.weight = Math.max(1, weight);
+        this.health = health;
+    }
+
+    /**
+     * Get the backend's name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the address connections are forwarded to
+     */
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Get the backend's weight within its groups
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Check whether this is the server OmniPort runs in, the only one the status cache and backend pool serve
+     */
+    public boolean isMain() {
+        return Routing.MAIN.equals(name);
+    }
+
+    /**
+     * Get the prober and circuit breaker
+     * @return the breaker, or null if health is not tracked
+     */
+    public BackendHealth getHealth() {
+        return health;
+    }
+
+    /**
+     * Check whether new clients may be sent here
+     */
+    public boolean isAvailable() {
+        return health == null || health.getState() != BackendHealth.State.OPEN;
+    }
+
+    /**
+     * Count a connection assigned to this backend
+     */
+    public void connectionOpened() {
+        active.incrementAndGet();
+        total.increment();
+    }
+
+    /**
+     * Count a connection to this backend that has closed
+     */
+    public void connectionClosed() {
+        active.decrementAndGet();
+    }
+
+    /**
+     * Get the number of open connections assigned to this backend
+     */
+    public int getActive() {
+        return active.get();
+    }
+
+    /**
+     * Get the number of connections ever assigned to this backend
+     */
+    public long getTotal() {
+        return total.sum();
+    }
+
+    /**
+     * Describe the backend for the console, e.g. "lobby-1 (port 25580)"
+     */
+    public String describe() {
+        return name + " (" + ProxyServer.describeBackend(address) + ")";
+    }
+}
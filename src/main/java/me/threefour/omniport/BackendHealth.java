@@ -0,0 +1,248 @@
+package me.threefour.omniport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Probes a backend server in the background and trips a circuit breaker when it stops accepting connections,
+ * so new clients are sent elsewhere or refused at accept time instead of each one waiting on a connect that will fail.
+ * Real backend connects count towards the breaker too, so it opens as soon as clients start failing.
+ */
+public class BackendHealth {
+    // Weight of the latest probe in the smoothed connect latency
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    /**
+     * State of the circuit breaker
+     */
+    public enum State {
+        // Clients are admitted
+        CLOSED("closed"),
+        // The backend is down, clients are refused
+        OPEN("open"),
+        // The backend answered a probe again, clients are admitted and the next failure opens the breaker
+        HALF_OPEN("half-open");
+
+        private final String label;
+
+        State(String label) {
+            this.label = label;
+        }
+
+        /**
+         * Lower-case name for the console and metrics
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final ProxyHost plugin;
+    private final String name;
+    private final SocketAddress backend;
+    private final long interval;
+    private final IntSupplier connectTimeout;
+    private final int failureThreshold;
+    private final int recoveryThreshold;
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder probeFailures = new LongAdder();
+    private final LongAdder trips = new LongAdder();
+    private ScheduledExecutorService scheduler;
+    private volatile State state = State.CLOSED;
+    // Written under the lock, read without it by connectSucceeded
+    private volatile int consecutiveFailures = 0;
+    private int consecutiveSuccesses = 0;
+    private volatile long lastLatency = -1;
+    private volatile long smoothedLatency = -1;
+    private volatile long stateSince = System.currentTimeMillis();
+
+    /**
+     * @param plugin host used for logging
+     * @param name name of the backend for the console
+     * @param backend address of the backend
+     * @param interval time between probes, in milliseconds
+     * @param connectTimeout current backend connect timeout in milliseconds, read for every probe
+     * @param failureThreshold failed connects in a row that open the breaker
+     * @param recoveryThreshold successful probes in a row that close it again
+     */
+    public BackendHealth(ProxyHost plugin, String name, SocketAddress backend, long interval, IntSupplier connectTimeout,
+                         int failureThreshold, int recoveryThreshold) {
+        this.plugin = plugin;
+        this.name = name;
+        this.backend = backend;
+        this.interval = Math.max(100, interval);
+        this.connectTimeout = connectTimeout;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.recoveryThreshold = Math.max(1, recoveryThreshold);
+    }
+
+    /**
+     * Start probing in the background
+     */
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("OmniPort-Health").daemon().factory());
+        scheduler.scheduleWithFixedDelay(this::probe, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop probing
+     */
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Record a client's backend connect that succeeded
+     */
+    public void connectSucceeded() {
+        // Nearly always nothing to reset, so the lock stays off the connect path
+        if (consecutiveFailures == 0) {
+            return;
+        }
+        synchronized (this) {
+            consecutiveFailures = 0;
+        }
+    }
+
+    /**
+     * Record a client's backend connect that failed or timed out
+     */
+    public void connectFailed() {
+        failed();
+    }
+
+    /**
+     * Get the state of the circuit breaker
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Get the time the breaker last changed state, in epoch milliseconds
+     */
+    public long getStateSince() {
+        return stateSince;
+    }
+
+    /**
+     * Get the connect latency of the latest successful probe, in nanoseconds
+     * @return the latency, or -1 if no probe has succeeded yet
+     */
+    public long getLastLatency() {
+        return lastLatency;
+    }
+
+    /**
+     * Get the smoothed connect latency of successful probes, in nanoseconds
+     * @return the latency, or -1 if no probe has succeeded yet
+     */
+    public long getSmoothedLatency() {
+        return smoothedLatency;
+    }
+
+    /**
+     * Get the number of probes sent
+     */
+    public long getProbes() {
+        return probes.sum();
+    }
+
+    /**
+     * Get the number of probes that failed
+     */
+    public long getProbeFailures() {
+        return probeFailures.sum();
+    }
+
+    /**
+     * Get the number of times the breaker opened
+     */
+    public long getTrips() {
+        return trips.sum();
+    }
+
+    private void probe() {
+        probes.increment();
+        long start = System.nanoTime();
+        try (SocketChannel channel = connect(backend, connectTimeout.getAsInt())) {
+            long latency = System.nanoTime() - start;
+            lastLatency = latency;
+            long smoothed = smoothedLatency;
+            smoothedLatency = smoothed < 0 ? latency : smoothed + (long) (LATENCY_SMOOTHING * (latency - smoothed));
+            probeSucceeded();
+        } catch (IOException e) {
+            probeFailures.increment();
+            failed();
+        }
+    }
+
+    private synchronized void probeSucceeded() {
+        consecutiveFailures = 0;
+        consecutiveSuccesses++;
+        if (state == State.OPEN) {
+            transition(State.HALF_OPEN);
+            plugin.log(OmniPort.INFO + "Backend §f" + name + "§b is answering again, admitting clients on trial");
+        }
+        if (state == State.HALF_OPEN && consecutiveSuccesses >= recoveryThreshold) {
+            transition(State.CLOSED);
+            plugin.log(OmniPort.SUCCESS + "Backend §f" + name + "§a is back up §8(connect " + formatLatency(lastLatency) + ")");
+        }
+    }
+
+    private synchronized void failed() {
+        consecutiveSuccesses = 0;
+        consecutiveFailures++;
+        // Any failure while on trial sends the breaker straight back to open
+        if (state == State.HALF_OPEN || state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            transition(State.OPEN);
+            trips.increment();
+            plugin.log(OmniPort.ERROR + "Backend §f" + name + "§c at §f" + ProxyServer.describeBackend(backend) +
+                       "§c is not accepting connections, sending no new clients there until it recovers");
+        }
+    }
+
+    private void transition(State next) {
+        state = next;
+        stateSince = System.currentTimeMillis();
+    }
+
+    /**
+     * Open a blocking connection to a backend, giving up after a timeout on TCP.
+     * Unix domain socket connects succeed or fail right away, so they need no timeout.
+     * @param timeout connect timeout in milliseconds (0 = wait as long as the OS does)
+     */
+    static SocketChannel connect(SocketAddress backend, int timeout) throws IOException {
+        if (!(backend instanceof InetSocketAddress)) {
+            return SocketChannel.open(backend);
+        }
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().connect(backend, Math.max(0, timeout));
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Format a latency in nanoseconds for the console, e.g. "0.42ms"
+     */
+    static String formatLatency(long nanos) {
+        if (nanos < 0) {
+            return "unknown";
+        }
+        return String.format("%.2fms", nanos / 1_000_000.0);
+    }
+}
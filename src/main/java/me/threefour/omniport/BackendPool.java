@@ -0,0 +1,245 @@
+package me.threefour.omniport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a few connections to the main server open ahead of time, so a new client can start forwarding
+ * without waiting for a backend connect. Each connection is handed out once and never returned.
+ * The pool follows the recent connect rate and closes connections before the server would time them out.
+ */
+public class BackendPool {
+    private static final long TICK = 250;
+    // Weight of the latest tick in the smoothed connect rate
+    private static final double RATE_SMOOTHING = 0.3;
+    // Keep enough connections ready for this much of the recent connect rate
+    private static final double HEADROOM_SECONDS = 0.5;
+
+    private final ProxyHost plugin;
+    private final SocketAddress backend;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeout;
+    // Oldest connections at the head, so they are handed out before they expire
+    private final Deque<PooledChannel> ready = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final AtomicBoolean refillQueued = new AtomicBoolean(false);
+    private final LongAdder demand = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private ScheduledExecutorService scheduler;
+    private double connectRate = 0;
+    private volatile int target;
+    private boolean failing = false;
+    private volatile boolean running = false;
+
+    /**
+     * @param plugin host used for logging
+     * @param backend address of the main server
+     * @param minSize connections kept ready even when nobody is joining
+     * @param maxSize upper bound on ready connections
+     * @param idleTimeout how long a ready connection may wait for a client, in milliseconds
+     */
+    public BackendPool(ProxyHost plugin, SocketAddress backend, int minSize, int maxSize, long idleTimeout) {
+        this.plugin = plugin;
+        this.backend = backend;
+        this.maxSize = Math.max(1, maxSize);
+        this.minSize = Math.min(Math.max(0, minSize), this.maxSize);
+        this.idleTimeout = idleTimeout;
+        this.target = this.minSize;
+    }
+
+    /**
+     * Start filling the pool in the background
+     */
+    public void start() {
+        running = true;
+        scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("OmniPort-Backend-Pool").daemon().factory());
+        scheduler.scheduleWithFixedDelay(this::tick, 0, TICK, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop refilling and close every ready connection
+     */
+    public void shutdown() {
+        running = false;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        closeReady();
+    }
+
+    /**
+     * Take a ready connection to the main server
+     * @return a connected channel in non-blocking mode, or null if none is ready and the caller has to connect itself
+     */
+    public SocketChannel poll() {
+        demand.increment();
+        long now = System.currentTimeMillis();
+        PooledChannel pooled;
+        while ((pooled = ready.pollFirst()) != null) {
+            size.decrementAndGet();
+            // Connections the server already dropped count as expired too
+            if (now - pooled.connectedAt > idleTimeout || !isOpen(pooled.channel)) {
+                expired.increment();
+                closeQuietly(pooled.channel);
+                continue;
+            }
+            hits.increment();
+            return pooled.channel;
+        }
+
+        misses.increment();
+        // Catch up right away instead of on the next tick
+        ScheduledExecutorService current = scheduler;
+        if (current != null && refillQueued.compareAndSet(false, true)) {
+            try {
+                current.execute(this::refill);
+            } catch (RuntimeException e) {
+                refillQueued.set(false);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the number of connections waiting for a client
+     */
+    public int getReady() {
+        return size.get();
+    }
+
+    /**
+     * Get the number of connections the pool is currently aiming for
+     */
+    public int getTarget() {
+        return target;
+    }
+
+    /**
+     * Get the number of clients that got a ready connection
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of clients that had to connect themselves
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Get the number of ready connections closed unused
+     */
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    private void tick() {
+        // Close connections that have waited too long, before the server gives up on them
+        long now = System.currentTimeMillis();
+        PooledChannel oldest;
+        while ((oldest = ready.peekFirst()) != null && now - oldest.connectedAt > idleTimeout) {
+            if (ready.removeFirstOccurrence(oldest)) {
+                size.decrementAndGet();
+                expired.increment();
+                closeQuietly(oldest.channel);
+            }
+        }
+
+        double sample = demand.sumThenReset() * 1000.0 / TICK;
+        connectRate += RATE_SMOOTHING * (sample - connectRate);
+        if (connectRate < 0.01) {
+            connectRate = 0;
+        }
+        target = Math.max(minSize, Math.min(maxSize, (int) Math.ceil(connectRate * HEADROOM_SECONDS)));
+        refill();
+    }
+
+    private void refill() {
+        refillQueued.set(false);
+        while (running && size.get() < target) {
+            SocketChannel channel = null;
+            try {
+                channel = BackendHealth.connect(backend, plugin.getConnectTimeout());
+                if (backend instanceof InetSocketAddress) {
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                }
+                channel.configureBlocking(false);
+            } catch (IOException e) {
+                closeQuietly(channel);
+                if (!failing) {
+                    failing = true;
+                    plugin.log(OmniPort.WARNING + "Could not pre-connect to the main server §8(" + e.getMessage() + ")");
+                }
+                return;
+            }
+            if (failing) {
+                failing = false;
+                plugin.log(OmniPort.SUCCESS + "Pre-connecting to the main server again");
+            }
+            ready.addLast(new PooledChannel(channel, System.currentTimeMillis()));
+            size.incrementAndGet();
+        }
+        // Lost a race with shutdown
+        if (!running) {
+            closeReady();
+        }
+    }
+
+    private void closeReady() {
+        PooledChannel pooled;
+        while ((pooled = ready.pollFirst()) != null) {
+            size.decrementAndGet();
+            closeQuietly(pooled.channel);
+        }
+    }
+
+    /**
+     * Check that the server has not closed a ready connection.
+     * The server never speaks first, so anything but "nothing to read yet" means the connection is unusable.
+     */
+    private static boolean isOpen(SocketChannel channel) {
+        try {
+            return channel.read(ByteBuffer.allocate(1)) == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private static final class PooledChannel {
+        private final SocketChannel channel;
+        private final long connectedAt;
+
+        PooledChannel(SocketChannel channel, long connectedAt) {
+            this.channel = channel;
+            this.connectedAt = connectedAt;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package me.threefour.omniport;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Picks the backend for each new connection from the route of the port it arrived on.
+ * A route points at a single backend or at a group balanced by weight or by least connections;
+ * backends whose circuit breaker is open are skipped while another member can take the connection.
+ */
+public class BackendRouter {
+    // Keeps the precomputed weighted schedule small whatever weights are configured
+    private static final int MAX_WEIGHT = 100;
+
+    private final Map<String, Backend> backends = new LinkedHashMap<>();
+    private final Map<String, Group> groups = new LinkedHashMap<>();
+    private final Map<Integer, Group> routes = new HashMap<>();
+    private final Group defaultGroup;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param main the server OmniPort runs in, used by every port without a route
+     * @param routing the extra backends, groups and routes
+     * @param healthFactory creates the health tracking for an extra backend, returning null to not track it
+     */
+    public BackendRouter(Backend main, Routing routing, Function<Routing.BackendSpec, BackendHealth> healthFactory) {
+        backends.put(main.getName(), main);
+        for (Routing.BackendSpec spec : routing.getBackends().values()) {
+            backends.put(spec.getName(), new Backend(spec.getName(), spec.getAddress(), spec.getWeight(), healthFactory.apply(spec)));
+        }
+        // Every backend can be routed to on its own
+        for (Backend backend : backends.values()) {
+            groups.put(backend.getName(), new Group(backend.getName(), Routing.Balance.WEIGHTED, List.of(backend)));
+        }
+        for (Routing.GroupSpec spec : routing.getGroups().values()) {
+            List<Backend> members = new ArrayList<>();
+            for (String member : spec.getMembers()) {
+                members.add(backends.get(member));
+            }
+            groups.put(spec.getName(), new Group(spec.getName(), spec.getBalance(), members));
+        }
+        for (Map.Entry<Integer, String> route : routing.getRoutes().entrySet()) {
+            routes.put(route.getKey(), groups.get(route.getValue()));
+        }
+        defaultGroup = groups.get(main.getName());
+    }
+
+    /**
+     * Start the health probes of every backend
+     */
+    public void start() {
+        for (Backend backend : backends.values()) {
+            if (backend.getHealth() != null) {
+                backend.getHealth().start();
+            }
+        }
+    }
+
+    /**
+     * Stop the health probes of every backend
+     */
+    public void shutdown() {
+        for (Backend backend : backends.values()) {
+            if (backend.getHealth() != null) {
+                backend.getHealth().shutdown();
+            }
+        }
+    }
+
+    /**
+     * Pick the backend for a new connection on a port
+     * @return the backend, or null if every backend the port routes to is down
+     */
+    public Backend select(int port) {
+        Group group = routes.getOrDefault(port, defaultGroup);
+        Backend backend = group.select();
+        if (backend == null) {
+            rejected.increment();
+        }
+        return backend;
+    }
+
+    /**
+     * Get the name of the backend or group a port routes to
+     */
+    public String getRoute(int port) {
+        return routes.getOrDefault(port, defaultGroup).name;
+    }
+
+    /**
+     * Get the ports with a route of their own, by the backend or group they route to
+     */
+    public Map<String, List<Integer>> getRoutedPorts() {
+        Map<String, List<Integer>> routed = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Group> route : routes.entrySet()) {
+            routed.computeIfAbsent(route.getValue().name, name -> new ArrayList<>()).add(route.getKey());
+        }
+        return routed;
+    }
+
+    /**
+     * Describe a backend or group for the console, e.g. "lobbies (least-connections: lobby-1, lobby-2)"
+     */
+    public String describe(String target) {
+        Group group = groups.get(target);
+        if (group == null) {
+            return target;
+        }
+        if (group.members.length == 1 && group.name.equals(group.members[0].getName())) {
+            return group.members[0].describe();
+        }
+        List<String> names = new ArrayList<>();
+        for (Backend member : group.members) {
+            names.add(member.getName());
+        }
+        return group.name + " (" + group.balance.getLabel() + ": " + String.join(", ", names) + ")";
+    }
+
+    /**
+     * Get a backend by name
+     * @return the backend, or null if there is none by that name
+     */
+    public Backend getBackend(String name) {
+        return backends.get(name);
+    }
+
+    /**
+     * Get every backend, the main server first
+     */
+    public Collection<Backend> getBackends() {
+        return Collections.unmodifiableCollection(backends.values());
+    }
+
+    /**
+     * Get the number of connections refused because every backend of their route was down
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Backends that share the connections of the ports routed to them
+     */
+    private static final class Group {
+        private final String name;
+        private final Routing.Balance balance;
+        private final Backend[] members;
+        // Member indexes in smooth weighted round-robin order, so heavy members are spread out, not bunched
+        private final int[] schedule;
+        private final AtomicInteger cursor = new AtomicInteger(0);
+
+        Group(String name, Routing.Balance balance, List<Backend> members) {
+            this.name = name;
+            this.balance = balance;
+            this.members = members.toArray(new Backend[0]);
+            this.schedule = schedule(this.members);
+        }
+
+        Backend select() {
+            if (members.length == 1) {
+                return members[0].isAvailable() ? members[0] : null;
+            }
+            int start = cursor.getAndIncrement();
+            if (balance == Routing.Balance.LEAST_CONNECTIONS) {
+                // Ties go to whoever is next in turn
+                Backend best = null;
+                for (int i = 0; i < members.length; i++) {
+                    Backend member = members[Math.floorMod(start + i, members.length)];
+                    if (member.isAvailable() && (best == null ||
+                        (long) member.getActive() * best.getWeight() < (long) best.getActive() * member.getWeight())) {
+                        best = member;
+                    }
+                }
+                return best;
+            }
+            for (int i = 0; i < schedule.length; i++) {
+                Backend member = members[schedule[Math.floorMod(start + i, schedule.length)]];
+                if (member.isAvailable()) {
+                    return member;
+                }
+            }
+            return null;
+        }
+
+        private static int[] schedule(Backend[] members) {
+            int total = 0;
+            int[] weights = new int[members.length];
+            for (int i = 0; i < members.length; i++) {
+                weights[i] = Math.min(MAX_WEIGHT, members[i].getWeight());
+                total += weights[i];
+            }
+            int[] schedule = new int[total];
+            int[] current = new int[members.length];
+            for (int slot = 0; slot < total; slot++) {
+                int picked = 0;
+                for (int i = 0; i < members.length; i++) {
+                    current[i] += weights[i];
+                    if (current[i] > current[picked]) {
+                        picked = i;
+                    }
+                }
+                current[picked] -= total;
+                schedule[slot] = picked;
+            }
+            return schedule;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package me.threefour.omniport;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared pool of direct buffers used to forward traffic between sockets.
+ * Buffers are grouped by size, so ports can use different buffer sizes without mixing them up.
+ */
+public class BufferPool {
+    private final int defaultSize;
+    private final Map<Integer, Integer> portSizes;
+    private final int maxPooled;
+    private final Map<Integer, ArrayBlockingQueue<ByteBuffer>> pools = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+
+    /**
+     * @param defaultSize buffer size used for ports without an override
+     * @param portSizes per-port buffer size overrides
+     * @param maxPooled maximum number of idle buffers kept for each buffer size
+     */
+    public BufferPool(int defaultSize, Map<Integer, Integer> portSizes, int maxPooled) {
+        this.defaultSize = roundSize(defaultSize);
+        this.portSizes = new ConcurrentHashMap<>();
+        for (Map.Entry<Integer, Integer> entry : portSizes.entrySet()) {
+            this.portSizes.put(entry.getKey(), roundSize(entry.getValue()));
+        }
+        this.maxPooled = Math.max(0, maxPooled);
+    }
+
+    /**
+     * Get the buffer size used for a port
+     */
+    public int getBufferSize(int port) {
+        return portSizes.getOrDefault(port, defaultSize);
+    }
+
+    /**
+     * Take a cleared buffer for the given port, allocating only if the pool is empty
+     */
+    public ByteBuffer acquire(int port) {
+        int size = getBufferSize(port);
+        ByteBuffer buffer = pool(size).poll();
+        if (buffer != null) {
+            hits.increment();
+            return buffer;
+        }
+        misses.increment();
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * Return a buffer to the pool. Buffers beyond the pool limit are left to the garbage collector.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        buffer.clear();
+        if (maxPooled == 0 || !pool(buffer.capacity()).offer(buffer)) {
+            discarded.increment();
+        }
+    }
+
+    /**
+     * Get the number of buffers handed out from the pool
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of buffers that had to be allocated because the pool was empty
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Get the number of returned buffers dropped because the pool was full
+     */
+    public long getDiscarded() {
+        return discarded.sum();
+    }
+
+    /**
+     * Get the number of idle buffers currently held
+     */
+    public int getPooled() {
+        int pooled = 0;
+        for (ArrayBlockingQueue<ByteBuffer> pool : pools.values()) {
+            pooled += pool.size();
+        }
+        return pooled;
+    }
+
+    private ArrayBlockingQueue<ByteBuffer> pool(int size) {
+        ArrayBlockingQueue<ByteBuffer> pool = pools.get(size);
+        if (pool == null) {
+            pool = pools.computeIfAbsent(size, s -> new ArrayBlockingQueue<>(Math.max(1, maxPooled)));
+        }
+        return pool;
+    }
+
+    /**
+     * Round a size up to a power of two between 1 KB and 1 MB so similar sizes share a pool
+     */
+    private static int roundSize(int size) {
+        int clamped = Math.max(1024, Math.min(size, 1 << 20));
+        return Integer.highestOneBit(clamped - 1) << 1;
+    }
+}
@@ -1,124 +1,341 @@
 package me.threefour.omniport;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
-import java.util.UUID;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Handles individual client connections to the OmniPort server by proxying them to the main Minecraft port
  */
 public class ClientHandler implements Runnable {
-    private final Socket clientSocket;
+    private final SocketChannel clientChannel;
     private final int port;
-    private final Logger logger;
-    private final OmniPort plugin;
-    private final int mainServerPort;
-    private final UUID connectionId;
-    private static final int BUFFER_SIZE = 8192;
-
-    public ClientHandler(Socket clientSocket, int port, OmniPort plugin, UUID connectionId) {
-        this.clientSocket = clientSocket;
-        this.port = port;
+    private final ProxyHost plugin;
+    private final Backend backend;
+    private final SocketAddress backendAddress;
+    private final long connectionId;
+    private final ConnectionInfo connectionInfo;
+    private final ProxyStats stats;
+    private final PortStats portStats;
+    private final String clientAddress;
+    private final HandshakeSniffer sniffer;
+    private boolean clientGone = false;
+    // The backend channel while it is connecting, so a connect timeout can close it
+    private volatile SocketChannel connecting;
+
+    public ClientHandler(SocketChannel clientChannel, ConnectionInfo connectionInfo, ProxyHost plugin, long connectionId) {
+        this.clientChannel = clientChannel;
+        this.port = connectionInfo.getPort();
         this.plugin = plugin;
-        this.logger = plugin.getLogger();
-        this.mainServerPort = plugin.getMainServerPort();
+        this.backend = connectionInfo.getBackend();
+        this.backendAddress = backend.getAddress();
         this.connectionId = connectionId;
+        this.connectionInfo = connectionInfo;
+        this.stats = plugin.getStats();
+        this.portStats = stats.port(port);
+        this.clientAddress = clientChannel.socket().getInetAddress().getHostAddress();
+        this.sniffer = new HandshakeSniffer(connectionInfo, stats);
     }
 
     @Override
     public void run() {
-        Socket serverSocket = null;
+        SocketChannel serverChannel = null;
+        BufferPool bufferPool = plugin.getBufferPool();
+        ByteBuffer clientBuffer = null;
+        ByteBuffer serverBuffer = null;
+        // Once both directions are forwarding, the last of them to finish cleans up instead
+        boolean forwarding = false;
+        // Until the backend is connected, closing the client and any connect in progress is enough to end the handler
+        connectionInfo.setCloser(() -> {
+            closeQuietly(clientChannel);
+            closeQuietly(connecting);
+        });
         try {
-            // Connect to the main Minecraft server
-            serverSocket = new Socket("127.0.0.1", mainServerPort);
-            plugin.log(plugin.INFO + "Proxying client from §b" + clientSocket.getInetAddress().getHostAddress() + 
-                      "§3:§b" + port + " §3→ main server at port §b" + mainServerPort);
-            
-            // Get streams
-            final InputStream clientIn = clientSocket.getInputStream();
-            final OutputStream clientOut = clientSocket.getOutputStream();
-            final InputStream serverIn = serverSocket.getInputStream();
-            final OutputStream serverOut = serverSocket.getOutputStream();
-            
-            // Create two threads to proxy data in both directions
-            Thread clientToServer = new Thread(() -> {
+            // Borrow one pooled direct buffer per direction
+            clientBuffer = bufferPool.acquire(port);
+            serverBuffer = bufferPool.acquire(port);
+
+            // With a cached status response, hold off on the backend until the handshake shows what the client wants.
+            // The cache holds the main server's response, so clients routed elsewhere are always proxied
+            StatusCache statusCache = backend.isMain() ? plugin.getStatusCache() : null;
+            if (statusCache != null && statusCache.getResponse() != null) {
+                MinecraftHandshake handshake = awaitHandshake(clientBuffer);
+                if (clientGone) {
+                    return;
+                }
+                byte[] response = statusCache.getResponse();
+                if (handshake != null && handshake.getIntent() == MinecraftHandshake.Intent.STATUS && response != null) {
+                    answerStatus(statusCache, response, clientBuffer);
+                    return;
+                }
+            }
+
+            // Connect to the backend the router picked
+            long connectStart = System.nanoTime();
+            serverChannel = connectBackend();
+            stats.getBackendConnect().record(System.nanoTime() - connectStart);
+
+            // Forward packets as they arrive instead of letting Nagle hold back partial writes
+            clientChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            if (backendAddress instanceof InetSocketAddress) {
+                serverChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+            plugin.logConnectionEvent(OmniPort.INFO + "Proxying client from §b" + clientAddress +
+                      "§3:§b" + port + " §3→ §b" + backend.getName() + "§3 at §b" + ProxyServer.describeBackend(backendAddress));
+
+            // Pass on whatever arrived while waiting for the handshake
+            clientBuffer.flip();
+            while (clientBuffer.hasRemaining()) {
+                serverChannel.write(clientBuffer);
+            }
+            clientBuffer.clear();
+
+            final SocketChannel server = serverChannel;
+            final ByteBuffer toServer = clientBuffer;
+            final ByteBuffer toClient = serverBuffer;
+
+            // Both proxy threads block in reads, so closing from outside has to close both sides
+            connectionInfo.setCloser(() -> {
+                closeQuietly(clientChannel);
+                closeQuietly(server);
+            });
+
+            // Forward each direction on a worker of its own, this handshake worker is free again straight away.
+            // Timeouts are enforced by the timeout wheel, which closes both channels through the closer
+            AtomicInteger running = new AtomicInteger(2);
+            Runnable clientToServer = () -> {
                 try {
-                    proxy(clientIn, serverOut);
+                    proxy(clientChannel, server, toServer, true);
                 } catch (IOException e) {
                     // This is normal when a client disconnects
-                    if (e.getMessage() == null || !e.getMessage().contains("Socket closed")) {
-                        plugin.log(plugin.INFO + "§8Client to server proxy closed §7(" + 
-                                  clientSocket.getInetAddress().getHostAddress() + ")");
+                    if (e.getMessage() == null || !e.getMessage().contains("closed")) {
+                        plugin.logConnectionEvent(OmniPort.INFO + "§8Client to server proxy closed §7(" + clientAddress + ")");
+                    }
+                } finally {
+                    if (running.decrementAndGet() == 0) {
+                        finish(server, toServer, toClient);
                     }
                 }
-            });
-            
-            Thread serverToClient = new Thread(() -> {
+            };
+            Runnable serverToClient = () -> {
                 try {
-                    proxy(serverIn, clientOut);
+                    proxy(server, clientChannel, toClient, false);
                 } catch (IOException e) {
                     // This is normal when a server disconnects a client
-                    if (e.getMessage() == null || !e.getMessage().contains("Socket closed")) {
-                        plugin.log(plugin.INFO + "§8Server to client proxy closed §7(" + 
-                                  clientSocket.getInetAddress().getHostAddress() + ")");
+                    if (e.getMessage() == null || !e.getMessage().contains("closed")) {
+                        plugin.logConnectionEvent(OmniPort.INFO + "§8Server to client proxy closed §7(" + clientAddress + ")");
+                    }
+                } finally {
+                    if (running.decrementAndGet() == 0) {
+                        finish(server, toServer, toClient);
                     }
                 }
-            });
-            
-            // Start the proxy threads
-            clientToServer.start();
-            serverToClient.start();
-            
-            // Wait for the threads to finish
-            clientToServer.join();
-            serverToClient.join();
-            
+            };
+
+            forwarding = true;
+            WorkerPool pool = plugin.getForwardingPool();
+            boolean refused = false;
+            for (Runnable pump : new Runnable[] {clientToServer, serverToClient}) {
+                if (pool.execute(pump)) {
+                    continue;
+                }
+                // Closing ends a direction that did start, the count covers the one that never will
+                if (!refused) {
+                    refused = true;
+                    portStats.connectionFailed();
+                    plugin.log(OmniPort.WARNING + "No forwarding worker free for client from §f" + clientAddress +
+                               "§e on port §f" + port + "§e, dropping it §8(" + pool.getMaxThreads() + " workers busy)");
+                    connectionInfo.close();
+                }
+                if (running.decrementAndGet() == 0) {
+                    finish(server, toServer, toClient);
+                }
+            }
+
         } catch (IOException e) {
-            plugin.log(plugin.ERROR + "Error establishing proxy connection on port §c" + port + 
+            portStats.connectionFailed();
+            plugin.log(OmniPort.ERROR + "Error establishing proxy connection on port §c" + port +
                       " §8(" + e.getMessage() + ")");
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            plugin.log(plugin.WARNING + "Proxy thread interrupted §8(" + e.getMessage() + ")");
         } finally {
-            // Close the sockets
-            closeQuietly(clientSocket);
-            closeQuietly(serverSocket);
-            
-            // Log connection closed
-            plugin.log(plugin.INFO + "§7Connection closed from §8" + 
-                      clientSocket.getInetAddress().getHostAddress() + "§7:§8" + port);
-            
-            // Remove the connection from tracking
-            plugin.removeConnection(connectionId);
+            if (!forwarding) {
+                finish(serverChannel, clientBuffer, serverBuffer);
+            }
+        }
+    }
+
+    /**
+     * Close both sides, hand the buffers back and stop tracking the connection, once nothing uses them any more
+     */
+    private void finish(SocketChannel serverChannel, ByteBuffer clientBuffer, ByteBuffer serverBuffer) {
+        // Close the sockets
+        closeQuietly(clientChannel);
+        closeQuietly(serverChannel);
+
+        // Hand the buffers back once both directions are done with them
+        BufferPool bufferPool = plugin.getBufferPool();
+        bufferPool.release(clientBuffer);
+        bufferPool.release(serverBuffer);
+
+        // Log connection closed
+        plugin.logConnectionEvent(OmniPort.INFO + "§7Connection closed from §8" + clientAddress + "§7:§8" + port);
+
+        // Remove the connection from tracking
+        plugin.removeConnection(connectionId);
+    }
+
+    /**
+     * Take a ready connection to the main server from the pool, or connect a new one to the backend.
+     * The connect timeout is enforced by the timeout wheel, which closes the channel through the closer.
+     */
+    private SocketChannel connectBackend() throws IOException {
+        BackendPool backendPool = backend.isMain() ? plugin.getBackendPool() : null;
+        SocketChannel channel = backendPool != null ? backendPool.poll() : null;
+        if (channel != null) {
+            channel.configureBlocking(true);
+            return channel;
+        }
+
+        BackendHealth health = backend.getHealth();
+        channel = backendAddress instanceof InetSocketAddress
+            ? SocketChannel.open()
+            : SocketChannel.open(StandardProtocolFamily.UNIX);
+        connecting = channel;
+        connectionInfo.backendConnectStarted();
+        try {
+            // The closer may have run before the channel was published
+            if (!clientChannel.isOpen()) {
+                throw new ClosedChannelException();
+            }
+            channel.connect(backendAddress);
+        } catch (IOException e) {
+            closeQuietly(channel);
+            // Closed because the client left is not the backend's fault, a timeout or refusal is
+            if (health != null && (clientChannel.isOpen() || connectionInfo.getTimeoutCause() == TimeoutWheel.Cause.CONNECT)) {
+                health.connectFailed();
+            }
+            throw e;
+        } finally {
+            connecting = null;
+            connectionInfo.backendConnectFinished();
+        }
+        if (health != null) {
+            health.connectSucceeded();
         }
+        return channel;
     }
-    
+
     /**
-     * Proxy data from input stream to output stream
+     * Read from the client until its handshake arrives, the sniffer gives up or the buffer is full
+     * @return the handshake, or null if it could not be read
      */
-    private void proxy(InputStream in, OutputStream out) throws IOException {
-        byte[] buffer = new byte[BUFFER_SIZE];
+    private MinecraftHandshake awaitHandshake(ByteBuffer buffer) throws IOException {
+        // The timeout wheel closes the channel if the handshake takes too long, failing the read.
+        // Bytes land straight in the pooled buffer and are parsed where they are.
+        try {
+            while (connectionInfo.getHandshake() == null && !sniffer.isDone() && buffer.hasRemaining()) {
+                int start = buffer.position();
+                int read = clientChannel.read(buffer);
+                if (read == -1) {
+                    clientGone = true;
+                    break;
+                }
+                connectionInfo.addBytesIn(read);
+                portStats.addBytesIn(read);
+                sniffer.feed(buffer, start, buffer.position());
+            }
+        } catch (IOException e) {
+            clientGone = true;
+        }
+        return connectionInfo.getHandshake();
+    }
+
+    /**
+     * Answer a server-list ping from the cached response, the backend never sees the connection
+     */
+    private void answerStatus(StatusCache statusCache, byte[] response, ByteBuffer buffer) {
+        StatusExchange exchange = new StatusExchange(response);
+        boolean served = false;
+        buffer.flip();
+        try {
+            while (true) {
+                ByteBuffer reply;
+                while ((reply = exchange.next(buffer)) != null) {
+                    // The status response always comes first
+                    if (!served) {
+                        served = true;
+                        statusCache.statusServed();
+                    }
+                    connectionInfo.addBytesOut(reply.remaining());
+                    portStats.addBytesOut(reply.remaining());
+                    while (reply.hasRemaining()) {
+                        clientChannel.write(reply);
+                    }
+                }
+                buffer.compact();
+                if (exchange.isFinished() || !buffer.hasRemaining()) {
+                    break;
+                }
+                int read = clientChannel.read(buffer);
+                if (read == -1) {
+                    break;
+                }
+                connectionInfo.addBytesIn(read);
+                portStats.addBytesIn(read);
+                buffer.flip();
+            }
+        } catch (IOException e) {
+            // Clients may skip the ping, go quiet or hang up, the connection is closed either way
+        }
+    }
+
+    /**
+     * Proxy data from one channel to another through a direct buffer, so bytes never touch the Java heap
+     */
+    private void proxy(SocketChannel in, SocketChannel out, ByteBuffer buffer, boolean fromClient) throws IOException {
+        boolean firstByte = true;
         int read;
         while ((read = in.read(buffer)) != -1) {
-            out.write(buffer, 0, read);
-            out.flush();
+            if (fromClient) {
+                connectionInfo.addBytesIn(read);
+                portStats.addBytesIn(read);
+                if (!sniffer.isDone()) {
+                    sniffer.feed(buffer, 0, buffer.position());
+                }
+            } else {
+                if (firstByte && read > 0) {
+                    firstByte = false;
+                    stats.getFirstByte().record(System.nanoTime() - connectionInfo.getConnectNanos());
+                }
+                connectionInfo.addBytesOut(read);
+                portStats.addBytesOut(read);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
         }
+
+        // Pass the end of stream on so the other side can finish too
+        out.shutdownOutput();
     }
-    
+
     /**
-     * Close a socket quietly, ignoring any exceptions
+     * Close a channel quietly, ignoring any exceptions
      */
-    private void closeQuietly(Socket socket) {
-        if (socket != null) {
+    private void closeQuietly(SocketChannel channel) {
+        if (channel != null) {
             try {
-                socket.close();
+                channel.close();
             } catch (IOException e) {
                 // Ignore
             }
         }
     }
-} 
\ No newline at end of file
+}
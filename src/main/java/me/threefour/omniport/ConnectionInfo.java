@@ -14,13 +14,49 @@ public class ConnectionInfo {
     private final InetAddress address;
     private final int port;
     private final Instant connectTime;
-    private final String clientInfo;
+    private final long connectNanos;
+    private volatile String clientInfo;
+    private volatile MinecraftHandshake handshake;
+    private volatile String username;
+    // Each counter is only written by the thread forwarding that direction
+    private volatile long bytesIn;
+    private volatile long bytesOut;
+    // Monotonic times of the last read in each direction, checked by the timeout wheel
+    private volatile long lastClientRead;
+    private volatile long lastServerRead;
+    private volatile boolean handshakeSettled = false;
+    private volatile TimeoutWheel.Entry timeout;
+    private volatile TimeoutWheel.Cause timeoutCause;
+    // Monotonic time the backend connect started, 0 when no connect is in progress
+    private volatile long backendConnectStart = 0;
+    private volatile Backend backend;
+    private volatile long id = -1;
+    // Set by the engine forwarding the connection, so it can be closed from outside
+    private Runnable closer;
+    private boolean closeRequested = false;
     
-    public ConnectionInfo(InetAddress address, int port, String clientInfo) {
+    public ConnectionInfo(InetAddress address, int port) {
         this.address = address;
         this.port = port;
         this.connectTime = Instant.now();
-        this.clientInfo = clientInfo;
+        this.connectNanos = System.nanoTime();
+        this.lastClientRead = connectNanos;
+        this.lastServerRead = connectNanos;
+    }
+    
+    /**
+     * Get the id the connection registry tracks this connection under
+     * @return the id, or -1 if the connection is not tracked
+     */
+    public long getId() {
+        return id;
+    }
+    
+    /**
+     * Set the connection's id, done by the registry when it starts tracking the connection
+     */
+    public void setId(long id) {
+        this.id = id;
     }
     
     /**
@@ -37,6 +73,34 @@ public class ConnectionInfo {
         return port;
     }
     
+    /**
+     * Set how the forwarding engine closes this connection. Runs right away if a close was already requested.
+     */
+    public void setCloser(Runnable closer) {
+        boolean closeNow;
+        synchronized (this) {
+            this.closer = closer;
+            closeNow = closeRequested;
+        }
+        if (closeNow) {
+            closer.run();
+        }
+    }
+    
+    /**
+     * Close the connection from outside the engine forwarding it, e.g. when its port is removed
+     */
+    public void close() {
+        Runnable current;
+        synchronized (this) {
+            closeRequested = true;
+            current = closer;
+        }
+        if (current != null) {
+            current.run();
+        }
+    }
+    
     /**
      * Get the client info string (if available)
      */
@@ -44,6 +108,130 @@ public class ConnectionInfo {
         return clientInfo != null ? clientInfo : "Unknown";
     }
     
+    /**
+     * Set the client info string once it is known, e.g. after a background hostname lookup
+     */
+    public void setClientInfo(String clientInfo) {
+        this.clientInfo = clientInfo;
+    }
+    
+    /**
+     * Get the handshake the client sent
+     * @return the handshake, or null if it has not arrived or could not be read
+     */
+    public MinecraftHandshake getHandshake() {
+        return handshake;
+    }
+    
+    /**
+     * Set the handshake once it has been read off the connection
+     */
+    public void setHandshake(MinecraftHandshake handshake) {
+        this.handshake = handshake;
+        this.handshakeSettled = true;
+    }
+    
+    /**
+     * Check whether the handshake has arrived, or the client turned out not to send one
+     */
+    public boolean isHandshakeSettled() {
+        return handshakeSettled;
+    }
+    
+    /**
+     * Mark the handshake as settled without one, e.g. when the client speaks another protocol
+     */
+    public void settleHandshake() {
+        this.handshakeSettled = true;
+    }
+    
+    /**
+     * Get the connection's entry on the timeout wheel
+     * @return the entry, or null if timeouts are not enforced for it
+     */
+    public TimeoutWheel.Entry getTimeout() {
+        return timeout;
+    }
+    
+    /**
+     * Set the connection's entry on the timeout wheel
+     */
+    public void setTimeout(TimeoutWheel.Entry timeout) {
+        this.timeout = timeout;
+    }
+    
+    /**
+     * Get the deadline that closed this connection
+     * @return the cause, or null if the connection has not timed out
+     */
+    public TimeoutWheel.Cause getTimeoutCause() {
+        return timeoutCause;
+    }
+    
+    /**
+     * Record which deadline closed this connection, set by the timeout wheel just before closing it
+     */
+    public void setTimeoutCause(TimeoutWheel.Cause timeoutCause) {
+        this.timeoutCause = timeoutCause;
+    }
+    
+    /**
+     * Get the backend the connection is forwarded to
+     * @return the backend, or null if none has been picked yet
+     */
+    public Backend getBackend() {
+        return backend;
+    }
+    
+    /**
+     * Set the backend the connection is forwarded to, picked by the router when the client is admitted
+     */
+    public void setBackend(Backend backend) {
+        this.backend = backend;
+    }
+    
+    /**
+     * Note that the engine started connecting to the backend, which brings in the connect deadline
+     */
+    public void backendConnectStarted() {
+        // Never 0, which means no connect in progress
+        backendConnectStart = System.nanoTime() | 1;
+        TimeoutWheel.Entry entry = timeout;
+        if (entry != null) {
+            entry.recheck();
+        }
+    }
+    
+    /**
+     * Note that the backend connect finished, successfully or not
+     */
+    public void backendConnectFinished() {
+        backendConnectStart = 0;
+    }
+    
+    /**
+     * Get the monotonic time the backend connect in progress started
+     * @return the time, or 0 if no connect is in progress
+     */
+    public long getBackendConnectStart() {
+        return backendConnectStart;
+    }
+    
+    /**
+     * Get the username from the client's login start packet
+     * @return the username, or null if the client is not logging in or it has not arrived yet
+     */
+    public String getUsername() {
+        return username;
+    }
+    
+    /**
+     * Set the username once the login start packet has been read
+     */
+    public void setUsername(String username) {
+        this.username = username;
+    }
+    
     /**
      * Get the connection time
      */
@@ -51,6 +239,57 @@ public class ConnectionInfo {
         return connectTime;
     }
     
+    /**
+     * Get the monotonic clock value taken when the client connected, for latency measurements
+     */
+    public long getConnectNanos() {
+        return connectNanos;
+    }
+    
+    /**
+     * Count bytes received from the client
+     */
+    public void addBytesIn(long bytes) {
+        bytesIn += bytes;
+        lastClientRead = System.nanoTime();
+    }
+    
+    /**
+     * Count bytes sent to the client
+     */
+    public void addBytesOut(long bytes) {
+        bytesOut += bytes;
+        lastServerRead = System.nanoTime();
+    }
+    
+    /**
+     * Get the monotonic time bytes last arrived from the client
+     */
+    public long getLastClientRead() {
+        return lastClientRead;
+    }
+    
+    /**
+     * Get the monotonic time bytes were last sent to the client
+     */
+    public long getLastServerRead() {
+        return lastServerRead;
+    }
+    
+    /**
+     * Get the number of bytes received from the client
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+    
+    /**
+     * Get the number of bytes sent to the client
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+    
     /**
      * Get the formatted connection duration
      */
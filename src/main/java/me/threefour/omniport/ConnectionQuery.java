@@ -0,0 +1,419 @@
+package me.threefour.omniport;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A filtered, sorted page of the open connections, read from the arguments of /omniport connections,
+ * e.g. "port:30000-30100 ip:10.0.0.0/8 protocol:767 min:5m sort:bytes 2".
+ * Ports outside the filter are skipped using the registry's per-port index, the matches are collected by reference,
+ * and only the requested page is handed back to be rendered.
+ */
+public class ConnectionQuery {
+    public static final int PAGE_SIZE = 10;
+    private static final int MAX_PORT = 65535;
+
+    /**
+     * Order of the listed connections
+     */
+    public enum Sort {
+        // By port, newest first within a port
+        PORT("port"),
+        // Longest connected first
+        DURATION("duration"),
+        // Most bytes forwarded in both directions first
+        BYTES("bytes");
+
+        private final String label;
+
+        Sort(String label) {
+            this.label = label;
+        }
+
+        /**
+         * Lower-case name used in the command
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private int firstPort = 1;
+    private int lastPort = MAX_PORT;
+    private String portText;
+    private byte[] network;
+    private int prefix;
+    private String ipText;
+    private int firstProtocol = Integer.MIN_VALUE;
+    private int lastProtocol = Integer.MAX_VALUE;
+    private String protocolText;
+    private long minDurationNanos = 0;
+    private String minDurationText;
+    private Sort sort = Sort.PORT;
+    private int page = 1;
+
+    /**
+     * Read a query from command arguments: an optional page number and any of
+     * "port:&lt;port|range&gt;", "ip:&lt;address|cidr&gt;", "protocol:&lt;version|range&gt;", "min:&lt;duration&gt;" and "sort:&lt;port|duration|bytes&gt;"
+     * @param args the command arguments
+     * @param from index of the first argument that belongs to the query
+     * @throws IllegalArgumentException naming the argument that cannot be read
+     */
+    public static ConnectionQuery parse(String[] args, int from) {
+        ConnectionQuery query = new ConnectionQuery();
+        for (int i = from; i < args.length; i++) {
+            String arg = args[i].trim();
+            int colon = arg.indexOf(':');
+            String key = colon < 0 ? "" : arg.substring(0, colon).toLowerCase(Locale.ROOT);
+            String value = colon < 0 ? arg : arg.substring(colon + 1);
+            switch (key) {
+                case "" -> query.page = parsePage(arg);
+                case "port" -> {
+                    int[] range = parseRange(value, 1, MAX_PORT, arg);
+                    query.firstPort = range[0];
+                    query.lastPort = range[1];
+                    query.portText = value;
+                }
+                case "ip" -> query.parseNetwork(value, arg);
+                case "protocol" -> {
+                    int[] range = parseRange(value, 0, Integer.MAX_VALUE, arg);
+                    query.firstProtocol = range[0];
+                    query.lastProtocol = range[1];
+                    query.protocolText = value;
+                }
+                case "min" -> {
+                    query.minDurationNanos = parseDuration(value, arg);
+                    query.minDurationText = value.toLowerCase(Locale.ROOT);
+                }
+                case "sort" -> query.sort = parseSort(value, arg);
+                default -> throw new IllegalArgumentException("unknown filter: " + arg);
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Suggest completions for the argument being typed
+     */
+    public static List<String> complete(String typed) {
+        List<String> options = new ArrayList<>(List.of("port:", "ip:", "protocol:", "min:"));
+        for (Sort value : Sort.values()) {
+            options.add("sort:" + value.getLabel());
+        }
+        String lower = typed.toLowerCase(Locale.ROOT);
+        options.removeIf(option -> !option.startsWith(lower));
+        return options;
+    }
+
+    /**
+     * Check whether a connection passes every filter
+     * @param now the monotonic clock value to measure connection durations against
+     */
+    public boolean matches(ConnectionInfo info, long now) {
+        if (info.getPort() < firstPort || info.getPort() > lastPort) {
+            return false;
+        }
+        if (minDurationNanos > 0 && now - info.getConnectNanos() < minDurationNanos) {
+            return false;
+        }
+        if (network != null && !inNetwork(info.getAddress().getAddress())) {
+            return false;
+        }
+        if (protocolText != null) {
+            MinecraftHandshake handshake = info.getHandshake();
+            if (handshake == null || handshake.getProtocolVersion() < firstProtocol || handshake.getProtocolVersion() > lastProtocol) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collect the matching connections and cut out the requested page.
+     * A page past the end is clamped to the last one.
+     */
+    public Result run(ConnectionRegistry registry) {
+        long now = System.nanoTime();
+        List<Row> rows = new ArrayList<>();
+        for (int port : registry.getPorts()) {
+            if (port < firstPort || port > lastPort) {
+                continue;
+            }
+            registry.forEach(port, info -> {
+                if (matches(info, now)) {
+                    rows.add(new Row(info, sortKey(info)));
+                }
+            });
+        }
+        // Keys were read once up front, byte counters moving mid-sort would break the comparator
+        rows.sort(comparator());
+
+        int pages = Math.max(1, (rows.size() + PAGE_SIZE - 1) / PAGE_SIZE);
+        int shown = Math.min(page, pages);
+        int from = (shown - 1) * PAGE_SIZE;
+        List<ConnectionInfo> connections = new ArrayList<>(PAGE_SIZE);
+        for (int i = from; i < Math.min(rows.size(), from + PAGE_SIZE); i++) {
+            connections.add(rows.get(i).info);
+        }
+        return new Result(connections, rows.size(), registry.size(), shown, pages);
+    }
+
+    /**
+     * Get the order of the listed connections
+     */
+    public Sort getSort() {
+        return sort;
+    }
+
+    /**
+     * Check whether any filter is set
+     */
+    public boolean isFiltered() {
+        return portText != null || ipText != null || protocolText != null || minDurationText != null;
+    }
+
+    /**
+     * Describe the filters for the console, e.g. "port 30000-30100, ip 10.0.0.0/8, at least 5m"
+     */
+    public String describe() {
+        List<String> parts = new ArrayList<>();
+        if (portText != null) {
+            parts.add("port " + portText);
+        }
+        if (ipText != null) {
+            parts.add("ip " + ipText);
+        }
+        if (protocolText != null) {
+            parts.add("protocol " + protocolText);
+        }
+        if (minDurationText != null) {
+            parts.add("at least " + minDurationText);
+        }
+        return parts.isEmpty() ? "none" : String.join(", ", parts);
+    }
+
+    /**
+     * Build the arguments that repeat this query on another page
+     */
+    public String toArguments(int page) {
+        StringBuilder out = new StringBuilder();
+        if (portText != null) {
+            out.append(" port:").append(portText);
+        }
+        if (ipText != null) {
+            out.append(" ip:").append(ipText);
+        }
+        if (protocolText != null) {
+            out.append(" protocol:").append(protocolText);
+        }
+        if (minDurationText != null) {
+            out.append(" min:").append(minDurationText);
+        }
+        if (sort != Sort.PORT) {
+            out.append(" sort:").append(sort.getLabel());
+        }
+        return out.append(' ').append(page).toString().trim();
+    }
+
+    private long sortKey(ConnectionInfo info) {
+        return switch (sort) {
+            case PORT -> info.getId();
+            case DURATION -> info.getConnectNanos();
+            case BYTES -> info.getBytesIn() + info.getBytesOut();
+        };
+    }
+
+    private Comparator<Row> comparator() {
+        return switch (sort) {
+            // Ids only grow, so the highest id on a port is its newest connection
+            case PORT -> Comparator.<Row>comparingInt(row -> row.info.getPort()).thenComparing(Comparator.<Row>comparingLong(row -> row.key).reversed());
+            case DURATION -> Comparator.comparingLong(row -> row.key);
+            case BYTES -> Comparator.<Row>comparingLong(row -> row.key).reversed();
+        };
+    }
+
+    private boolean inNetwork(byte[] address) {
+        if (address.length != network.length) {
+            return false;
+        }
+        int full = prefix / 8;
+        for (int i = 0; i < full; i++) {
+            if (address[i] != network[i]) {
+                return false;
+            }
+        }
+        int rest = prefix % 8;
+        if (rest == 0) {
+            return true;
+        }
+        int mask = 0xFF << (8 - rest) & 0xFF;
+        return (address[full] & mask) == (network[full] & mask);
+    }
+
+    private void parseNetwork(String value, String arg) {
+        int slash = value.indexOf('/');
+        String host = slash < 0 ? value : value.substring(0, slash);
+        // Only literals, a host name here would mean a DNS lookup for every listing
+        boolean literal = host.indexOf(':') >= 0 ? host.matches("[0-9a-fA-F:.]+") : host.matches("\\d{1,3}(\\.\\d{1,3}){3}");
+        if (!literal) {
+            throw new IllegalArgumentException("not an IP address or CIDR range: " + arg);
+        }
+        byte[] bytes;
+        try {
+            bytes = InetAddress.getByName(host).getAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("not an IP address or CIDR range: " + arg);
+        }
+        int bits = bytes.length * 8;
+        if (slash >= 0) {
+            try {
+                bits = Integer.parseInt(value.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("not a prefix length: " + arg);
+            }
+            if (bits < 0 || bits > bytes.length * 8) {
+                throw new IllegalArgumentException("prefix length out of range: " + arg);
+            }
+        }
+        network = bytes;
+        prefix = bits;
+        ipText = value;
+    }
+
+    private static int parsePage(String arg) {
+        try {
+            int page = Integer.parseInt(arg);
+            if (page >= 1) {
+                return page;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("not a page number or filter: " + arg);
+    }
+
+    private static int[] parseRange(String value, int min, int max, String arg) {
+        int dash = value.indexOf('-', 1);
+        int first;
+        int last;
+        try {
+            first = Integer.parseInt((dash < 0 ? value : value.substring(0, dash)).trim());
+            last = dash < 0 ? first : Integer.parseInt(value.substring(dash + 1).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("not a number or range: " + arg);
+        }
+        if (first < min || last > max || first > last) {
+            throw new IllegalArgumentException("out of range: " + arg);
+        }
+        return new int[] {first, last};
+    }
+
+    /**
+     * Read a duration like "90", "45s", "5m" or "1h30m", bare numbers are seconds
+     */
+    private static long parseDuration(String value, String arg) {
+        String text = value.toLowerCase(Locale.ROOT);
+        if (text.matches("\\d+")) {
+            text += "s";
+        }
+        if (!text.matches("(\\d+[smhd])+")) {
+            throw new IllegalArgumentException("not a duration like 30s, 5m or 1h30m: " + arg);
+        }
+        long seconds = 0;
+        long number = 0;
+        for (char c : text.toCharArray()) {
+            if (Character.isDigit(c)) {
+                number = Math.min(number * 10 + (c - '0'), Integer.MAX_VALUE);
+                continue;
+            }
+            seconds += number * switch (c) {
+                case 'm' -> 60;
+                case 'h' -> 3600;
+                case 'd' -> 86400;
+                default -> 1;
+            };
+            number = 0;
+        }
+        return Math.min(seconds, Long.MAX_VALUE / 1_000_000_000L) * 1_000_000_000L;
+    }
+
+    private static Sort parseSort(String value, String arg) {
+        for (Sort candidate : Sort.values()) {
+            if (candidate.getLabel().equalsIgnoreCase(value)) {
+                return candidate;
+            }
+        }
+        throw new IllegalArgumentException("sort by port, duration or bytes: " + arg);
+    }
+
+    /**
+     * A matching connection with its sort key read once
+     */
+    private static final class Row {
+        private final ConnectionInfo info;
+        private final long key;
+
+        private Row(ConnectionInfo info, long key) {
+            this.info = info;
+            this.key = key;
+        }
+    }
+
+    /**
+     * One page of matching connections
+     */
+    public static final class Result {
+        private final List<ConnectionInfo> connections;
+        private final int matched;
+        private final int open;
+        private final int page;
+        private final int pages;
+
+        private Result(List<ConnectionInfo> connections, int matched, int open, int page, int pages) {
+            this.connections = connections;
+            this.matched = matched;
+            this.open = open;
+            this.page = page;
+            this.pages = pages;
+        }
+
+        /**
+         * Get the connections on this page, in order
+         */
+        public List<ConnectionInfo> getConnections() {
+            return connections;
+        }
+
+        /**
+         * Get the number of connections that matched the filters
+         */
+        public int getMatched() {
+            return matched;
+        }
+
+        /**
+         * Get the number of open connections, matching or not
+         */
+        public int getOpen() {
+            return open;
+        }
+
+        /**
+         * Get the page shown, from 1
+         */
+        public int getPage() {
+            return page;
+        }
+
+        /**
+         * Get the number of pages of matching connections
+         */
+        public int getPages() {
+            return pages;
+        }
+    }
+}
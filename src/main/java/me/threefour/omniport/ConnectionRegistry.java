@@ -0,0 +1,221 @@
+package me.threefour.omniport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * The open connections, keyed by a long id and indexed by the port they arrived on.
+ * Ids come from a counter instead of random UUIDs. The low bits of an id are the slot the connection sits in, so a
+ * lookup is an array read, and the high bits are a sequence number, so ids only ever grow.
+ * Adding and removing take a short lock; counting and iterating take none and copy nothing. Iteration is weakly
+ * consistent: a connection open for the whole walk is seen exactly once, one added or removed meanwhile may or may not be.
+ */
+public class ConnectionRegistry {
+    // 16 million open connections at most, and a trillion before the sequence runs out
+    private static final int SLOT_BITS = 24;
+    private static final long SLOT_MASK = (1L << SLOT_BITS) - 1;
+    private static final int INITIAL_SLOTS = 256;
+
+    private final Object lock = new Object();
+    private final Map<Integer, PortIndex> ports = new ConcurrentHashMap<>();
+    // Replaced by a larger copy when full, readers keep walking whichever they started with
+    private volatile AtomicReferenceArray<Node> slots = new AtomicReferenceArray<>(INITIAL_SLOTS);
+    private volatile int size = 0;
+    // Only touched under the lock
+    private int[] freeSlots = new int[INITIAL_SLOTS];
+    private int freeCount = 0;
+    private int usedSlots = 0;
+    private long sequence = 0;
+
+    /**
+     * Start tracking a connection
+     * @return the connection's id, also set on the connection
+     */
+    public long register(ConnectionInfo info) {
+        synchronized (lock) {
+            int slot = freeCount > 0 ? freeSlots[--freeCount] : usedSlots++;
+            if (slot > SLOT_MASK) {
+                usedSlots--;
+                throw new IllegalStateException("Too many open connections");
+            }
+            AtomicReferenceArray<Node> current = slots;
+            if (slot >= current.length()) {
+                current = grow(current);
+            }
+            long id = (++sequence << SLOT_BITS) | slot;
+            info.setId(id);
+            Node node = new Node(info, id);
+            current.set(slot, node);
+
+            PortIndex index = ports.computeIfAbsent(info.getPort(), port -> new PortIndex());
+            node.next = index.head;
+            if (node.next != null) {
+                node.next.prev = node;
+            }
+            index.head = node;
+            index.count++;
+            size++;
+            return id;
+        }
+    }
+
+    /**
+     * Stop tracking a connection, doing nothing if it is not tracked
+     * @return the connection, or null if no connection has that id
+     */
+    public ConnectionInfo remove(long id) {
+        int slot = (int) (id & SLOT_MASK);
+        synchronized (lock) {
+            AtomicReferenceArray<Node> current = slots;
+            Node node = slot < current.length() ? current.get(slot) : null;
+            if (node == null || node.id != id) {
+                return null;
+            }
+            current.set(slot, null);
+            if (freeCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+            }
+            freeSlots[freeCount++] = slot;
+
+            // Unlink from the port's list, leaving next in place so a reader standing on the node can carry on
+            node.removed = true;
+            PortIndex index = ports.get(node.info.getPort());
+            if (node.prev != null) {
+                node.prev.next = node.next;
+            } else {
+                index.head = node.next;
+            }
+            if (node.next != null) {
+                node.next.prev = node.prev;
+            }
+            if (--index.count == 0) {
+                ports.remove(node.info.getPort());
+            }
+            size--;
+            return node.info;
+        }
+    }
+
+    /**
+     * Stop tracking every connection. Ids keep growing, so a late remove of an old id finds nothing.
+     */
+    public void clear() {
+        synchronized (lock) {
+            AtomicReferenceArray<Node> current = slots;
+            for (int i = 0; i < current.length(); i++) {
+                Node node = current.get(i);
+                if (node != null) {
+                    node.removed = true;
+                }
+            }
+            slots = new AtomicReferenceArray<>(INITIAL_SLOTS);
+            freeSlots = new int[INITIAL_SLOTS];
+            freeCount = 0;
+            usedSlots = 0;
+            ports.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * Get a connection by id
+     * @return the connection, or null if no connection has that id
+     */
+    public ConnectionInfo get(long id) {
+        int slot = (int) (id & SLOT_MASK);
+        AtomicReferenceArray<Node> current = slots;
+        Node node = slot < current.length() ? current.get(slot) : null;
+        return node != null && node.id == id ? node.info : null;
+    }
+
+    /**
+     * Get the number of open connections
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the number of open connections on a port
+     */
+    public int size(int port) {
+        PortIndex index = ports.get(port);
+        return index != null ? index.count : 0;
+    }
+
+    /**
+     * Get the ports with open connections, in ascending order
+     */
+    public List<Integer> getPorts() {
+        List<Integer> sorted = new ArrayList<>(ports.keySet());
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Visit every open connection
+     */
+    public void forEach(Consumer<ConnectionInfo> action) {
+        AtomicReferenceArray<Node> current = slots;
+        for (int i = 0; i < current.length(); i++) {
+            Node node = current.get(i);
+            if (node != null && !node.removed) {
+                action.accept(node.info);
+            }
+        }
+    }
+
+    /**
+     * Visit the open connections of one port, newest first
+     */
+    public void forEach(int port, Consumer<ConnectionInfo> action) {
+        PortIndex index = ports.get(port);
+        for (Node node = index != null ? index.head : null; node != null; node = node.next) {
+            if (!node.removed) {
+                action.accept(node.info);
+            }
+        }
+    }
+
+    private AtomicReferenceArray<Node> grow(AtomicReferenceArray<Node> current) {
+        AtomicReferenceArray<Node> larger = new AtomicReferenceArray<>(current.length() * 2);
+        for (int i = 0; i < current.length(); i++) {
+            larger.set(i, current.get(i));
+        }
+        slots = larger;
+        return larger;
+    }
+
+    /**
+     * A tracked connection, also a link in its port's list
+     */
+    private static final class Node {
+        private final ConnectionInfo info;
+        private final long id;
+        // Older connections on the same port, followed by readers without the lock
+        private volatile Node next;
+        // Only touched under the lock
+        private Node prev;
+        private volatile boolean removed = false;
+
+        private Node(ConnectionInfo info, long id) {
+            this.info = info;
+            this.id = id;
+        }
+    }
+
+    /**
+     * The open connections of one port
+     */
+    private static final class PortIndex {
+        private volatile Node head;
+        // Written under the lock
+        private volatile int count = 0;
+    }
+}
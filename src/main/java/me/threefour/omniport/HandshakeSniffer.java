@@ -0,0 +1,272 @@
+package me.threefour.omniport;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the handshake and login start packets out of the first bytes a client sends, while they sit in the
+ * forwarding buffer. Parsing uses absolute reads, so the buffer is never copied or moved and forwarding carries
+ * on exactly as before. Only a packet split across two reads is copied, into a small bounded array.
+ * <p>
+ * The sniffer gives up for good on anything that is not a well-formed handshake, and stops looking once it has
+ * seen the login start or a status handshake, so established sessions never pay for it.
+ */
+public class HandshakeSniffer {
+    // Far larger than any vanilla handshake, small enough that a bogus client cannot make us buffer much
+    static final int MAX_PACKET_LENGTH = 1024;
+    private static final int MAX_ADDRESS_LENGTH = 255 * 3;
+    private static final int MAX_USERNAME_LENGTH = 16;
+    private static final int LEGACY_PING = 0xFE;
+
+    private static final int NEED_MORE = -1;
+    private static final int MALFORMED = -2;
+
+    private static final int EXPECT_HANDSHAKE = 0;
+    private static final int EXPECT_LOGIN_START = 1;
+    private static final int DONE = 2;
+
+    private final ConnectionInfo connectionInfo;
+    private final ProxyStats stats;
+    private int state = EXPECT_HANDSHAKE;
+    private byte[] pending;
+    private int pendingLength;
+    // Value of the last VarInt read, kept in a field so parsing allocates nothing but the strings
+    private int lastValue;
+
+    public HandshakeSniffer(ConnectionInfo connectionInfo, ProxyStats stats) {
+        this.connectionInfo = connectionInfo;
+        this.stats = stats;
+    }
+
+    /**
+     * Check whether the sniffer has seen everything it is looking for, or given up
+     */
+    public boolean isDone() {
+        return state == DONE;
+    }
+
+    /**
+     * Look at bytes that were just read from the client. The buffer's position and limit are left untouched.
+     * @param buffer the forwarding buffer
+     * @param from index of the first new byte
+     * @param to index after the last new byte
+     */
+    public void feed(ByteBuffer buffer, int from, int to) {
+        if (state == DONE || from >= to) {
+            return;
+        }
+
+        if (pendingLength == 0) {
+            // Common case: whole packets in a single read, parsed in place
+            int consumed = parse(buffer, from, to);
+            if (consumed >= 0 && state != DONE) {
+                hold(buffer, consumed, to);
+            }
+        } else {
+            feedPending(buffer, from, to);
+        }
+
+        if (state == DONE) {
+            pending = null;
+            pendingLength = 0;
+            // Also covers clients that turned out not to speak the protocol, the handshake timeout no longer applies
+            connectionInfo.settleHandshake();
+        }
+    }
+
+    private void feedPending(ByteBuffer buffer, int from, int to) {
+        // A packet was split across reads, append to the bytes held back last time. The array always fits
+        // the largest packet allowed, so every pass either completes a packet or finds the input malformed.
+        int offset = from;
+        while (offset < to && state != DONE) {
+            int length = Math.min(to - offset, pending.length - pendingLength);
+            buffer.get(offset, pending, pendingLength, length);
+            pendingLength += length;
+            offset += length;
+
+            int consumed = parse(ByteBuffer.wrap(pending), 0, pendingLength);
+            if (consumed < 0) {
+                return;
+            }
+            System.arraycopy(pending, consumed, pending, 0, pendingLength - consumed);
+            pendingLength -= consumed;
+        }
+    }
+
+    /**
+     * Parse as many complete packets as possible
+     * @return index after the last complete packet, or MALFORMED
+     */
+    private int parse(ByteBuffer buffer, int from, int to) {
+        int index = from;
+        while (state != DONE && index < to) {
+            int next = state == EXPECT_HANDSHAKE ? parseHandshake(buffer, index, to) : parseLoginStart(buffer, index, to);
+            if (next == NEED_MORE) {
+                return index;
+            }
+            if (next == MALFORMED) {
+                malformed();
+                return MALFORMED;
+            }
+            index = next;
+        }
+        return index;
+    }
+
+    private void hold(ByteBuffer buffer, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        if (pending == null) {
+            pending = new byte[MAX_PACKET_LENGTH + 5];
+        }
+        buffer.get(from, pending, 0, to - from);
+        pendingLength = to - from;
+    }
+
+    private int parseHandshake(ByteBuffer buffer, int index, int to) {
+        if ((buffer.get(index) & 0xFF) == LEGACY_PING) {
+            finish(MinecraftHandshake.LEGACY_PING);
+            return to;
+        }
+
+        int bodyStart = readLength(buffer, index, to);
+        if (bodyStart < 0) {
+            return bodyStart;
+        }
+        int end = bodyStart + lastValue;
+        if (end > to) {
+            return NEED_MORE;
+        }
+
+        int cursor = readVarInt(buffer, bodyStart, end);
+        if (cursor < 0 || lastValue != 0x00) {
+            return MALFORMED;
+        }
+        cursor = readVarInt(buffer, cursor, end);
+        if (cursor < 0) {
+            return MALFORMED;
+        }
+        int protocolVersion = lastValue;
+
+        cursor = readVarInt(buffer, cursor, end);
+        int addressLength = lastValue;
+        if (cursor < 0 || addressLength < 0 || addressLength > MAX_ADDRESS_LENGTH || cursor + addressLength + 3 > end) {
+            return MALFORMED;
+        }
+        String serverAddress = readString(buffer, cursor, addressLength);
+        cursor += addressLength;
+        int serverPort = ((buffer.get(cursor) & 0xFF) << 8) | (buffer.get(cursor + 1) & 0xFF);
+        cursor = readVarInt(buffer, cursor + 2, end);
+        if (cursor != end) {
+            return MALFORMED;
+        }
+
+        MinecraftHandshake.Intent intent;
+        switch (lastValue) {
+            case 1 -> intent = MinecraftHandshake.Intent.STATUS;
+            case 2 -> intent = MinecraftHandshake.Intent.LOGIN;
+            case 3 -> intent = MinecraftHandshake.Intent.TRANSFER;
+            default -> {
+                return MALFORMED;
+            }
+        }
+
+        MinecraftHandshake handshake = new MinecraftHandshake(protocolVersion, serverAddress, serverPort, intent);
+        if (intent == MinecraftHandshake.Intent.STATUS) {
+            finish(handshake);
+        } else {
+            connectionInfo.setHandshake(handshake);
+            stats.recordHandshake(handshake);
+            state = EXPECT_LOGIN_START;
+        }
+        return end;
+    }
+
+    private int parseLoginStart(ByteBuffer buffer, int index, int to) {
+        int bodyStart = readLength(buffer, index, to);
+        if (bodyStart < 0) {
+            return bodyStart;
+        }
+        int end = bodyStart + lastValue;
+        if (end > to) {
+            return NEED_MORE;
+        }
+
+        int cursor = readVarInt(buffer, bodyStart, end);
+        if (cursor < 0 || lastValue != 0x00) {
+            return MALFORMED;
+        }
+        cursor = readVarInt(buffer, cursor, end);
+        int nameLength = lastValue;
+        // Names are ASCII in practice but the protocol allows up to 16 characters of UTF-8
+        if (cursor < 0 || nameLength <= 0 || nameLength > MAX_USERNAME_LENGTH * 3 || cursor + nameLength > end) {
+            return MALFORMED;
+        }
+        String username = readString(buffer, cursor, nameLength);
+        if (username.length() > MAX_USERNAME_LENGTH) {
+            return MALFORMED;
+        }
+
+        // Whatever follows the name differs between versions and is not needed
+        connectionInfo.setUsername(username);
+        state = DONE;
+        return end;
+    }
+
+    /**
+     * Read a packet length prefix into lastValue and check the packet id if it has arrived
+     * @return index of the packet body, NEED_MORE or MALFORMED
+     */
+    private int readLength(ByteBuffer buffer, int index, int to) {
+        int bodyStart = readVarInt(buffer, index, to);
+        if (bodyStart == NEED_MORE) {
+            return NEED_MORE;
+        }
+        if (bodyStart < 0 || lastValue <= 0 || lastValue > MAX_PACKET_LENGTH) {
+            return MALFORMED;
+        }
+        // Both packets have id 0, so other protocols are caught without waiting for a whole "packet"
+        if (bodyStart < to && buffer.get(bodyStart) != 0x00) {
+            return MALFORMED;
+        }
+        return bodyStart;
+    }
+
+    /**
+     * Read a VarInt into lastValue
+     * @return index after the VarInt, NEED_MORE if it runs past the end, or MALFORMED if it is too long
+     */
+    private int readVarInt(ByteBuffer buffer, int index, int to) {
+        int value = 0;
+        for (int i = 0; i < 5; i++) {
+            if (index + i >= to) {
+                return NEED_MORE;
+            }
+            byte b = buffer.get(index + i);
+            value |= (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0) {
+                lastValue = value;
+                return index + i + 1;
+            }
+        }
+        return MALFORMED;
+    }
+
+    private static String readString(ByteBuffer buffer, int index, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(index, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void finish(MinecraftHandshake handshake) {
+        connectionInfo.setHandshake(handshake);
+        stats.recordHandshake(handshake);
+        state = DONE;
+    }
+
+    private void malformed() {
+        stats.handshakeMalformed();
+        state = DONE;
+    }
+}
@@ -0,0 +1,101 @@
+package me.threefour.omniport;
+
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves client hostnames in the background so reverse DNS never runs on the accept path.
+ * Results are cached per address for a bounded time, and concurrent lookups for the same address are shared.
+ */
+public class HostnameResolver {
+    private static final int LOOKUP_THREADS = 2;
+    private static final int MAX_QUEUED_LOOKUPS = 256;
+
+    private final long cacheTtl;
+    private final int cacheSize;
+    private final Map<InetAddress, Entry> cache = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor executor;
+
+    public HostnameResolver(long cacheTtl, int cacheSize) {
+        this.cacheTtl = cacheTtl;
+        this.cacheSize = Math.max(1, cacheSize);
+        this.executor = new ThreadPoolExecutor(LOOKUP_THREADS, LOOKUP_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_LOOKUPS), Thread.ofPlatform().name("OmniPort-DNS-", 0).daemon().factory());
+    }
+
+    /**
+     * Fill in the connection's hostname once it is known. Returns immediately.
+     */
+    public void resolve(ConnectionInfo info) {
+        InetAddress address = info.getAddress();
+        long now = System.currentTimeMillis();
+
+        Entry entry = cache.get(address);
+        if (entry == null || entry.expiresAt < now) {
+            entry = cache.compute(address, (key, old) -> old != null && old.expiresAt >= now ? old : lookup(key, now));
+            trimCache(now);
+        }
+
+        entry.hostname.thenAccept(info::setClientInfo);
+    }
+
+    /**
+     * Get the number of cached hostnames
+     */
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Stop the lookup threads
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        cache.clear();
+    }
+
+    private Entry lookup(InetAddress address, long now) {
+        CompletableFuture<String> hostname = new CompletableFuture<>();
+        try {
+            executor.execute(() -> hostname.complete(address.getHostName()));
+            return new Entry(hostname, now + cacheTtl);
+        } catch (RejectedExecutionException e) {
+            // Too many lookups queued: fall back to the address and try again next time
+            hostname.complete(address.getHostAddress());
+            return new Entry(hostname, now);
+        }
+    }
+
+    /**
+     * Keep the cache within its size limit, dropping expired entries first
+     */
+    private void trimCache(long now) {
+        if (cache.size() <= cacheSize) {
+            return;
+        }
+        cache.values().removeIf(entry -> entry.expiresAt < now);
+
+        Iterator<InetAddress> addresses = cache.keySet().iterator();
+        while (cache.size() > cacheSize && addresses.hasNext()) {
+            addresses.next();
+            addresses.remove();
+        }
+    }
+
+    private static final class Entry {
+        private final CompletableFuture<String> hostname;
+        private final long expiresAt;
+
+        Entry(CompletableFuture<String> hostname, long expiresAt) {
+            this.hostname = hostname;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
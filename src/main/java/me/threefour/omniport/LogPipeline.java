@@ -0,0 +1,184 @@
+package me.threefour.omniport;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Moves console output off the network threads. Messages go into a bounded lock-free queue that a single
+ * background thread writes out, and repeated events such as rejections are only counted and reported
+ * as periodic summaries, so a flood of connections can never turn into a flood of console writes.
+ */
+public class LogPipeline implements Runnable {
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    // Above this many ports, an event's summary is one line for all of them
+    private static final int MAX_SUMMARY_LINES = 4;
+    // Port ranges listed in a combined line before the rest are only counted
+    private static final int MAX_SUMMARY_RANGES = 8;
+
+    /**
+     * Events that are counted per port instead of logged one by one
+     */
+    public enum Event {
+        REJECTED_BLOCKED(OmniPort.WARNING + "Rejected %,d connections on §cblocked§e %s in the last %s"),
+        REJECTED_LIMIT(OmniPort.ERROR + "Rejected %,d connections on %s over the connection limit in the last %s"),
+        REJECTED_RATE(OmniPort.WARNING + "Rejected %,d connections on %s over the address or subnet rate limit in the last %s"),
+        REJECTED_BUSY(OmniPort.ERROR + "Rejected %,d connections on %s with every handshake worker busy and the queue full in the last %s"),
+        REJECTED_BACKEND_DOWN(OmniPort.WARNING + "Rejected %,d connections on %s while their backends were down in the last %s"),
+        ACCEPTED(OmniPort.INFO + "Accepted %,d connections on §f%s§b in the last %s");
+
+        private final String format;
+
+        Event(String format) {
+            this.format = format;
+        }
+    }
+
+    private final Consumer<String> sink;
+    private final String summaryPrefix;
+    private final int capacity;
+    private final long summaryIntervalNanos;
+    private final Queue<String> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger(0);
+    private final LongAdder dropped = new LongAdder();
+    private final Map<Event, Map<Integer, LongAdder>> counters = new ConcurrentHashMap<>();
+    private final Thread writer;
+    private volatile boolean running = false;
+
+    /**
+     * @param sink where formatted lines are written, only ever called from the writer thread
+     * @param summaryPrefix prefix for summary lines
+     * @param capacity maximum number of messages waiting to be written
+     * @param summaryIntervalMillis how often counted events are summarized
+     */
+    public LogPipeline(Consumer<String> sink, String summaryPrefix, int capacity, long summaryIntervalMillis) {
+        this.sink = sink;
+        this.summaryPrefix = summaryPrefix;
+        this.capacity = Math.max(1, capacity);
+        this.summaryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1000, summaryIntervalMillis));
+        for (Event event : Event.values()) {
+            counters.put(event, new ConcurrentHashMap<>());
+        }
+        this.writer = new Thread(this, "OmniPort-Log");
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * Start the writer thread
+     */
+    public void start() {
+        running = true;
+        writer.start();
+    }
+
+    /**
+     * Stop the writer thread after writing everything still queued
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queue a line for the console. Never blocks; the line is dropped and counted if the queue is full.
+     */
+    public void offer(String message) {
+        if (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        queue.add(message);
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * Count an event on a port, to be reported in the next summary
+     */
+    public void count(Event event, int port) {
+        Map<Integer, LongAdder> perPort = counters.get(event);
+        LongAdder counter = perPort.get(port);
+        if (counter == null) {
+            counter = perPort.computeIfAbsent(port, p -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    @Override
+    public void run() {
+        long nextSummary = System.nanoTime() + summaryIntervalNanos;
+        while (running) {
+            drain();
+
+            long now = System.nanoTime();
+            if (now - nextSummary >= 0) {
+                writeSummaries();
+                nextSummary = now + summaryIntervalNanos;
+            }
+
+            if (queue.isEmpty() && running) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+
+        // Write whatever is left before shutting down
+        drain();
+        writeSummaries();
+    }
+
+    private void drain() {
+        String message;
+        while ((message = queue.poll()) != null) {
+            queued.decrementAndGet();
+            write(message);
+        }
+    }
+
+    private void writeSummaries() {
+        String interval = TimeUnit.NANOSECONDS.toSeconds(summaryIntervalNanos) + "s";
+        for (Event event : Event.values()) {
+            Map<Integer, Long> counts = new TreeMap<>();
+            for (Map.Entry<Integer, LongAdder> entry : counters.get(event).entrySet()) {
+                long count = entry.getValue().sumThenReset();
+                if (count > 0) {
+                    counts.put(entry.getKey(), count);
+                }
+            }
+            if (counts.size() <= MAX_SUMMARY_LINES) {
+                for (Map.Entry<Integer, Long> entry : counts.entrySet()) {
+                    write(summaryPrefix + String.format(event.format, entry.getValue(), "port " + entry.getKey(), interval));
+                }
+            } else {
+                long total = counts.values().stream().mapToLong(Long::longValue).sum();
+                write(summaryPrefix + String.format(event.format, total,
+                      "ports " + PortSet.describe(counts.keySet(), MAX_SUMMARY_RANGES), interval));
+            }
+        }
+
+        long droppedMessages = dropped.sumThenReset();
+        if (droppedMessages > 0) {
+            write(summaryPrefix + OmniPort.WARNING + String.format("Dropped %,d log messages in the last %s (log queue full)",
+                  droppedMessages, interval));
+        }
+    }
+
+    private void write(String message) {
+        try {
+            sink.accept(message);
+        } catch (RuntimeException e) {
+            // Never let a console problem kill the writer
+        }
+    }
+}
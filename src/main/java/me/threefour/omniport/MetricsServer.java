@@ -0,0 +1,304 @@
+package me.threefour.omniport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Small embedded HTTP endpoint that exposes OmniPort's counters in the Prometheus text exposition format.
+ * Scrapes are served from a single background thread, never from the server main thread.
+ */
+public class MetricsServer {
+    private static final int NO_PORT = -1;
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final OmniPort plugin;
+    private final InetSocketAddress address;
+    private final StringBuilder output = new StringBuilder(4096);
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public MetricsServer(OmniPort plugin, InetSocketAddress address) {
+        this.plugin = plugin;
+        this.address = address;
+    }
+
+    /**
+     * Bind the endpoint and start serving /metrics
+     * @throws IOException if the address could not be bound
+     */
+    public void start() throws IOException {
+        server = HttpServer.create(address, 0);
+        executor = Executors.newSingleThreadExecutor(Thread.ofPlatform().name("OmniPort-Metrics").daemon().factory());
+        server.setExecutor(executor);
+        server.createContext("/metrics", this::handle);
+        server.start();
+    }
+
+    /**
+     * Stop the endpoint
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Get the address the endpoint is bound to
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            // Only ever called from the single executor thread, so the builder can be reused
+            output.setLength(0);
+            render(output);
+            byte[] body = output.toString().getBytes(StandardCharsets.UTF_8);
+
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void render(StringBuilder out) {
+        header(out, "omniport_active_connections", "gauge", "Connections currently being proxied");
+        sample(out, "omniport_active_connections", NO_PORT, plugin.getCurrentConnections());
+
+        header(out, "omniport_port_blocked", "gauge", "Whether a port is blocked (1) or open (0)");
+        for (Map.Entry<Integer, Boolean> entry : plugin.getPortBlockStatus().entrySet()) {
+            sample(out, "omniport_port_blocked", entry.getKey(), entry.getValue() ? 1 : 0);
+        }
+
+        Map<Integer, PortStats> ports = plugin.getStats().getPorts();
+        header(out, "omniport_port_received_bytes_total", "counter", "Bytes received from clients");
+        for (PortStats stats : ports.values()) {
+            sample(out, "omniport_port_received_bytes_total", stats.getPort(), stats.getBytesIn());
+        }
+        header(out, "omniport_port_sent_bytes_total", "counter", "Bytes sent to clients");
+        for (PortStats stats : ports.values()) {
+            sample(out, "omniport_port_sent_bytes_total", stats.getPort(), stats.getBytesOut());
+        }
+        header(out, "omniport_port_connections_accepted_total", "counter", "Connections admitted");
+        for (PortStats stats : ports.values()) {
+            sample(out, "omniport_port_connections_accepted_total", stats.getPort(), stats.getAccepted());
+        }
+        header(out, "omniport_port_connections_rejected_total", "counter", "Connections refused at accept: port blocked, rate limited, connection limit reached, backends down or workers busy");
+        for (PortStats stats : ports.values()) {
+            sample(out, "omniport_port_connections_rejected_total", stats.getPort(), stats.getRejected());
+        }
+        header(out, "omniport_port_connections_failed_total", "counter", "Connections that could not reach the backend");
+        for (PortStats stats : ports.values()) {
+            sample(out, "omniport_port_connections_failed_total", stats.getPort(), stats.getFailed());
+        }
+
+        ProxyStats stats = plugin.getStats();
+        header(out, "omniport_handshakes_total", "counter", "Handshakes read from clients by intent");
+        for (MinecraftHandshake.Intent intent : MinecraftHandshake.Intent.values()) {
+            labelled(out, "omniport_handshakes_total", "intent", intent.name().toLowerCase(), stats.getHandshakes(intent));
+        }
+        header(out, "omniport_protocol_handshakes_total", "counter", "Handshakes read from clients by protocol version");
+        for (Map.Entry<Integer, LongAdder> entry : stats.getProtocolVersions().entrySet()) {
+            String protocol = entry.getKey() == ProxyStats.OTHER_PROTOCOL ? "other" : String.valueOf(entry.getKey());
+            labelled(out, "omniport_protocol_handshakes_total", "protocol", protocol, entry.getValue().sum());
+        }
+        header(out, "omniport_malformed_handshakes_total", "counter", "Connections that did not start with a valid handshake");
+        sample(out, "omniport_malformed_handshakes_total", NO_PORT, stats.getMalformedHandshakes());
+
+        List<WorkerPool> pools = new ArrayList<>();
+        if (plugin.getHandshakePool() != null) {
+            pools.add(plugin.getHandshakePool());
+            pools.add(plugin.getForwardingPool());
+        }
+        if (!pools.isEmpty()) {
+            header(out, "omniport_workers_max", "gauge", "Most threads each proxy worker pool may run");
+            for (WorkerPool pool : pools) {
+                labelled(out, "omniport_workers_max", "pool", pool.getName(), pool.getMaxThreads());
+            }
+            header(out, "omniport_workers_active", "gauge", "Threads of each proxy worker pool running a task");
+            for (WorkerPool pool : pools) {
+                labelled(out, "omniport_workers_active", "pool", pool.getName(), pool.getActive());
+            }
+            header(out, "omniport_workers_queued", "gauge", "Tasks waiting for a thread of each proxy worker pool");
+            for (WorkerPool pool : pools) {
+                labelled(out, "omniport_workers_queued", "pool", pool.getName(), pool.getQueued());
+            }
+            header(out, "omniport_workers_rejected_total", "counter", "Tasks refused because the pool and its queue were full");
+            for (WorkerPool pool : pools) {
+                labelled(out, "omniport_workers_rejected_total", "pool", pool.getName(), pool.getRejected());
+            }
+            header(out, "omniport_workers_completed_total", "counter", "Tasks each proxy worker pool has finished");
+            for (WorkerPool pool : pools) {
+                labelled(out, "omniport_workers_completed_total", "pool", pool.getName(), pool.getCompleted());
+            }
+        }
+
+        TimeoutWheel timeoutWheel = plugin.getTimeoutWheel();
+        if (timeoutWheel != null) {
+            header(out, "omniport_timeouts_total", "counter", "Connections closed by the handshake, idle or session timeout");
+            for (TimeoutWheel.Cause cause : TimeoutWheel.Cause.values()) {
+                labelled(out, "omniport_timeouts_total", "cause", cause.getLabel(), timeoutWheel.getExpired(cause));
+            }
+        }
+
+        BackendRouter router = plugin.getRouter();
+        if (router != null) {
+            header(out, "omniport_backend_active_connections", "gauge", "Open connections forwarded to each backend");
+            for (Backend backend : router.getBackends()) {
+                labelled(out, "omniport_backend_active_connections", "backend", backend.getName(), backend.getActive());
+            }
+            header(out, "omniport_backend_connections_total", "counter", "Connections ever forwarded to each backend");
+            for (Backend backend : router.getBackends()) {
+                labelled(out, "omniport_backend_connections_total", "backend", backend.getName(), backend.getTotal());
+            }
+
+            List<Backend> tracked = new ArrayList<>();
+            for (Backend backend : router.getBackends()) {
+                if (backend.getHealth() != null) {
+                    tracked.add(backend);
+                }
+            }
+            if (!tracked.isEmpty()) {
+                header(out, "omniport_backend_up", "gauge", "Whether the circuit breaker admits clients (1) or refuses them while the backend is down (0)");
+                for (Backend backend : tracked) {
+                    labelled(out, "omniport_backend_up", "backend", backend.getName(), backend.isAvailable() ? 1 : 0);
+                }
+                header(out, "omniport_backend_probe_latency_seconds", "gauge", "Connect latency of the latest successful health probe");
+                for (Backend backend : tracked) {
+                    out.append("omniport_backend_probe_latency_seconds{backend=\"").append(backend.getName()).append("\"} ")
+                        .append(Math.max(0, backend.getHealth().getLastLatency()) / 1e9).append('\n');
+                }
+                header(out, "omniport_backend_probe_failures_total", "counter", "Health probes that could not connect to the backend");
+                for (Backend backend : tracked) {
+                    labelled(out, "omniport_backend_probe_failures_total", "backend", backend.getName(), backend.getHealth().getProbeFailures());
+                }
+                header(out, "omniport_backend_outages_total", "counter", "Times the circuit breaker opened");
+                for (Backend backend : tracked) {
+                    labelled(out, "omniport_backend_outages_total", "backend", backend.getName(), backend.getHealth().getTrips());
+                }
+                header(out, "omniport_backend_down_rejected_total", "counter", "Connections refused because every backend of their route was down");
+                sample(out, "omniport_backend_down_rejected_total", NO_PORT, router.getRejected());
+            }
+        }
+
+        RateLimiter rateLimiter = plugin.getRateLimiter();
+        if (rateLimiter != null) {
+            header(out, "omniport_rate_limited_total", "counter", "Connections rejected by the per-address or per-subnet rate limit");
+            labelled(out, "omniport_rate_limited_total", "scope", "address", rateLimiter.getAddressRejected());
+            labelled(out, "omniport_rate_limited_total", "scope", "subnet", rateLimiter.getSubnetRejected());
+            header(out, "omniport_rate_limit_evictions_total", "counter", "Tracked addresses and subnets replaced by new ones");
+            sample(out, "omniport_rate_limit_evictions_total", NO_PORT, rateLimiter.getEvictions());
+        }
+
+        BackendPool backendPool = plugin.getBackendPool();
+        if (backendPool != null) {
+            header(out, "omniport_backend_pool_ready", "gauge", "Backend connections waiting for a client");
+            sample(out, "omniport_backend_pool_ready", NO_PORT, backendPool.getReady());
+            header(out, "omniport_backend_pool_hits_total", "counter", "Clients given a ready backend connection");
+            sample(out, "omniport_backend_pool_hits_total", NO_PORT, backendPool.getHits());
+            header(out, "omniport_backend_pool_misses_total", "counter", "Clients that had to connect to the backend themselves");
+            sample(out, "omniport_backend_pool_misses_total", NO_PORT, backendPool.getMisses());
+            header(out, "omniport_backend_pool_expired_total", "counter", "Ready backend connections closed unused");
+            sample(out, "omniport_backend_pool_expired_total", NO_PORT, backendPool.getExpired());
+        }
+
+        StatusCache statusCache = plugin.getStatusCache();
+        if (statusCache != null) {
+            header(out, "omniport_status_cache_served_total", "counter", "Status pings answered from the cache");
+            sample(out, "omniport_status_cache_served_total", NO_PORT, statusCache.getServed());
+            header(out, "omniport_status_cache_refresh_failures_total", "counter", "Status cache refreshes that could not reach the server");
+            sample(out, "omniport_status_cache_refresh_failures_total", NO_PORT, statusCache.getRefreshFailures());
+        }
+
+        summary(out, "omniport_backend_connect_seconds", "Time to connect to the backend", stats.getBackendConnect());
+        summary(out, "omniport_first_byte_seconds", "Time from accept until the first backend byte", stats.getFirstByte());
+        summary(out, "omniport_session_seconds", "Length of finished sessions", stats.getSessionLength());
+
+        UdpForwarder udpForwarder = plugin.getUdpForwarder();
+        if (udpForwarder != null) {
+            header(out, "omniport_bedrock_sessions", "gauge", "Active Bedrock client sessions");
+            for (UdpForwarder.Listener listener : udpForwarder.getListeners()) {
+                sample(out, "omniport_bedrock_sessions", listener.getPort(), listener.getActiveSessions());
+            }
+            header(out, "omniport_bedrock_received_packets_total", "counter", "Datagrams received from Bedrock clients");
+            for (UdpForwarder.Listener listener : udpForwarder.getListeners()) {
+                sample(out, "omniport_bedrock_received_packets_total", listener.getPort(), listener.getPacketsIn());
+            }
+            header(out, "omniport_bedrock_sent_packets_total", "counter", "Datagrams sent to Bedrock clients");
+            for (UdpForwarder.Listener listener : udpForwarder.getListeners()) {
+                sample(out, "omniport_bedrock_sent_packets_total", listener.getPort(), listener.getPacketsOut());
+            }
+            header(out, "omniport_bedrock_dropped_packets_total", "counter", "Datagrams that could not be forwarded");
+            for (UdpForwarder.Listener listener : udpForwarder.getListeners()) {
+                sample(out, "omniport_bedrock_dropped_packets_total", listener.getPort(), listener.getDropped());
+            }
+            header(out, "omniport_bedrock_refused_sessions_total", "counter", "New Bedrock clients dropped over the session limits");
+            for (UdpForwarder.Listener listener : udpForwarder.getListeners()) {
+                sample(out, "omniport_bedrock_refused_sessions_total", listener.getPort(), listener.getSessionsRefused());
+            }
+        }
+
+        BufferPool bufferPool = plugin.getBufferPool();
+        if (bufferPool != null) {
+            header(out, "omniport_buffer_pool_hits_total", "counter", "Forwarding buffers reused from the pool");
+            sample(out, "omniport_buffer_pool_hits_total", NO_PORT, bufferPool.getHits());
+            header(out, "omniport_buffer_pool_misses_total", "counter", "Forwarding buffers allocated because the pool was empty");
+            sample(out, "omniport_buffer_pool_misses_total", NO_PORT, bufferPool.getMisses());
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, int port, long value) {
+        out.append(name);
+        if (port >= 0) {
+            out.append("{port=\"").append(port).append("\"}");
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static void labelled(StringBuilder out, String name, String label, String value, long sample) {
+        out.append(name).append('{').append(label).append("=\"").append(value).append("\"} ").append(sample).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String help, LatencyHistogram histogram) {
+        header(out, name, "summary", help);
+        quantile(out, name, "0.5", histogram.getPercentileMicros(50));
+        quantile(out, name, "0.99", histogram.getPercentileMicros(99));
+        out.append(name).append("_sum ").append(histogram.getTotalMicros() / 1e6).append('\n');
+        out.append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+    private static void quantile(StringBuilder out, String name, String quantile, long micros) {
+        out.append(name).append("{quantile=\"").append(quantile).append("\"} ").append(micros / 1e6).append('\n');
+    }
+}
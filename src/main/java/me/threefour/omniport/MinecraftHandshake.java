@@ -0,0 +1,79 @@
+package me.threefour.omniport;
+
+/**
+ * The first packet a Java Edition client sends, as read off the wire by {@link HandshakeSniffer}
+ */
+public final class MinecraftHandshake {
+    /**
+     * What the client wants to do after the handshake
+     */
+    public enum Intent {
+        STATUS("status"),
+        LOGIN("login"),
+        TRANSFER("transfer"),
+        LEGACY_PING("legacy ping");
+
+        private final String displayName;
+
+        Intent(String displayName) {
+            this.displayName = displayName;
+        }
+
+        /**
+         * Get a lower-case name for messages and metric labels
+         */
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    /**
+     * Handshake of a pre-1.7 client's server list ping, which has no protocol version or address
+     */
+    static final MinecraftHandshake LEGACY_PING = new MinecraftHandshake(-1, "", 0, Intent.LEGACY_PING);
+
+    private final int protocolVersion;
+    private final String serverAddress;
+    private final int serverPort;
+    private final Intent intent;
+
+    public MinecraftHandshake(int protocolVersion, String serverAddress, int serverPort, Intent intent) {
+        this.protocolVersion = protocolVersion;
+        this.serverAddress = serverAddress;
+        this.serverPort = serverPort;
+        this.intent = intent;
+    }
+
+    /**
+     * Get the client's protocol version, or -1 for a legacy ping
+     */
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    /**
+     * Get the server address the client typed in
+     */
+    public String getServerAddress() {
+        return serverAddress;
+    }
+
+    /**
+     * Get the server port the client typed in
+     */
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    /**
+     * Get what the client wants to do next
+     */
+    public Intent getIntent() {
+        return intent;
+    }
+
+    @Override
+    public String toString() {
+        return intent.getDisplayName() + " (protocol " + protocolVersion + ", " + serverAddress + ":" + serverPort + ")";
+    }
+}
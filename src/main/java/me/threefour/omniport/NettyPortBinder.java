@@ -0,0 +1,181 @@
+package me.threefour.omniport;
+
+import org.bukkit.Server;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binds extra ports on the server's own Netty listener, so their connections are handled by the server's
+ * network threads exactly like the main port, with no loopback hop through OmniPort.
+ * Server internals are reached by reflection; if they cannot be found the ports are proxied instead.
+ */
+public class NettyPortBinder {
+    private final Object connectionListener;
+    private final Method startListener;
+    private final List<?> channels;
+    private final Method futureChannel;
+    private final Method channelClose;
+    private final Method awaitUninterruptibly;
+    // Open ports map to their channel future, blocked ports have their listener closed
+    private final Map<Integer, Object> listeners = new ConcurrentHashMap<>();
+    private final Set<Integer> blockedPorts = ConcurrentHashMap.newKeySet();
+
+    private NettyPortBinder(Object connectionListener, Method startListener, List<?> channels,
+                            Method futureChannel, Method channelClose, Method awaitUninterruptibly) {
+        this.connectionListener = connectionListener;
+        this.startListener = startListener;
+        this.channels = channels;
+        this.futureChannel = futureChannel;
+        this.channelClose = channelClose;
+        this.awaitUninterruptibly = awaitUninterruptibly;
+    }
+
+    /**
+     * Look up the server's connection listener
+     * @param server the running server
+     * @return a binder for the server's listener
+     * @throws ReflectiveOperationException if this server does not expose the listener OmniPort expects
+     */
+    public static NettyPortBinder create(Server server) throws ReflectiveOperationException {
+        Object minecraftServer = server.getClass().getMethod("getServer").invoke(server);
+        Object connectionListener = minecraftServer.getClass().getMethod("getConnection").invoke(minecraftServer);
+        if (connectionListener == null) {
+            throw new ClassNotFoundException("Server has no connection listener");
+        }
+        return forListener(connectionListener);
+    }
+
+    /**
+     * Wrap a connection listener found some other way, such as the stand-in the stress test binds through
+     * @param connectionListener the listener, with a startTcpServerListener method and a channels list
+     * @throws ReflectiveOperationException if the listener is not shaped the way OmniPort expects
+     */
+    public static NettyPortBinder forListener(Object connectionListener) throws ReflectiveOperationException {
+        Method startListener = connectionListener.getClass().getMethod("startTcpServerListener", InetAddress.class, int.class);
+        Field channelsField = connectionListener.getClass().getDeclaredField("channels");
+        channelsField.setAccessible(true);
+        List<?> channels = (List<?>) channelsField.get(connectionListener);
+
+        // Resolved on the public Netty interfaces, the implementations are not always public classes
+        ClassLoader loader = connectionListener.getClass().getClassLoader();
+        Class<?> channelFuture = Class.forName("io.netty.channel.ChannelFuture", false, loader);
+        Class<?> channel = Class.forName("io.netty.channel.ChannelOutboundInvoker", false, loader);
+        Class<?> future = Class.forName("io.netty.util.concurrent.Future", false, loader);
+        return new NettyPortBinder(connectionListener, startListener, channels,
+                                   channelFuture.getMethod("channel"), channel.getMethod("close"),
+                                   future.getMethod("awaitUninterruptibly"));
+    }
+
+    /**
+     * Bind a port on the server's listener
+     * @param port the port to bind
+     * @throws IOException if the port could not be bound
+     */
+    public void bind(int port) throws IOException {
+        listeners.put(port, open(port));
+    }
+
+    /**
+     * Get the ports bound through this binder, blocked or not
+     */
+    public List<Integer> getPorts() {
+        List<Integer> ports = new ArrayList<>(listeners.keySet());
+        ports.addAll(blockedPorts);
+        return ports;
+    }
+
+    /**
+     * Check whether a port was bound through this binder
+     */
+    public boolean isBound(int port) {
+        return listeners.containsKey(port) || blockedPorts.contains(port);
+    }
+
+    /**
+     * Check whether a port is currently closed to new connections
+     */
+    public boolean isBlocked(int port) {
+        return blockedPorts.contains(port);
+    }
+
+    /**
+     * Block a port by closing its listener, or unblock it by binding it again.
+     * Players already connected through the port stay connected either way.
+     * @param port the port
+     * @param blocked true to block, false to unblock
+     * @throws IOException if the port could not be bound again
+     */
+    public synchronized void setBlocked(int port, boolean blocked) throws IOException {
+        if (blocked) {
+            Object future = listeners.remove(port);
+            if (future != null) {
+                close(future);
+                blockedPorts.add(port);
+            }
+        } else if (blockedPorts.contains(port)) {
+            listeners.put(port, open(port));
+            blockedPorts.remove(port);
+        }
+    }
+
+    /**
+     * Stop serving a port, blocked or not. Players already connected through it stay connected.
+     * @param port the port
+     * @return true if the port was bound through this binder
+     */
+    public synchronized boolean unbind(int port) {
+        Object future = listeners.remove(port);
+        if (future != null) {
+            close(future);
+            return true;
+        }
+        return blockedPorts.remove(port);
+    }
+
+    /**
+     * Close every listener opened by this binder
+     */
+    public synchronized void shutdown() {
+        for (Object future : listeners.values()) {
+            close(future);
+        }
+        listeners.clear();
+        blockedPorts.clear();
+    }
+
+    private Object open(int port) throws IOException {
+        // The listener adds the new channel's future to its list while holding the list's lock
+        synchronized (channels) {
+            try {
+                startListener.invoke(connectionListener, null, port);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ioe ? ioe : new IOException(cause.getMessage(), cause);
+            } catch (IllegalAccessException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+            return channels.get(channels.size() - 1);
+        }
+    }
+
+    private void close(Object future) {
+        // Same lock as open, the server changes and walks the list under it too
+        synchronized (channels) {
+            channels.remove(future);
+        }
+        try {
+            Object channel = futureChannel.invoke(future);
+            awaitUninterruptibly.invoke(channelClose.invoke(channel));
+        } catch (ReflectiveOperationException e) {
+            // The server closes it on shutdown anyway
+        }
+    }
+}
@@ -0,0 +1,520 @@
+package me.threefour.omniport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking proxy engine that forwards every connection on a small, fixed set of selector threads
+ * instead of dedicating two threads to each client
+ */
+public class NioProxyEngine {
+    private static final long SELECT_TIMEOUT = 1000;
+
+    private final ProxyHost plugin;
+    private final Reactor[] reactors;
+    private final AtomicInteger nextReactor = new AtomicInteger(0);
+    private volatile boolean running = false;
+
+    public NioProxyEngine(ProxyHost plugin, int reactorThreads) throws IOException {
+        this.plugin = plugin;
+        int threads = reactorThreads > 0 ? reactorThreads : Runtime.getRuntime().availableProcessors();
+        this.reactors = new Reactor[threads];
+        for (int i = 0; i < threads; i++) {
+            reactors[i] = new Reactor(i);
+        }
+    }
+
+    /**
+     * Start all reactor threads
+     */
+    public void start() {
+        running = true;
+        for (Reactor reactor : reactors) {
+            reactor.thread.start();
+        }
+    }
+
+    /**
+     * Get the number of reactor threads
+     */
+    public int getReactorCount() {
+        return reactors.length;
+    }
+
+    /**
+     * Hand an accepted client over to one of the reactors, which connects it to the main server
+     */
+    public void register(SocketChannel client, ConnectionInfo connectionInfo, long connectionId) {
+        Reactor reactor = reactors[Math.floorMod(nextReactor.getAndIncrement(), reactors.length)];
+        reactor.execute(() -> reactor.open(client, connectionInfo, connectionId));
+    }
+
+    /**
+     * Stop all reactors and close every connection they own
+     */
+    public void shutdown() {
+        running = false;
+        for (Reactor reactor : reactors) {
+            reactor.selector.wakeup();
+        }
+        for (Reactor reactor : reactors) {
+            try {
+                reactor.thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * A selector thread that owns a subset of the proxied connections
+     */
+    private final class Reactor implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+
+        Reactor(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "OmniPort-Reactor-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        /**
+         * Run a task on this reactor's thread
+         */
+        void execute(Runnable task) {
+            pendingTasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(SELECT_TIMEOUT);
+
+                    Runnable task;
+                    while ((task = pendingTasks.poll()) != null) {
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            plugin.log(OmniPort.ERROR + "Proxy reactor task failed §8(" + e + ")");
+                        }
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Session session = (Session) key.attachment();
+                        try {
+                            session.handle(key);
+                        } catch (IOException | CancelledKeyException e) {
+                            session.close();
+                        } catch (RuntimeException e) {
+                            // One misbehaving client must not take the reactor and every session on it down
+                            plugin.log(OmniPort.ERROR + "Closing session from §f" + session.clientAddress + "§c after an unexpected error §8(" + e + ")");
+                            session.close();
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (running) {
+                    plugin.log(OmniPort.ERROR + "Proxy reactor stopped unexpectedly §8(" + e.getMessage() + ")");
+                }
+            } finally {
+                closeAll();
+            }
+        }
+
+        /**
+         * Register a freshly accepted client and start connecting to its backend,
+         * or wait for its handshake first if status pings are answered from the cache
+         */
+        void open(SocketChannel client, ConnectionInfo connectionInfo, long connectionId) {
+            Session session = new Session(client, connectionInfo, connectionId);
+            // Closed on this reactor's thread, so the session is cleaned up like any other close
+            connectionInfo.setCloser(() -> execute(session::close));
+            try {
+                client.configureBlocking(false);
+                client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+                // The cache holds the main server's response, so clients routed elsewhere are always proxied
+                StatusCache statusCache = session.backend.isMain() ? plugin.getStatusCache() : null;
+                if (statusCache != null && statusCache.getResponse() != null) {
+                    session.awaitingHandshake = true;
+                    session.clientKey = client.register(selector, SelectionKey.OP_READ, session);
+                } else {
+                    // Client reads stay disabled until the backend connection is established
+                    session.clientKey = client.register(selector, 0, session);
+                    session.connectBackend();
+                }
+            } catch (IOException e) {
+                session.close();
+            }
+        }
+
+        private void closeAll() {
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    ((Session) key.attachment()).close();
+                }
+                selector.close();
+            } catch (IOException | ClosedSelectorException e) {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * Both halves of a proxied connection plus the data waiting to be written in each direction
+     */
+    private final class Session {
+        private final SocketChannel client;
+        private final int port;
+        private final long connectionId;
+        private final ConnectionInfo connectionInfo;
+        private final Backend backend;
+        private final ProxyStats stats;
+        private final PortStats portStats;
+        private final String clientAddress;
+        private SocketChannel server;
+        private SelectionKey clientKey;
+        private SelectionKey serverKey;
+        private final ByteBuffer toServer;
+        private final ByteBuffer toClient;
+        private boolean clientEof = false;
+        private boolean serverEof = false;
+        private boolean closed = false;
+        private long connectStart;
+        private boolean firstByte = true;
+        private final HandshakeSniffer sniffer;
+        private boolean awaitingHandshake = false;
+        private StatusExchange statusExchange;
+        private ByteBuffer statusReply;
+        private boolean statusServed = false;
+
+        Session(SocketChannel client, ConnectionInfo connectionInfo, long connectionId) {
+            this.client = client;
+            this.port = connectionInfo.getPort();
+            this.connectionId = connectionId;
+            this.connectionInfo = connectionInfo;
+            this.backend = connectionInfo.getBackend();
+            this.stats = plugin.getStats();
+            this.portStats = stats.port(port);
+            this.clientAddress = client.socket().getInetAddress().getHostAddress();
+            this.toServer = plugin.getBufferPool().acquire(port);
+            this.toClient = plugin.getBufferPool().acquire(port);
+            this.sniffer = new HandshakeSniffer(connectionInfo, stats);
+        }
+
+        void handle(SelectionKey key) throws IOException {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key == serverKey) {
+                if (key.isConnectable()) {
+                    try {
+                        if (server.finishConnect()) {
+                            connected();
+                        }
+                    } catch (IOException e) {
+                        connectFailed();
+                        portStats.connectionFailed();
+                        plugin.log(OmniPort.ERROR + "Error establishing proxy connection on port §c" + port +
+                                  " §8(" + e.getMessage() + ")");
+                        throw e;
+                    }
+                    return;
+                }
+                if (key.isWritable()) {
+                    flush(toServer, server, serverKey, clientKey, clientEof);
+                }
+                if (key.isValid() && key.isReadable()) {
+                    serverEof = readFromServer() || serverEof;
+                    flush(toClient, client, clientKey, serverKey, serverEof);
+                }
+            } else {
+                if (awaitingHandshake || statusExchange != null) {
+                    if (key.isReadable()) {
+                        clientEof = readFromClient() || clientEof;
+                    }
+                    if (awaitingHandshake) {
+                        checkHandshake();
+                    } else {
+                        answerStatus();
+                    }
+                    return;
+                }
+                if (key.isWritable()) {
+                    flush(toClient, client, clientKey, serverKey, serverEof);
+                }
+                if (key.isValid() && key.isReadable()) {
+                    clientEof = readFromClient() || clientEof;
+                    flush(toServer, server, serverKey, clientKey, clientEof);
+                }
+            }
+
+            if (clientEof && serverEof && toServer.position() == 0 && toClient.position() == 0) {
+                close();
+            }
+        }
+
+        /**
+         * Start connecting to the backend the router picked
+         */
+        void connectBackend() {
+            try {
+                connectStart = System.nanoTime();
+                BackendPool backendPool = backend.isMain() ? plugin.getBackendPool() : null;
+                SocketChannel pooled = backendPool != null ? backendPool.poll() : null;
+                if (pooled != null) {
+                    server = pooled;
+                    serverKey = server.register(clientKey.selector(), 0, this);
+                    connected();
+                    return;
+                }
+
+                // The connect timeout is enforced by the timeout wheel, which closes the session
+                connectionInfo.backendConnectStarted();
+                SocketAddress address = backend.getAddress();
+                if (address instanceof InetSocketAddress) {
+                    server = SocketChannel.open();
+                    server.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                } else {
+                    server = SocketChannel.open(StandardProtocolFamily.UNIX);
+                }
+                server.configureBlocking(false);
+
+                if (server.connect(address)) {
+                    serverKey = server.register(clientKey.selector(), 0, this);
+                    connected();
+                } else {
+                    serverKey = server.register(clientKey.selector(), SelectionKey.OP_CONNECT, this);
+                }
+            } catch (IOException e) {
+                connectFailed();
+                portStats.connectionFailed();
+                plugin.log(OmniPort.ERROR + "Error establishing proxy connection on port §c" + port +
+                          " §8(" + e.getMessage() + ")");
+                close();
+            }
+        }
+
+        /**
+         * Count a failed backend connect towards the circuit breaker
+         */
+        private void connectFailed() {
+            if (connectionInfo.getBackendConnectStart() == 0) {
+                return;
+            }
+            connectionInfo.backendConnectFinished();
+            BackendHealth health = backend.getHealth();
+            if (health != null) {
+                health.connectFailed();
+            }
+        }
+
+        /**
+         * Called once the backend connection is established
+         */
+        void connected() throws IOException {
+            stats.getBackendConnect().record(System.nanoTime() - connectStart);
+            if (connectionInfo.getBackendConnectStart() != 0) {
+                connectionInfo.backendConnectFinished();
+                BackendHealth health = backend.getHealth();
+                if (health != null) {
+                    health.connectSucceeded();
+                }
+            }
+            clientKey.interestOps(SelectionKey.OP_READ);
+            serverKey.interestOps(SelectionKey.OP_READ);
+            plugin.logConnectionEvent(OmniPort.INFO + "Proxying client from §b" + clientAddress +
+                      "§3:§b" + port + " §3→ §b" + backend.getName() + "§3 at §b" + ProxyServer.describeBackend(backend.getAddress()));
+
+            // Pass on whatever arrived while waiting for the handshake
+            if (toServer.position() > 0 || clientEof) {
+                flush(toServer, server, serverKey, clientKey, clientEof);
+            }
+        }
+
+        /**
+         * Decide what to do with a client once its handshake is in: answer a status ping from the cache,
+         * or connect it to its backend like any other client
+         */
+        private void checkHandshake() {
+            MinecraftHandshake handshake = connectionInfo.getHandshake();
+            if (handshake == null && !sniffer.isDone() && toServer.hasRemaining() && !clientEof) {
+                return;
+            }
+            awaitingHandshake = false;
+
+            StatusCache statusCache = plugin.getStatusCache();
+            byte[] response = statusCache != null ? statusCache.getResponse() : null;
+            if (handshake != null && handshake.getIntent() == MinecraftHandshake.Intent.STATUS && response != null) {
+                statusExchange = new StatusExchange(response);
+                answerStatus();
+                return;
+            }
+            if (clientEof && toServer.position() == 0) {
+                close();
+                return;
+            }
+            clientKey.interestOps(0);
+            connectBackend();
+        }
+
+        /**
+         * Write the cached status response and the pong as the client asks for them, then close
+         */
+        private void answerStatus() {
+            try {
+                while (true) {
+                    if (statusReply != null) {
+                        client.write(statusReply);
+                        if (statusReply.hasRemaining()) {
+                            clientKey.interestOps(SelectionKey.OP_WRITE);
+                            return;
+                        }
+                        statusReply = null;
+                    }
+                    if (statusExchange.isFinished()) {
+                        close();
+                        return;
+                    }
+
+                    toServer.flip();
+                    statusReply = statusExchange.next(toServer);
+                    toServer.compact();
+                    if (statusReply == null) {
+                        if (clientEof || !toServer.hasRemaining()) {
+                            close();
+                        } else {
+                            clientKey.interestOps(SelectionKey.OP_READ);
+                        }
+                        return;
+                    }
+
+                    // The status response always comes first
+                    if (!statusServed) {
+                        statusServed = true;
+                        plugin.getStatusCache().statusServed();
+                    }
+                    connectionInfo.addBytesOut(statusReply.remaining());
+                    portStats.addBytesOut(statusReply.remaining());
+                }
+            } catch (IOException e) {
+                // Clients may skip the ping or hang up, the connection is closed either way
+                close();
+            }
+        }
+
+        /**
+         * Read from the client into the buffer for the server
+         * @return true if the client reached end of stream
+         */
+        private boolean readFromClient() throws IOException {
+            int start = toServer.position();
+            int read = client.read(toServer);
+            if (read > 0) {
+                connectionInfo.addBytesIn(read);
+                portStats.addBytesIn(read);
+                if (!sniffer.isDone()) {
+                    sniffer.feed(toServer, start, toServer.position());
+                }
+            }
+            return read == -1;
+        }
+
+        /**
+         * Read from the server into the buffer for the client
+         * @return true if the server reached end of stream
+         */
+        private boolean readFromServer() throws IOException {
+            int read = server.read(toClient);
+            if (read > 0) {
+                if (firstByte) {
+                    firstByte = false;
+                    stats.getFirstByte().record(System.nanoTime() - connectionInfo.getConnectNanos());
+                }
+                connectionInfo.addBytesOut(read);
+                portStats.addBytesOut(read);
+            }
+            return read == -1;
+        }
+
+        /**
+         * Write pending data and pause or resume the source depending on whether the target kept up
+         */
+        private void flush(ByteBuffer buffer, SocketChannel target, SelectionKey targetKey,
+                           SelectionKey sourceKey, boolean sourceEof) throws IOException {
+            buffer.flip();
+            target.write(buffer);
+            buffer.compact();
+
+            if (buffer.position() > 0) {
+                // Target's socket buffer is full: stop reading until it drains
+                targetKey.interestOpsOr(SelectionKey.OP_WRITE);
+                sourceKey.interestOpsAnd(~SelectionKey.OP_READ);
+            } else {
+                targetKey.interestOpsAnd(~SelectionKey.OP_WRITE);
+                if (sourceEof) {
+                    sourceKey.interestOpsAnd(~SelectionKey.OP_READ);
+                    target.shutdownOutput();
+                } else {
+                    sourceKey.interestOpsOr(SelectionKey.OP_READ);
+                }
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            // A connect the timeout wheel gave up on counts against the backend
+            if (connectionInfo.getTimeoutCause() == TimeoutWheel.Cause.CONNECT) {
+                connectFailed();
+            }
+            if (clientKey != null) {
+                clientKey.cancel();
+            }
+            if (serverKey != null) {
+                serverKey.cancel();
+            }
+            closeQuietly(client);
+            closeQuietly(server);
+            plugin.getBufferPool().release(toServer);
+            plugin.getBufferPool().release(toClient);
+
+            plugin.logConnectionEvent(OmniPort.INFO + "§7Connection closed from §8" + clientAddress + "§7:§8" + port);
+            plugin.removeConnection(connectionId);
+        }
+
+        private void closeQuietly(SocketChannel channel) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+}
@@ -3,18 +3,14 @@ package me.threefour.omniport;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.command.Command;
 import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 import net.md_5.bungee.api.ChatColor;
@@ -22,7 +18,7 @@ import net.md_5.bungee.api.ChatColor;
 /**
  * Main plugin class for OmniPort
  */
-public final class OmniPort extends JavaPlugin {
+public final class OmniPort extends JavaPlugin implements ProxyHost {
     // UI Constants for console messages
     public static final String PREFIX = "§3[§b§lOmniPort§3] ";
     public static final String SUCCESS = "§a✓ ";
@@ -30,16 +26,12 @@ public final class OmniPort extends JavaPlugin {
     public static final String ERROR = "§c✗ ";
     public static final String INFO = "§b→ ";
     
-    private List<ServerSocket> serverSockets = new ArrayList<>();
-    private List<Integer> activePorts = new ArrayList<>();
-    private Map<Integer, Boolean> portBlockStatus = new ConcurrentHashMap<>();
-    private Map<UUID, ConnectionInfo> activeConnections = new ConcurrentHashMap<>();
-    private ExecutorService executorService;
-    private boolean isRunning = false;
-    private AtomicInteger currentConnections = new AtomicInteger(0);
-    private int maxConnections;
-    private int connectionTimeout;
-    private int mainServerPort = 25565; // Default port
+    private ProxyServer proxyServer;
+    private LogPipeline logPipeline;
+    private PinningMonitor pinningMonitor;
+    private UdpForwarder udpForwarder;
+    private MetricsServer metricsServer;
+    private PortManager portManager;
     
     // Default ports to listen on
     private final int[] DEFAULT_PORTS = {25566, 25567, 25568, 25569};
@@ -52,43 +44,47 @@ public final class OmniPort extends JavaPlugin {
         // Save default config if it doesn't exist
         saveDefaultConfig();
         
+        // Write console output from a background thread from here on
+        logPipeline = new LogPipeline(
+            message -> getServer().getConsoleSender().sendMessage(message), PREFIX,
+            getConfig().getInt("logging.queue-size", 1024),
+            getConfig().getLong("logging.summary-interval", 5000)
+        );
+        logPipeline.start();
+        
         // Get main server port
-        mainServerPort = getServer().getPort();
+        int mainServerPort = getServer().getPort();
         log(INFO + "Main server port detected as: §f" + mainServerPort);
         
-        // Get ports from config or use defaults
-        List<Integer> ports = getConfig().getIntegerList("ports");
-        if (ports.isEmpty()) {
-            for (int port : DEFAULT_PORTS) {
-                ports.add(port);
-            }
-            log(WARNING + "No ports configured. Using default ports: §f" + ports);
-        } else {
-            log(INFO + "Using configured ports: §f" + ports);
-        }
-        
-        // Remove main server port from the list if it's there
-        ports.removeIf(port -> port == mainServerPort);
+        // Get ports from config or use defaults, without the main server port
+        List<Integer> ports = readProxyPorts(mainServerPort);
         if (ports.isEmpty()) {
             log(ERROR + "No additional ports configured after removing main server port. Plugin will be inactive.");
             return;
         }
         
-        // Get connection settings
-        connectionTimeout = getConfig().getInt("connection.timeout", 30000);
-        maxConnections = getConfig().getInt("connection.max-connections", 100);
-        log(INFO + "Connection timeout: §f" + connectionTimeout + "ms§b, Max connections: §f" + maxConnections);
+        // Get connection and proxy settings
+        ProxySettings settings = readSettings(mainServerPort);
+        log(INFO + "Connection timeout: §f" + settings.getConnectionTimeout() + "ms§b, Max connections: §f" + settings.getMaxConnections());
         
-        // Create thread pool
-        executorService = Executors.newCachedThreadPool();
+        // Create the shared forwarding buffer pool
+        proxyServer = new ProxyServer(settings, createBufferPool(), logPipeline, getLogger());
         
-        // Initialize port block status
-        for (int port : ports) {
-            portBlockStatus.put(port, false);
+        // Report virtual threads pinned to their carrier
+        if (settings.isVirtualThreads()) {
+            long pinningThreshold = getConfig().getLong("proxy.pinning-threshold", 20);
+            if (pinningThreshold > 0) {
+                pinningMonitor = new PinningMonitor(this, pinningThreshold);
+                if (!pinningMonitor.start()) {
+                    log(WARNING + "Java Flight Recorder unavailable - virtual thread pinning will not be reported");
+                    pinningMonitor = null;
+                }
+            }
         }
         
-        // Start servers on each port
-        startServers(ports);
+        // Bind ports on the server's own listener if enabled, anything left over is proxied
+        portManager = new PortManager(this, proxyServer, () -> NettyPortBinder.create(getServer()));
+        portManager.start(ports, getConfig().getBoolean("proxy.in-process", false));
         
         // Register commands using Paper's command registration system
         registerCommands();
@@ -97,6 +93,9 @@ public final class OmniPort extends JavaPlugin {
         boolean geyserInstalled = getServer().getPluginManager().getPlugin("Geyser-Spigot") != null;
         boolean floodgateInstalled = getServer().getPluginManager().getPlugin("floodgate") != null;
         
+        // Forward Bedrock UDP ports to Geyser
+        startBedrockForwarding(geyserInstalled);
+        
         if (geyserInstalled) {
             log(SUCCESS + "Detected Geyser plugin - Bedrock players can connect to your server!");
             
@@ -114,32 +113,81 @@ public final class OmniPort extends JavaPlugin {
             log(WARNING + "Geyser not detected - only Java players can connect to your server.");
         }
         
+        // Start the metrics endpoint if enabled
+        if (getConfig().getBoolean("metrics.enabled", false)) {
+            startMetricsServer();
+        }
+        
         // Show success message
         log(SUCCESS + "OmniPort has been successfully enabled!");
     }
 
     @Override
     public void onDisable() {
-        // Shutdown the server
-        stopServers();
+        // Shutdown the server, its engines and proxy threads
+        if (proxyServer != null) {
+            proxyServer.stop();
+        }
+        
+        // Close the ports bound on the server's listener
+        if (portManager != null) {
+            portManager.shutdown();
+            portManager = null;
+        }
+        
+        // Stop the metrics endpoint
+        if (metricsServer != null) {
+            metricsServer.stop();
+            metricsServer = null;
+        }
         
-        // Shutdown thread pool
-        if (executorService != null) {
-            executorService.shutdown();
+        // Stop Bedrock forwarding
+        if (udpForwarder != null) {
+            udpForwarder.shutdown();
+            udpForwarder = null;
         }
         
-        // Clear collections
-        activeConnections.clear();
+        // Stop watching for pinned virtual threads
+        if (pinningMonitor != null) {
+            pinningMonitor.stop();
+            pinningMonitor = null;
+        }
         
         // Goodbye message
         log(INFO + "OmniPort has been disabled. Goodbye!");
+        
+        // Write out anything still queued
+        if (logPipeline != null) {
+            logPipeline.shutdown();
+            logPipeline = null;
+        }
     }
     
     /**
-     * Log a message with the OmniPort prefix
+     * Log a message with the OmniPort prefix.
+     * The console write happens on the log thread, so this never blocks network threads.
      */
     public void log(String message) {
-        getServer().getConsoleSender().sendMessage(PREFIX + message);
+        LogPipeline pipeline = logPipeline;
+        if (pipeline != null) {
+            pipeline.offer(PREFIX + message);
+        } else {
+            getServer().getConsoleSender().sendMessage(PREFIX + message);
+        }
+    }
+    
+    /**
+     * Log a per-connection event such as a connect or disconnect, unless disabled in the config
+     */
+    public void logConnectionEvent(String message) {
+        proxyServer.logConnectionEvent(message);
+    }
+    
+    /**
+     * Count an event on a port, to be reported in the next periodic summary
+     */
+    public void logSummarized(LogPipeline.Event event, int port) {
+        proxyServer.logSummarized(event, port);
     }
     
     /**
@@ -169,7 +217,28 @@ public final class OmniPort extends JavaPlugin {
      * @return the main server port
      */
     public int getMainServerPort() {
-        return mainServerPort;
+        return proxyServer.getMainServerPort();
+    }
+    
+    /**
+     * Get the address of the main server
+     * @return a loopback address, or a Unix domain socket address
+     */
+    public SocketAddress getBackendAddress() {
+        return proxyServer.getBackendAddress();
+    }
+    
+    /**
+     * Find the Unix domain socket to forward to, from the config or the server's own unix: bind address
+     * @return the socket path, or an empty string to forward over loopback TCP
+     */
+    private String detectBackendSocket() {
+        String path = getConfig().getString("proxy.backend-socket", "");
+        if (path.isEmpty() && getServer().getIp().startsWith("unix:")) {
+            path = getServer().getIp().substring("unix:".length());
+            log(INFO + "Main server listens on a Unix domain socket, forwarding to §f" + path);
+        }
+        return path;
     }
     
     /**
@@ -177,7 +246,111 @@ public final class OmniPort extends JavaPlugin {
      * @return connection timeout in milliseconds
      */
     public int getConnectionTimeout() {
-        return connectionTimeout;
+        return proxyServer.getConnectionTimeout();
+    }
+    
+    /**
+     * Get the backend connect timeout
+     * @return connect timeout in milliseconds
+     */
+    public int getConnectTimeout() {
+        return proxyServer.getConnectTimeout();
+    }
+    
+    /**
+     * Build the forwarding buffer pool from the proxy.buffers config section
+     */
+    private BufferPool createBufferPool() {
+        int defaultSize = getConfig().getInt("proxy.buffers.size", 16384);
+        int maxPooled = getConfig().getInt("proxy.buffers.max-pooled", 512);
+        
+        Map<Integer, Integer> portSizes = new HashMap<>();
+        ConfigurationSection overrides = getConfig().getConfigurationSection("proxy.buffers.port-sizes");
+        if (overrides != null) {
+            for (String key : overrides.getKeys(false)) {
+                try {
+                    portSizes.put(Integer.parseInt(key), overrides.getInt(key));
+                } catch (NumberFormatException e) {
+                    log(WARNING + "Ignoring buffer size for invalid port §f" + key);
+                }
+            }
+        }
+        
+        BufferPool pool = new BufferPool(defaultSize, portSizes, maxPooled);
+        log(INFO + "Forwarding buffers: §f" + pool.getBufferSize(-1) + "§b bytes, up to §f" + maxPooled + "§b pooled per size");
+        return pool;
+    }
+    
+    /**
+     * Get the traffic counters and latency histograms
+     * @return the proxy statistics
+     */
+    public ProxyStats getStats() {
+        return proxyServer.getStats();
+    }
+    
+    /**
+     * Get the shared forwarding buffer pool
+     * @return the buffer pool
+     */
+    public BufferPool getBufferPool() {
+        return proxyServer.getBufferPool();
+    }
+    
+    /**
+     * Get the cached server-list response used to answer status pings
+     * @return the cache, or null if pings are always proxied
+     */
+    public StatusCache getStatusCache() {
+        return proxyServer.getStatusCache();
+    }
+    
+    /**
+     * Get the per-address and per-subnet rate limits
+     * @return the limiter, or null if connection rates are not limited
+     */
+    public RateLimiter getRateLimiter() {
+        return proxyServer.getRateLimiter();
+    }
+    
+    /**
+     * Get the wheel enforcing connection timeouts
+     * @return the wheel, or null if the proxy is not running
+     */
+    public TimeoutWheel getTimeoutWheel() {
+        return proxyServer.getTimeoutWheel();
+    }
+    
+    /**
+     * Get the pool of connections to the main server opened ahead of time
+     * @return the pool, or null if every client connects to the backend itself
+     */
+    public BackendPool getBackendPool() {
+        return proxyServer.getBackendPool();
+    }
+    
+    /**
+     * Get the router that picks a backend for every connection
+     * @return the router, or null if the proxy server has not started
+     */
+    public BackendRouter getRouter() {
+        return proxyServer.getRouter();
+    }
+    
+    /**
+     * Get the bounded pool the blocking engine reads handshakes and connects backends on
+     * @return the pool, or null if the proxy server has not started
+     */
+    public WorkerPool getHandshakePool() {
+        return proxyServer.getHandshakePool();
+    }
+    
+    /**
+     * Get the bounded pool the blocking engine forwards traffic on
+     * @return the pool, or null if the proxy server has not started
+     */
+    public WorkerPool getForwardingPool() {
+        return proxyServer.getForwardingPool();
     }
     
     /**
@@ -185,15 +358,15 @@ public final class OmniPort extends JavaPlugin {
      * @return list of active ports
      */
     public List<Integer> getActivePorts() {
-        return new ArrayList<>(activePorts);
+        return portManager.getActivePorts();
     }
     
     /**
-     * Get all active connections with their details
-     * @return map of active connections
+     * Get the open connections forwarded by the proxy server
+     * @return the registry, counted and walked by port without copying
      */
-    public Map<UUID, ConnectionInfo> getActiveConnections() {
-        return new HashMap<>(activeConnections);
+    public ConnectionRegistry getConnections() {
+        return proxyServer.getConnections();
     }
     
     /**
@@ -201,7 +374,7 @@ public final class OmniPort extends JavaPlugin {
      * @return map of port block status
      */
     public Map<Integer, Boolean> getPortBlockStatus() {
-        return new HashMap<>(portBlockStatus);
+        return portManager.getPortBlockStatus();
     }
     
     /**
@@ -211,13 +384,7 @@ public final class OmniPort extends JavaPlugin {
      * @return true if successful, false if port not found
      */
     public boolean setPortBlocked(int port, boolean blocked) {
-        if (!activePorts.contains(port)) {
-            return false;
-        }
-        
-        portBlockStatus.put(port, blocked);
-        log((blocked ? WARNING : SUCCESS) + "Port " + port + " is now " + (blocked ? "§c§lblocked" : "§a§lunblocked"));
-        return true;
+        return portManager.setPortBlocked(port, blocked);
     }
     
     /**
@@ -226,7 +393,16 @@ public final class OmniPort extends JavaPlugin {
      * @return true if blocked, false if not or not found
      */
     public boolean isPortBlocked(int port) {
-        return portBlockStatus.getOrDefault(port, false);
+        return portManager.isPortBlocked(port);
+    }
+    
+    /**
+     * Check if a port is served by the server's own listener rather than the proxy
+     * @param port Port to check
+     * @return true if the port was bound in-process
+     */
+    public boolean isInProcessPort(int port) {
+        return portManager.isInProcessPort(port);
     }
     
     /**
@@ -245,12 +421,15 @@ public final class OmniPort extends JavaPlugin {
             @Override
             public List<String> tabComplete(org.bukkit.command.CommandSender sender, String alias, String[] args) {
                 if (args.length == 1) {
-                    return List.of("status", "block", "unblock", "connections", "reload");
+                    return List.of("status", "stats", "block", "unblock", "connections", "reload");
                 } else if (args.length == 2) {
                     if ("block".equals(args[0]) || "unblock".equals(args[0])) {
-                        return activePorts.stream().map(String::valueOf).collect(Collectors.toList());
+                        return getActivePorts().stream().map(String::valueOf).collect(Collectors.toList());
                     }
                 }
+                if (args.length >= 2 && "connections".equals(args[0])) {
+                    return ConnectionQuery.complete(args[args.length - 1]);
+                }
                 return List.of();
             }
         });
@@ -261,101 +440,292 @@ public final class OmniPort extends JavaPlugin {
     /**
      * Add a client connection to tracking
      */
-    public UUID addConnection(ConnectionInfo connectionInfo) {
-        UUID id = UUID.randomUUID();
-        activeConnections.put(id, connectionInfo);
-        return id;
+    public long addConnection(ConnectionInfo connectionInfo) {
+        return proxyServer.addConnection(connectionInfo);
     }
     
     /**
      * Remove a client connection from tracking
      */
-    public void removeConnection(UUID id) {
-        activeConnections.remove(id);
-        connectionClosed();
+    public void removeConnection(long id) {
+        proxyServer.removeConnection(id);
     }
     
     /**
      * Called when a client connection is closed
      */
     public void connectionClosed() {
-        currentConnections.decrementAndGet();
+        proxyServer.connectionClosed();
     }
     
     /**
      * Get the current number of active connections
      */
     public int getCurrentConnections() {
-        return currentConnections.get();
+        return proxyServer.getCurrentConnections();
     }
     
-    private void startServers(List<Integer> ports) {
-        isRunning = true;
+    /**
+     * Reload config.yml and apply it without kicking anyone. Connection settings are swapped in place,
+     * added ports are bound and removed ports stop accepting while their connections drain.
+     */
+    public void reload() {
+        reloadConfig();
+        if (proxyServer == null) {
+            return;
+        }
         
-        for (int port : ports) {
-            final int currentPort = port;
-            executorService.submit(() -> {
+        int mainServerPort = proxyServer.getMainServerPort();
+        proxyServer.updateSettings(readSettings(mainServerPort));
+        
+        // Diff the configured ports against the ones serving now
+        portManager.reload(readProxyPorts(mainServerPort), getConfig().getBoolean("proxy.in-process", false),
+                           getConfig().getLong("connection.drain-timeout", 30000));
+    }
+    
+    /**
+     * Get the TCP proxy server
+     * @return the proxy server
+     */
+    public ProxyServer getProxyServer() {
+        return proxyServer;
+    }
+    
+    /**
+     * Read the ports to forward from the config, falling back to the defaults, without the main server port
+     */
+    private List<Integer> readProxyPorts(int mainServerPort) {
+        // Entries may be ranges like "30000-30500"
+        List<Integer> ports = readPorts("ports");
+        if (ports.isEmpty()) {
+            for (int port : DEFAULT_PORTS) {
+                ports.add(port);
+            }
+            log(WARNING + "No ports configured. Using default ports: §f" + PortSet.describe(ports));
+        } else {
+            log(INFO + "Using configured ports: §f" + PortSet.describe(ports));
+        }
+        
+        // Remove main server port from the list if it's there
+        ports.removeIf(port -> port == mainServerPort);
+        return ports;
+    }
+    
+    /**
+     * Read the connection and proxy settings from the config
+     */
+    private ProxySettings readSettings(int mainServerPort) {
+        return ProxySettings.builder()
+            .mainServerPort(mainServerPort)
+            .backendSocket(detectBackendSocket())
+            .connectionTimeout(getConfig().getInt("connection.timeout", 30000))
+            .handshakeTimeout(getConfig().getInt("connection.handshake-timeout", 5000))
+            .maxSession(getConfig().getLong("connection.max-session", 0))
+            .connectTimeout(getConfig().getInt("connection.connect-timeout", 5000))
+            .maxConnections(getConfig().getInt("connection.max-connections", 100))
+            .engine(getConfig().getString("proxy.engine", "blocking"))
+            .reactorThreads(getConfig().getInt("proxy.reactor-threads", 0))
+            .acceptors(getConfig().getInt("proxy.acceptors", 1))
+            .acceptBacklog(getConfig().getInt("proxy.accept-backlog", 1024))
+            .handshakeWorkers(getConfig().getInt("proxy.workers.handshake", 64))
+            .handshakeQueue(getConfig().getInt("proxy.workers.handshake-queue", 1024))
+            .forwardingWorkers(getConfig().getInt("proxy.workers.forwarding", 0))
+            .shutdownTimeout(getConfig().getLong("proxy.workers.shutdown-timeout", 5000))
+            .virtualThreads(getConfig().getBoolean("proxy.virtual-threads", false))
+            .logConnectionEvents(getConfig().getBoolean("logging.connection-events", true))
+            .resolveHostnames(getConfig().getBoolean("dns.resolve-hostnames", false))
+            .dnsCacheTtl(getConfig().getLong("dns.cache-ttl", 300000))
+            .dnsCacheSize(getConfig().getInt("dns.cache-size", 1024))
+            .statusCache(getConfig().getBoolean("status-cache.enabled", false))
+            .statusRefreshInterval(getConfig().getLong("status-cache.refresh-interval", 5000))
+            .backendPool(getConfig().getBoolean("proxy.backend-pool.enabled", false))
+            .backendPoolMinSize(getConfig().getInt("proxy.backend-pool.min-size", 2))
+            .backendPoolMaxSize(getConfig().getInt("proxy.backend-pool.max-size", 32))
+            .backendPoolIdleTimeout(getConfig().getLong("proxy.backend-pool.idle-timeout", 15000))
+            .backendHealth(getConfig().getBoolean("proxy.backend-health.enabled", true))
+            .backendHealthInterval(getConfig().getLong("proxy.backend-health.interval", 2000))
+            .backendHealthFailureThreshold(getConfig().getInt("proxy.backend-health.failure-threshold", 3))
+            .backendHealthRecoveryThreshold(getConfig().getInt("proxy.backend-health.recovery-threshold", 2))
+            .routing(readRouting())
+            .rateLimit(getConfig().getBoolean("rate-limit.enabled", false))
+            .rateLimitAddressRate(readRate("rate-limit.address-rate", 2.0))
+            .rateLimitAddressBurst(getConfig().getInt("rate-limit.address-burst", 5))
+            .rateLimitSubnetRate(readRate("rate-limit.subnet-rate", 10.0))
+            .rateLimitSubnetBurst(getConfig().getInt("rate-limit.subnet-burst", 30))
+            .rateLimitIpv4Prefix(getConfig().getInt("rate-limit.ipv4-prefix", 24))
+            .rateLimitIpv6Prefix(getConfig().getInt("rate-limit.ipv6-prefix", 64))
+            .rateLimitTableSize(getConfig().getInt("rate-limit.table-size", 16384))
+            .debug(getConfig().getBoolean("debug", false))
+            .build();
+    }
+    
+    /**
+     * Read a rate limit from the config. Rates of 0 or below would switch limiting off without a word,
+     * so they fall back to the default, and rates too slow for the buckets to track are raised to the slowest they can.
+     */
+    private double readRate(String path, double defaultRate) {
+        double rate = getConfig().getDouble(path, defaultRate);
+        if (!(rate > 0)) {
+            log(WARNING + "Ignoring §f" + path + ": " + rate + "§e, it must be above 0. Using §f" + defaultRate);
+            return defaultRate;
+        }
+        if (rate < RateLimiter.MIN_RATE) {
+            log(WARNING + "Raising §f" + path + "§e to §f" + RateLimiter.MIN_RATE + "§e, the slowest rate that can be tracked");
+            return RateLimiter.MIN_RATE;
+        }
+        return rate;
+    }
+    
+    /**
+     * Read the extra backends, their groups and the ports routed to them, skipping invalid entries
+     */
+    private Routing readRouting() {
+        Routing.Builder routing = Routing.builder();
+        ConfigurationSection backends = getConfig().getConfigurationSection("routing.backends");
+        if (backends != null) {
+            for (String name : backends.getKeys(false)) {
+                // Either just an address, or a section with an address and a weight
+                String address = backends.isConfigurationSection(name)
+                    ? backends.getString(name + ".address")
+                    : backends.getString(name);
+                int weight = backends.isConfigurationSection(name) ? backends.getInt(name + ".weight", 1) : 1;
                 try {
-                    ServerSocket serverSocket = new ServerSocket(currentPort);
-                    serverSockets.add(serverSocket);
-                    activePorts.add(currentPort);
-                    portBlockStatus.put(currentPort, false);
-                    log(SUCCESS + "Server started on port: §f" + currentPort + "§a (forwarding to §f" + mainServerPort + "§a)");
-                    
-                    while (isRunning) {
-                        try {
-                            Socket clientSocket = serverSocket.accept();
-                            
-                            // Check if port is blocked
-                            if (isPortBlocked(currentPort)) {
-                                log(WARNING + "Rejected connection on §cblocked§e port " + currentPort + " from " + 
-                                   clientSocket.getInetAddress());
-                                clientSocket.close();
-                                continue;
-                            }
-                            
-                            // Check if we're at the connection limit
-                            if (currentConnections.get() >= maxConnections) {
-                                log(ERROR + "Connection limit reached. Rejecting connection from " + 
-                                   clientSocket.getInetAddress());
-                                clientSocket.close();
-                                continue;
-                            }
-                            
-                            // Set socket timeout
-                            clientSocket.setSoTimeout(connectionTimeout);
-                            
-                            // Increment connection counter
-                            currentConnections.incrementAndGet();
-                            
-                            // Create connection info
-                            ConnectionInfo connectionInfo = new ConnectionInfo(
-                                clientSocket.getInetAddress(), 
-                                currentPort,
-                                clientSocket.getInetAddress().getHostName()
-                            );
-                            
-                            // Track the connection
-                            UUID connectionId = addConnection(connectionInfo);
-                            
-                            log(INFO + "Client connected on port §f" + currentPort + "§b from §f" + 
-                               clientSocket.getInetAddress() + 
-                               "§b (Active connections: §f" + currentConnections.get() + "§b)");
-                            
-                            // Handle the client using the ClientHandler
-                            executorService.submit(new ClientHandler(clientSocket, currentPort, this, connectionId));
-                            
-                        } catch (IOException e) {
-                            if (isRunning) {
-                                logWarning("Error accepting client connection on port " + currentPort, e);
-                            }
-                        }
-                    }
-                } catch (IOException e) {
-                    logError("Could not start server on port " + currentPort, e);
+                    routing.backend(name, Routing.parseAddress(String.valueOf(address)), weight);
+                } catch (IllegalArgumentException e) {
+                    log(WARNING + "Ignoring routing entry: backend §f" + name + "§e has an invalid address §f" + address);
+                }
+            }
+        }
+        ConfigurationSection groups = getConfig().getConfigurationSection("routing.groups");
+        if (groups != null) {
+            for (String name : groups.getKeys(false)) {
+                String label = groups.getString(name + ".balance", "weighted");
+                Routing.Balance balance = Routing.Balance.fromLabel(label);
+                if (balance == null) {
+                    log(WARNING + "Ignoring routing entry: group §f" + name + "§e has an unknown balance §f" + label);
+                    continue;
                 }
-            });
+                routing.group(name, balance, groups.getStringList(name + ".members"));
+            }
+        }
+        ConfigurationSection ports = getConfig().getConfigurationSection("routing.ports");
+        if (ports != null) {
+            for (String key : ports.getKeys(false)) {
+                String target = ports.getString(key);
+                // Keys may be ranges like "30000-30500"
+                for (int port : PortSet.parse(List.of(key), entry -> log(WARNING + "Ignoring routing entry: invalid port §f" + entry))) {
+                    routing.route(port, target);
+                }
+            }
         }
+        return routing.build(problem -> log(WARNING + "Ignoring routing entry: " + problem));
+    }
+    
+    /**
+     * Read a list of ports and port ranges from the config, skipping invalid entries
+     */
+    private List<Integer> readPorts(String path) {
+        List<?> entries = getConfig().getList(path);
+        if (entries == null) {
+            return new ArrayList<>();
+        }
+        return PortSet.parse(entries, entry -> log(WARNING + "Ignoring invalid port §f" + entry + "§e in " + path));
+    }
+    
+    /**
+     * Bind the configured Bedrock ports and forward their UDP traffic to Geyser's listener
+     */
+    private void startBedrockForwarding(boolean geyserInstalled) {
+        List<Integer> bedrockPorts = readPorts("bedrock.ports");
+        if (bedrockPorts.isEmpty()) {
+            return;
+        }
+        
+        int targetPort = getConfig().getInt("bedrock.target-port", 0);
+        if (targetPort <= 0) {
+            targetPort = geyserInstalled ? detectGeyserPort() : -1;
+            if (targetPort <= 0) {
+                targetPort = 19132;
+            }
+        }
+        
+        // Never bind the port Geyser itself is listening on
+        final int geyserPort = targetPort;
+        if (bedrockPorts.removeIf(port -> port == geyserPort)) {
+            log(WARNING + "Skipping Bedrock port §f" + geyserPort + "§e because Geyser is listening on it");
+        }
+        if (bedrockPorts.isEmpty()) {
+            return;
+        }
+        
+        try {
+            InetSocketAddress target = new InetSocketAddress("127.0.0.1", targetPort);
+            udpForwarder = new UdpForwarder(this, target, getConfig().getLong("bedrock.session-timeout", 60000),
+                                            getConfig().getInt("bedrock.max-sessions", 1000),
+                                            getConfig().getInt("bedrock.max-sessions-per-address", 10));
+        } catch (IOException e) {
+            logError("Could not start Bedrock forwarding", e);
+            return;
+        }
+        
+        List<Integer> bound = new ArrayList<>();
+        for (int port : bedrockPorts) {
+            try {
+                udpForwarder.bind(port);
+                bound.add(port);
+            } catch (IOException e) {
+                logError("Could not start Bedrock forwarding on UDP port " + port, e);
+            }
+        }
+        if (!bound.isEmpty()) {
+            log(SUCCESS + "Bedrock forwarding started on UDP " + (bound.size() == 1 ? "port" : "ports") + ": §f" +
+                PortSet.describe(bound) + "§a (forwarding to §f" + targetPort + "§a)");
+        }
+        udpForwarder.start();
+    }
+    
+    /**
+     * Start the Prometheus metrics endpoint on the configured local address
+     */
+    private void startMetricsServer() {
+        String bindAddress = getConfig().getString("metrics.bind-address", "127.0.0.1");
+        int port = getConfig().getInt("metrics.port", 9225);
+        try {
+            metricsServer = new MetricsServer(this, new InetSocketAddress(bindAddress, port));
+            metricsServer.start();
+            log(SUCCESS + "Metrics endpoint listening on §fhttp://" + bindAddress + ":" + port + "/metrics");
+        } catch (IOException e) {
+            logError("Could not start metrics endpoint on " + bindAddress + ":" + port, e);
+            metricsServer = null;
+        }
+    }
+    
+    /**
+     * Ask Geyser which port its Bedrock listener uses
+     * @return the port, or -1 if it could not be determined
+     */
+    private int detectGeyserPort() {
+        try {
+            // Looked up dynamically to avoid a hard dependency on Geyser
+            Class<?> geyserApiClass = Class.forName("org.geysermc.geyser.api.GeyserApi");
+            Class<?> listenerClass = Class.forName("org.geysermc.geyser.api.network.BedrockListener");
+            Object api = geyserApiClass.getMethod("api").invoke(null);
+            Object listener = geyserApiClass.getMethod("bedrockListener").invoke(api);
+            if (listener != null) {
+                return (int) listenerClass.getMethod("port").invoke(listener);
+            }
+        } catch (Exception e) {
+            logWarning("Could not detect Geyser's Bedrock port", e);
+        }
+        return -1;
+    }
+    
+    /**
+     * Get the Bedrock UDP forwarder
+     * @return the forwarder, or null if no Bedrock ports are forwarded
+     */
+    public UdpForwarder getUdpForwarder() {
+        return udpForwarder;
     }
     
     /**
@@ -375,21 +745,4 @@ public final class OmniPort extends JavaPlugin {
         log(ERROR + message + ": " + e.getMessage());
         getLogger().log(Level.SEVERE, message, e);
     }
-    
-    private void stopServers() {
-        isRunning = false;
-        
-        for (ServerSocket serverSocket : serverSockets) {
-            try {
-                serverSocket.close();
-            } catch (IOException e) {
-                logWarning("Error closing server socket", e);
-            }
-        }
-        
-        serverSockets.clear();
-        activePorts.clear();
-        portBlockStatus.clear();
-        log(INFO + "All OmniPort servers stopped");
-    }
 }
@@ -6,10 +6,11 @@ import org.bukkit.command.CommandSender;
 import net.md_5.bungee.api.ChatColor;
 import org.bukkit.Bukkit;
 import java.awt.Color;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Map;
-import java.util.UUID;
 import java.util.List;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 /**
@@ -47,8 +48,10 @@ public class OmniPortCommand implements CommandExecutor {
             
             sender.sendMessage(ChatColor.of(COMMAND_COLOR) + RIGHT_ARROW + "/omniport status " + 
                               ChatColor.of(DESC_COLOR) + "- Display server status");
-            sender.sendMessage(ChatColor.of(COMMAND_COLOR) + RIGHT_ARROW + "/omniport connections " + 
-                              ChatColor.of(DESC_COLOR) + "- List active connections");
+            sender.sendMessage(ChatColor.of(COMMAND_COLOR) + RIGHT_ARROW + "/omniport stats " + 
+                              ChatColor.of(DESC_COLOR) + "- Display traffic and latency statistics");
+            sender.sendMessage(ChatColor.of(COMMAND_COLOR) + RIGHT_ARROW + "/omniport connections [page] [filters] " + 
+                              ChatColor.of(DESC_COLOR) + "- List active connections, filtered by port:, ip:, protocol: or min: and ordered by sort:");
             sender.sendMessage(ChatColor.of(COMMAND_COLOR) + RIGHT_ARROW + "/omniport block <port> " + 
                               ChatColor.of(DESC_COLOR) + "- Block a port temporarily");
             sender.sendMessage(ChatColor.of(COMMAND_COLOR) + RIGHT_ARROW + "/omniport unblock <port> " + 
@@ -66,9 +69,24 @@ public class OmniPortCommand implements CommandExecutor {
                 displayDetailedStatus(sender);
                 return true;
                 
+            case "stats":
+                // Show traffic counters and latency histograms
+                displayStats(sender);
+                return true;
+                
             case "connections":
-                // Show detailed connection information
-                displayConnections(sender);
+                // Filters are checked here, the listing itself is built off the main thread
+                ConnectionQuery query;
+                try {
+                    query = ConnectionQuery.parse(args, 1);
+                } catch (IllegalArgumentException e) {
+                    String reason = e.getMessage();
+                    sender.sendMessage(ChatColor.RED + X_MARK + Character.toUpperCase(reason.charAt(0)) + reason.substring(1) + ".");
+                    sender.sendMessage(ChatColor.RED + "Usage: /omniport connections [page] [port:<port|range>] [ip:<address|cidr>] " +
+                                       "[protocol:<version|range>] [min:<duration>] [sort:port|duration|bytes]");
+                    return true;
+                }
+                displayConnections(sender, query);
                 return true;
                 
             case "block":
@@ -126,8 +144,8 @@ public class OmniPortCommand implements CommandExecutor {
                     return true;
                 }
                 
-                // Reload the plugin config
-                plugin.reloadConfig();
+                // Reload the config and apply ports and connection settings in place
+                plugin.reload();
                 sender.sendMessage(ChatColor.of(SUCCESS_COLOR) + CHECKMARK + 
                                   ColorUtils.gradient("OmniPort configuration reloaded!", "#00FF7F", "#00AAFF"));
                 return true;
@@ -156,6 +174,20 @@ public class OmniPortCommand implements CommandExecutor {
         sender.sendMessage(ChatColor.of(COMMAND_COLOR) + BULLET + "Main server port: " + 
                           ChatColor.of(SUCCESS_COLOR) + mainPort);
         
+        // Backends with their health and load, and the ports routed to them
+        BackendRouter router = plugin.getRouter();
+        if (router != null) {
+            sender.sendMessage(ChatColor.of(COMMAND_COLOR) + BULLET + "Backends:");
+            for (Backend backend : router.getBackends()) {
+                sendBackendStatus(sender, backend);
+            }
+            for (Map.Entry<String, List<Integer>> route : router.getRoutedPorts().entrySet()) {
+                sender.sendMessage("  " + ChatColor.of(DESC_COLOR) + "Ports " + 
+                    ChatColor.of(VALUE_COLOR) + PortSet.describe(route.getValue(), 8) + 
+                    ChatColor.of(DESC_COLOR) + " → " + ChatColor.of(VALUE_COLOR) + router.describe(route.getKey()));
+            }
+        }
+        
         // Active ports with block status
         Map<Integer, Boolean> portStatus = plugin.getPortBlockStatus();
         
@@ -163,15 +195,50 @@ public class OmniPortCommand implements CommandExecutor {
         if (portStatus.isEmpty()) {
             sender.sendMessage("  " + ChatColor.RED + "None");
         } else {
-            for (Map.Entry<Integer, Boolean> entry : portStatus.entrySet()) {
-                String statusSymbol = entry.getValue() ? X_MARK : CHECKMARK;
-                String statusColor = entry.getValue() ? ChatColor.RED.toString() : ChatColor.GREEN.toString();
+            // Consecutive ports in the same state share a line, so large ranges stay readable
+            List<Integer> sorted = new ArrayList<>(new TreeMap<>(portStatus).keySet());
+            for (int i = 0; i < sorted.size(); i++) {
+                int first = sorted.get(i);
+                boolean blocked = portStatus.get(first);
+                boolean inProcess = plugin.isInProcessPort(first);
+                while (i + 1 < sorted.size() && sorted.get(i + 1) == sorted.get(i) + 1 &&
+                       portStatus.get(sorted.get(i + 1)) == blocked && plugin.isInProcessPort(sorted.get(i + 1)) == inProcess) {
+                    i++;
+                }
+                int last = sorted.get(i);
+                String statusSymbol = blocked ? X_MARK : CHECKMARK;
+                String statusColor = blocked ? ChatColor.RED.toString() : ChatColor.GREEN.toString();
                 
-                sender.sendMessage("  " + ChatColor.of("#00FFAA") + entry.getKey() + " " + 
-                    statusColor + statusSymbol + (entry.getValue() ? "Blocked" : "Open"));
+                String mode = inProcess ? ChatColor.of(DESC_COLOR) + " (in-process)" : "";
+                sender.sendMessage("  " + ChatColor.of("#00FFAA") + (first == last ? String.valueOf(first) : first + "-" + last) + " " + 
+                    statusColor + statusSymbol + (blocked ? "Blocked" : "Open") + mode);
+            }
+        }
+        
+        // Bedrock UDP ports
+        UdpForwarder udpForwarder = plugin.getUdpForwarder();
+        if (udpForwarder != null) {
+            sender.sendMessage(ChatColor.of(COMMAND_COLOR) + BULLET + "Bedrock ports " + 
+                ChatColor.of(DESC_COLOR) + "(UDP → " + udpForwarder.getTarget().getPort() + ")" + 
+                ChatColor.of(COMMAND_COLOR) + ":");
+            for (UdpForwarder.Listener listener : udpForwarder.getListeners()) {
+                sender.sendMessage("  " + ChatColor.of("#00FFAA") + listener.getPort() + " " + 
+                    ChatColor.GREEN + CHECKMARK + "Open " + 
+                    ChatColor.of(DESC_COLOR) + listener.getActiveSessions() + " sessions, " + 
+                    listener.getPacketsIn() + " in / " + listener.getPacketsOut() + " out packets, " + 
+                    listener.getDropped() + " dropped, " + listener.getSessionsRefused() + " clients refused over the session limits");
             }
         }
         
+        // Forwarding buffer pool
+        BufferPool bufferPool = plugin.getBufferPool();
+        if (bufferPool != null) {
+            sender.sendMessage(ChatColor.of(COMMAND_COLOR) + BULLET + "Buffer pool: " + 
+                ChatColor.of(SUCCESS_COLOR) + bufferPool.getHits() + " hits" + ChatColor.of(DESC_COLOR) + ", " + 
+                ChatColor.of(VALUE_COLOR) + bufferPool.getMisses() + " misses" + ChatColor.of(DESC_COLOR) + ", " + 
+                bufferPool.getPooled() + " idle, " + bufferPool.getDiscarded() + " discarded");
+        }
+        
         // Server version
         String serverVersion = Bukkit.getVersion();
         sender.sendMessage(ChatColor.of(COMMAND_COLOR) + BULLET + "Server version: " + 
@@ -200,60 +267,275 @@ public class OmniPortCommand implements CommandExecutor {
     }
     
     /**
-     * Display detailed connection information
+     * Display one page of the connections matching a query
      */
-    private void displayConnections(CommandSender sender) {
-        // Title
-        String title = "========== Active Connections ==========";
-        sender.sendMessage(ColorUtils.gradient(title, HEADER_START, HEADER_END));
+    private void displayConnections(CommandSender sender, ConnectionQuery query) {
+        // Matching and sorting thousands of connections stays off the main thread, only the finished page goes back to it
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            List<String> lines = renderConnections(query);
+            if (plugin.isEnabled()) {
+                Bukkit.getScheduler().runTask(plugin, () -> lines.forEach(sender::sendMessage));
+            }
+        });
+    }
+    
+    /**
+     * Build the lines of one page of connections, only the page shown is rendered
+     */
+    private List<String> renderConnections(ConnectionQuery query) {
+        List<String> lines = new ArrayList<>();
+        lines.add(ColorUtils.gradient("========== Active Connections ==========", HEADER_START, HEADER_END));
         
-        // Get connections
-        Map<UUID, ConnectionInfo> connections = plugin.getActiveConnections();
+        ConnectionQuery.Result result = query.run(plugin.getConnections());
+        String command = ChatColor.of(COMMAND_COLOR).toString();
+        String desc = ChatColor.of(DESC_COLOR).toString();
+        String value = ChatColor.of(VALUE_COLOR).toString();
+        String success = ChatColor.of(SUCCESS_COLOR).toString();
+        String duration = ChatColor.of("#AAAAFF").toString();
         
-        if (connections.isEmpty()) {
-            sender.sendMessage(ChatColor.RED + "No active connections.");
+        if (result.getOpen() == 0) {
+            lines.add(ChatColor.RED + "No active connections.");
+        } else if (result.getMatched() == 0) {
+            lines.add(ChatColor.RED + "None of the " + result.getOpen() + " connections match " + query.describe() + ".");
         } else {
-            sender.sendMessage(ChatColor.of(COMMAND_COLOR) + "Total connections: " + 
-                              ChatColor.of(SUCCESS_COLOR) + connections.size());
-            sender.sendMessage("");
+            int first = (result.getPage() - 1) * ConnectionQuery.PAGE_SIZE + 1;
+            lines.add(command + "Showing " + success + first + "-" + (first + result.getConnections().size() - 1) +
+                      command + " of " + success + result.getMatched() + command +
+                      (query.isFiltered() ? " matching " + desc + query.describe() + command + " (" + result.getOpen() + " open)" : "") +
+                      command + ", by " + value + query.getSort().getLabel());
             
-            // Group by port
-            Map<Integer, List<ConnectionInfo>> byPort = connections.values().stream()
-                .collect(Collectors.groupingBy(ConnectionInfo::getPort));
-                
-            for (Map.Entry<Integer, List<ConnectionInfo>> entry : byPort.entrySet()) {
-                int port = entry.getKey();
-                List<ConnectionInfo> portConnections = entry.getValue();
-                
-                // Port header with block status
-                boolean blocked = plugin.isPortBlocked(port);
-                String statusSymbol = blocked ? X_MARK : CHECKMARK;
-                String statusColor = blocked ? ChatColor.RED.toString() : ChatColor.GREEN.toString();
-                
-                // Use gradient for port header
-                String portHeader = "Port " + port + ": " + portConnections.size() + " connections";
-                sender.sendMessage(
-                    ColorUtils.gradient(portHeader, "#FFAA00", "#00FF7F") + " " +
-                    statusColor + statusSymbol + (blocked ? "BLOCKED" : "OPEN")
-                );
-                
-                // Connection details
-                for (ConnectionInfo info : portConnections) {
-                    sender.sendMessage(
-                        "  " + ChatColor.of(DESC_COLOR) + info.getAddress().getHostAddress() + 
-                        ChatColor.WHITE + " - Connected " + ChatColor.of("#AAAAFF") + info.getConnectionDuration() + 
-                        ChatColor.WHITE + " ago at " + ChatColor.YELLOW + info.getFormattedConnectTime()
-                    );
+            int lastPort = -1;
+            for (ConnectionInfo info : result.getConnections()) {
+                // Port headers only make sense while the page is ordered by port
+                if (query.getSort() == ConnectionQuery.Sort.PORT && info.getPort() != lastPort) {
+                    boolean blocked = plugin.isPortBlocked(info.getPort());
+                    lines.add(value + "Port " + info.getPort() + " " +
+                              (blocked ? ChatColor.RED + X_MARK + "BLOCKED" : ChatColor.GREEN + CHECKMARK + "OPEN"));
                 }
+                lastPort = info.getPort();
                 
-                sender.sendMessage("");
+                String address = info.getAddress().getHostAddress();
+                String hostname = info.getClientInfo();
+                if (!"Unknown".equals(hostname) && !hostname.equals(address)) {
+                    address += ChatColor.GRAY + " (" + hostname + ")";
+                }
+                if (info.getUsername() != null) {
+                    address = value + info.getUsername() + " " + desc + address;
+                }
+                MinecraftHandshake handshake = info.getHandshake();
+                if (handshake != null) {
+                    address += ChatColor.GRAY + " [" + handshake.getIntent().getDisplayName() +
+                        (handshake.getProtocolVersion() >= 0 ? ", protocol " + handshake.getProtocolVersion() : "") + "]";
+                }
+                lines.add("  " + (query.getSort() == ConnectionQuery.Sort.PORT ? "" : value + info.getPort() + " ") +
+                          desc + address +
+                          ChatColor.WHITE + " - " + duration + info.getConnectionDuration() +
+                          ChatColor.WHITE + " since " + ChatColor.YELLOW + info.getFormattedConnectTime() +
+                          ChatColor.WHITE + ", " + desc + formatBytes(info.getBytesIn() + info.getBytesOut()));
+            }
+            
+            if (result.getPage() < result.getPages()) {
+                lines.add(desc + "Page " + result.getPage() + "/" + result.getPages() + ", next: " +
+                          command + "/omniport connections " + query.toArguments(result.getPage() + 1));
+            } else if (result.getPages() > 1) {
+                lines.add(desc + "Page " + result.getPage() + "/" + result.getPages());
             }
         }
         
-        // Footer
+        lines.add(ColorUtils.gradient("===============================", FOOTER_START, FOOTER_END));
+        return lines;
+    }
+    
+    /**
+     * Display per-port traffic counters and latency percentiles
+     */
+    private void displayStats(CommandSender sender) {
+        String title = "========== OmniPort Stats ==========";
+        sender.sendMessage(ColorUtils.gradient(title, HEADER_START, HEADER_END));
+        
+        ProxyStats stats = plugin.getStats();
+        // Ports nobody has connected to yet are left out, they would bury the rest in large ranges
+        Map<Integer, PortStats> ports = new TreeMap<>(stats.getPorts());
+        ports.values().removeIf(portStats -> portStats.getAccepted() == 0 && portStats.getRejected() == 0);
+        
+        sender.sendMessage(ChatColor.of(COMMAND_COLOR) + BULLET + "Ports:");
+        if (ports.isEmpty()) {
+            sender.sendMessage("  " + ChatColor.RED + "No traffic yet");
+        } else {
+            for (PortStats portStats : ports.values()) {
+                sender.sendMessage("  " + ChatColor.of("#00FFAA") + portStats.getPort() + " " + 
+                    ChatColor.of(DESC_COLOR) + "in " + ChatColor.of(VALUE_COLOR) + formatBytes(portStats.getBytesIn()) + 
+                    ChatColor.of(DESC_COLOR) + ", out " + ChatColor.of(VALUE_COLOR) + formatBytes(portStats.getBytesOut()) + 
+                    ChatColor.of(DESC_COLOR) + " | " + ChatColor.GREEN + portStats.getAccepted() + " accepted" + 
+                    ChatColor.of(DESC_COLOR) + ", " + ChatColor.GOLD + portStats.getRejected() + " rejected" + 
+                    ChatColor.of(DESC_COLOR) + ", " + ChatColor.RED + portStats.getFailed() + " failed");
+            }
+        }
+        
+        sender.sendMessage(ChatColor.of(COMMAND_COLOR) + BULLET + "Handshakes: " + 
+            ChatColor.of(VALUE_COLOR) + stats.getHandshakes(MinecraftHandshake.Intent.LOGIN) + ChatColor.of(DESC_COLOR) + " login, " + 
+            ChatColor.of(VALUE_COLOR) + stats.getHandshakes(MinecraftHandshake.Intent.STATUS) + ChatColor.of(DESC_COLOR) + " status, " + 
+            ChatColor.of(VALUE_COLOR) + stats.getHandshakes(MinecraftHandshake.Intent.TRANSFER) + ChatColor.of(DESC_COLOR) + " transfer, " + 
+            ChatColor.of(VALUE_COLOR) + stats.getHandshakes(MinecraftHandshake.Intent.LEGACY_PING) + ChatColor.of(DESC_COLOR) + " legacy ping, " + 
+            ChatColor.RED + stats.getMalformedHandshakes() + ChatColor.of(DESC_COLOR) + " malformed");
+        
+        // Most common protocol versions first
+        String protocols = stats.getProtocolVersions().entrySet().stream()
+            .sorted((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()))
+            .limit(5)
+            .map(entry -> ChatColor.of(VALUE_COLOR) + (entry.getKey() == ProxyStats.OTHER_PROTOCOL ? "other" : String.valueOf(entry.getKey())) +
+                          ChatColor.GRAY + " (" + entry.getValue().sum() + ")")
+            .collect(Collectors.joining(ChatColor.of(DESC_COLOR) + ", "));
+        if (!protocols.isEmpty()) {
+            sender.sendMessage(ChatColor.of(COMMAND_COLOR) + BULLET + "Protocol versions: " + protocols);
+        }
+        
+        if (plugin.getHandshakePool() != null) {
+            sendWorkerPool(sender, plugin.getHandshakePool());
+            sendWorkerPool(sender, plugin.getForwardingPool());
+        }
+        
+        TimeoutWheel timeoutWheel = plugin.getTimeoutWheel();
+        if (timeoutWheel != null) {
+            sender.sendMessage(ChatColor.of(COMMAND_COLOR) + BULLET + "Timed out: " + 
+                ChatColor.GOLD + timeoutWheel.getExpired(TimeoutWheel.Cause.HANDSHAKE) + ChatColor.of(DESC_COLOR) + " handshake, " + 
+                ChatColor.GOLD + timeoutWheel.getExpired(TimeoutWheel.Cause.CONNECT) + ChatColor.of(DESC_COLOR) + " backend connect, " + 
+                ChatColor.GOLD + timeoutWheel.getExpired(TimeoutWheel.Cause.IDLE) + ChatColor.of(DESC_COLOR) + " idle, " + 
+                ChatColor.GOLD + timeoutWheel.getExpired(TimeoutWheel.Cause.SESSION) + ChatColor.of(DESC_COLOR) + " session length");
+        }
+        
+        BackendRouter router = plugin.getRouter();
+        if (router != null) {
+            boolean tracked = false;
+            long trips = 0;
+            long probes = 0;
+            long probeFailures = 0;
+            for (Backend backend : router.getBackends()) {
+                BackendHealth health = backend.getHealth();
+                if (health != null) {
+                    tracked = true;
+                    trips += health.getTrips();
+                    probes += health.getProbes();
+                    probeFailures += health.getProbeFailures();
+                }
+            }
+            if (tracked) {
+                sender.sendMessage(ChatColor.of(COMMAND_COLOR) + BULLET + "Backend health: " + 
+                    ChatColor.RED + trips + ChatColor.of(DESC_COLOR) + " outages, " + 
+                    ChatColor.GOLD + router.getRejected() + ChatColor.of(DESC_COLOR) + " clients refused while down, " + 
+                    ChatColor.of(VALUE_COLOR) + probeFailures + ChatColor.of(DESC_COLOR) + "/" + probes + " probes failed");
+            }
+        }
+        
+        RateLimiter rateLimiter = plugin.getRateLimiter();
+        if (rateLimiter != null) {
+            sender.sendMessage(ChatColor.of(COMMAND_COLOR) + BULLET + "Rate limited: " + 
+                ChatColor.GOLD + rateLimiter.getAddressRejected() + ChatColor.of(DESC_COLOR) + " by address, " + 
+                ChatColor.GOLD + rateLimiter.getSubnetRejected() + ChatColor.of(DESC_COLOR) + " by subnet, " + 
+                ChatColor.of(VALUE_COLOR) + rateLimiter.getEvictions() + ChatColor.of(DESC_COLOR) + " entries recycled");
+        }
+        
+        BackendPool backendPool = plugin.getBackendPool();
+        if (backendPool != null) {
+            sender.sendMessage(ChatColor.of(COMMAND_COLOR) + BULLET + "Backend pool: " + 
+                ChatColor.of(VALUE_COLOR) + backendPool.getReady() + ChatColor.of(DESC_COLOR) + "/" + backendPool.getTarget() + " ready, " + 
+                ChatColor.GREEN + backendPool.getHits() + ChatColor.of(DESC_COLOR) + " hits, " + 
+                ChatColor.GOLD + backendPool.getMisses() + ChatColor.of(DESC_COLOR) + " misses, " + 
+                ChatColor.RED + backendPool.getExpired() + ChatColor.of(DESC_COLOR) + " expired");
+        }
+        
+        StatusCache statusCache = plugin.getStatusCache();
+        if (statusCache != null) {
+            long refreshedAt = statusCache.getRefreshedAt();
+            String age = refreshedAt == 0 ? ChatColor.RED + "never refreshed" :
+                ChatColor.of(VALUE_COLOR) + formatMicros((System.currentTimeMillis() - refreshedAt) * 1000) + ChatColor.of(DESC_COLOR) + " old";
+            sender.sendMessage(ChatColor.of(COMMAND_COLOR) + BULLET + "Status cache: " + 
+                ChatColor.of(VALUE_COLOR) + statusCache.getServed() + ChatColor.of(DESC_COLOR) + " pings answered, " + 
+                age + ChatColor.of(DESC_COLOR) + ", " + ChatColor.RED + statusCache.getRefreshFailures() + ChatColor.of(DESC_COLOR) + " failed refreshes");
+        }
+        
+        sender.sendMessage(ChatColor.of(COMMAND_COLOR) + BULLET + "Latency " + ChatColor.of(DESC_COLOR) + "(p50 / p99 / max):");
+        sendHistogram(sender, "Backend connect", stats.getBackendConnect());
+        sendHistogram(sender, "First byte", stats.getFirstByte());
+        sendHistogram(sender, "Session length", stats.getSessionLength());
+        
         sender.sendMessage(ColorUtils.gradient("===============================", FOOTER_START, FOOTER_END));
     }
     
+    /**
+     * Send a single histogram summary line
+     */
+    /**
+     * Send a worker pool's load and refusals on one line
+     */
+    private void sendWorkerPool(CommandSender sender, WorkerPool pool) {
+        String name = Character.toUpperCase(pool.getName().charAt(0)) + pool.getName().substring(1);
+        sender.sendMessage(ChatColor.of(COMMAND_COLOR) + BULLET + name + " workers: " + 
+            ChatColor.of(VALUE_COLOR) + pool.getActive() + ChatColor.of(DESC_COLOR) + "/" + pool.getMaxThreads() + " busy, " + 
+            ChatColor.of(VALUE_COLOR) + pool.getQueued() + ChatColor.of(DESC_COLOR) + "/" + pool.getQueueCapacity() + " queued, " + 
+            ChatColor.RED + pool.getRejected() + ChatColor.of(DESC_COLOR) + " refused, peak " + 
+            ChatColor.of(VALUE_COLOR) + pool.getLargest() + ChatColor.of(DESC_COLOR) + " threads");
+    }
+    
+    /**
+     * Send a backend's health and load on one line
+     */
+    private void sendBackendStatus(CommandSender sender, Backend backend) {
+        String load = ChatColor.of(VALUE_COLOR) + String.valueOf(backend.getActive()) + ChatColor.of(DESC_COLOR) + " active, " + 
+            ChatColor.of(VALUE_COLOR) + backend.getTotal() + ChatColor.of(DESC_COLOR) + " total";
+        BackendHealth health = backend.getHealth();
+        if (health == null) {
+            sender.sendMessage("  " + ChatColor.of(VALUE_COLOR) + backend.describe() + ChatColor.of(DESC_COLOR) + ": " + load);
+            return;
+        }
+        BackendHealth.State state = health.getState();
+        String stateText = switch (state) {
+            case CLOSED -> ChatColor.GREEN + CHECKMARK + "Up";
+            case HALF_OPEN -> ChatColor.GOLD + "Recovering";
+            case OPEN -> ChatColor.RED + X_MARK + "Down";
+        };
+        long since = (System.currentTimeMillis() - health.getStateSince()) / 1000;
+        sender.sendMessage("  " + ChatColor.of(VALUE_COLOR) + backend.describe() + ChatColor.of(DESC_COLOR) + ": " + stateText + 
+            ChatColor.of(DESC_COLOR) + " (breaker " + state.getLabel() + " for " + since + "s), connect " + 
+            ChatColor.of(VALUE_COLOR) + BackendHealth.formatLatency(health.getLastLatency()) + 
+            ChatColor.of(DESC_COLOR) + " last, " + 
+            ChatColor.of(VALUE_COLOR) + BackendHealth.formatLatency(health.getSmoothedLatency()) + 
+            ChatColor.of(DESC_COLOR) + " average, " + load);
+    }
+    
+    private void sendHistogram(CommandSender sender, String name, LatencyHistogram histogram) {
+        sender.sendMessage("  " + ChatColor.of(DESC_COLOR) + name + ": " + 
+            ChatColor.of(SUCCESS_COLOR) + formatMicros(histogram.getPercentileMicros(50)) + ChatColor.of(DESC_COLOR) + " / " + 
+            ChatColor.of(VALUE_COLOR) + formatMicros(histogram.getPercentileMicros(99)) + ChatColor.of(DESC_COLOR) + " / " + 
+            ChatColor.RED + formatMicros(histogram.getMaxMicros()) + 
+            ChatColor.GRAY + " (" + histogram.getCount() + " samples)");
+    }
+    
+    /**
+     * Format a byte count with a binary unit
+     */
+    private String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        int unit = (63 - Long.numberOfLeadingZeros(bytes)) / 10;
+        return String.format("%.1f %siB", bytes / (double) (1L << (unit * 10)), "KMGTPE".charAt(unit - 1));
+    }
+    
+    /**
+     * Format a duration given in microseconds
+     */
+    private String formatMicros(long micros) {
+        if (micros < 1000) {
+            return micros + "µs";
+        } else if (micros < 1_000_000) {
+            return String.format("%.1fms", micros / 1000.0);
+        } else if (micros < 60_000_000) {
+            return String.format("%.1fs", micros / 1_000_000.0);
+        }
+        return String.format("%.1fm", micros / 60_000_000.0);
+    }
+    
     /**
      * Get a colored representation of a count based on thresholds
      */
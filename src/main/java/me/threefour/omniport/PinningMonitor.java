@@ -0,0 +1,90 @@
+package me.threefour.omniport;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * Watches for virtual threads that get pinned to their carrier thread inside OmniPort code.
+ * Uses the JDK's own jdk.VirtualThreadPinned flight recorder event so the check costs nothing
+ * unless a thread actually blocks while pinned.
+ */
+public class PinningMonitor {
+    private static final String EVENT_NAME = "jdk.VirtualThreadPinned";
+    private static final String PACKAGE_PREFIX = "me.threefour.omniport.";
+
+    private final OmniPort plugin;
+    private final long thresholdMillis;
+    private final Set<String> reportedLocations = ConcurrentHashMap.newKeySet();
+    private final AtomicLong pinnedEvents = new AtomicLong(0);
+    private RecordingStream stream;
+
+    public PinningMonitor(OmniPort plugin, long thresholdMillis) {
+        this.plugin = plugin;
+        this.thresholdMillis = thresholdMillis;
+    }
+
+    /**
+     * Start listening for pinning events
+     * @return true if the flight recorder stream could be started
+     */
+    public boolean start() {
+        try {
+            stream = new RecordingStream();
+            stream.enable(EVENT_NAME).withThreshold(Duration.ofMillis(thresholdMillis)).withStackTrace();
+            stream.onEvent(EVENT_NAME, this::onPinned);
+            stream.startAsync();
+            return true;
+        } catch (Exception | LinkageError e) {
+            // JFR is not available on every runtime
+            stream = null;
+            return false;
+        }
+    }
+
+    /**
+     * Stop listening for pinning events
+     */
+    public void stop() {
+        if (stream != null) {
+            stream.close();
+            stream = null;
+        }
+    }
+
+    /**
+     * Get the number of pinning events seen in OmniPort code
+     */
+    public long getPinnedEvents() {
+        return pinnedEvents.get();
+    }
+
+    private void onPinned(RecordedEvent event) {
+        RecordedStackTrace stackTrace = event.getStackTrace();
+        if (stackTrace == null) {
+            return;
+        }
+
+        // Only report pinning that happens on our own code paths
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+            String type = frame.getMethod().getType().getName();
+            if (!type.startsWith(PACKAGE_PREFIX)) {
+                continue;
+            }
+
+            pinnedEvents.incrementAndGet();
+            String location = type.substring(PACKAGE_PREFIX.length()) + "." + frame.getMethod().getName() +
+                              ":" + frame.getLineNumber();
+            if (reportedLocations.add(location)) {
+                plugin.log(plugin.WARNING + "Virtual thread pinned for §f" + event.getDuration().toMillis() +
+                          "ms§e at §f" + location + " §8(synchronized or native call on the proxy path)");
+            }
+            return;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package me.threefour.omniport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The extra ports OmniPort serves, bound on the server's own listener or proxied, and how a reload changes them.
+ * The server's listener is looked up on the first in-process bind and kept from then on, so ports added by later
+ * reloads are bound next to the earlier ones and shutdown closes all of them.
+ */
+public class PortManager {
+
+    /**
+     * Looks up the server's listener to bind ports on
+     */
+    @FunctionalInterface
+    public interface BinderFactory {
+        NettyPortBinder create() throws ReflectiveOperationException;
+    }
+
+    private final ProxyHost host;
+    private final ProxyServer proxyServer;
+    private final BinderFactory binderFactory;
+    // Set once on the main thread, read by the command, metrics and status threads
+    private volatile NettyPortBinder binder;
+
+    /**
+     * @param host host used for logging
+     * @param proxyServer serves every port that is not bound in-process
+     * @param binderFactory looks up the server's listener, called at most once successfully
+     */
+    public PortManager(ProxyHost host, ProxyServer proxyServer, BinderFactory binderFactory) {
+        this.host = host;
+        this.proxyServer = proxyServer;
+        this.binderFactory = binderFactory;
+    }
+
+    /**
+     * Serve the first set of ports
+     * @param inProcess bind the ports on the server's listener where possible, proxying the rest
+     */
+    public void start(List<Integer> ports, boolean inProcess) {
+        proxyServer.start(inProcess ? bindInProcess(ports) : ports);
+    }
+
+    /**
+     * Bring the served ports in line with the configured ones. Added ports are bound, in-process ones stop
+     * accepting straight away and proxied ones drain for up to the drain timeout.
+     * @param wanted the configured ports
+     * @param inProcess bind added ports on the server's listener where possible
+     * @param drainTimeout how long players on removed proxied ports may stay, in milliseconds
+     */
+    public void reload(List<Integer> wanted, boolean inProcess, long drainTimeout) {
+        PortSet wantedSet = new PortSet();
+        wanted.forEach(wantedSet::add);
+        List<Integer> current = getActivePorts();
+        PortSet currentSet = new PortSet();
+        current.forEach(currentSet::add);
+        List<Integer> removed = current.stream().filter(port -> !wantedSet.contains(port)).collect(Collectors.toList());
+        List<Integer> added = wanted.stream().filter(port -> !currentSet.contains(port)).collect(Collectors.toList());
+
+        // In-process ports are players of the server itself once connected, closing the listener is enough
+        NettyPortBinder bound = binder;
+        List<Integer> removedProxied = new ArrayList<>();
+        for (int port : removed) {
+            if (bound == null || !bound.unbind(port)) {
+                removedProxied.add(port);
+            }
+        }
+        proxyServer.removePorts(removedProxied, drainTimeout);
+
+        int addedCount = added.size();
+        if (!added.isEmpty() && inProcess) {
+            added = bindInProcess(added);
+        }
+        proxyServer.addPorts(added);
+
+        host.log(OmniPort.SUCCESS + "Reloaded with §f" + getActivePorts().size() + "§a ports (§f" + addedCount + "§a added, §f" +
+                 removed.size() + "§a removed)");
+    }
+
+    /**
+     * Get every port served, in-process or proxied
+     */
+    public List<Integer> getActivePorts() {
+        List<Integer> ports = proxyServer.getActivePorts();
+        NettyPortBinder current = binder;
+        if (current != null) {
+            ports.addAll(current.getPorts());
+        }
+        return ports;
+    }
+
+    /**
+     * Get block status for every port served
+     */
+    public Map<Integer, Boolean> getPortBlockStatus() {
+        Map<Integer, Boolean> status = proxyServer.getPortBlockStatus();
+        NettyPortBinder current = binder;
+        if (current != null) {
+            for (int port : current.getPorts()) {
+                status.put(port, current.isBlocked(port));
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Block or unblock a port
+     * @return true if successful, false if the port is not served or could not be bound again
+     */
+    public boolean setPortBlocked(int port, boolean blocked) {
+        NettyPortBinder current = binder;
+        if (current != null && current.isBound(port)) {
+            try {
+                current.setBlocked(port, blocked);
+            } catch (IOException e) {
+                host.log(OmniPort.ERROR + "Could not bind port " + port + " again: " + e.getMessage());
+                return false;
+            }
+            host.log((blocked ? OmniPort.WARNING : OmniPort.SUCCESS) + "Port " + port + " is now " + (blocked ? "§c§lblocked" : "§a§lunblocked"));
+            return true;
+        }
+        return proxyServer.setPortBlocked(port, blocked);
+    }
+
+    /**
+     * Check if a port is blocked
+     */
+    public boolean isPortBlocked(int port) {
+        NettyPortBinder current = binder;
+        if (current != null && current.isBound(port)) {
+            return current.isBlocked(port);
+        }
+        return proxyServer.isPortBlocked(port);
+    }
+
+    /**
+     * Check if a port is served by the server's own listener rather than the proxy
+     */
+    public boolean isInProcessPort(int port) {
+        NettyPortBinder current = binder;
+        return current != null && current.isBound(port);
+    }
+
+    /**
+     * Close every port bound on the server's listener, the proxy is stopped separately
+     */
+    public void shutdown() {
+        NettyPortBinder current = binder;
+        if (current != null) {
+            current.shutdown();
+        }
+    }
+
+    /**
+     * Bind ports on the server's listener
+     * @return the ports that could not be bound this way and need the proxy
+     */
+    private List<Integer> bindInProcess(List<Integer> ports) {
+        // Looking the listener up again would lose track of the ports already bound on it
+        if (binder == null) {
+            try {
+                binder = binderFactory.create();
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                host.log(OmniPort.WARNING + "Server listener not accessible, proxying all ports: " + e.getMessage());
+                return ports;
+            }
+        }
+
+        List<Integer> bound = new ArrayList<>();
+        List<Integer> proxied = new ArrayList<>();
+        for (int port : ports) {
+            try {
+                binder.bind(port);
+                bound.add(port);
+            } catch (IOException e) {
+                host.log(OmniPort.WARNING + "Could not bind port " + port + " in-process, proxying it instead: " + e.getMessage());
+                proxied.add(port);
+            }
+        }
+        if (!bound.isEmpty()) {
+            host.log(OmniPort.SUCCESS + "Bound ports §f" + PortSet.describe(bound) + "§a on the server's own listener");
+        }
+        return proxied;
+    }
+}
@@ -0,0 +1,185 @@
+package me.threefour.omniport;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Set of port numbers kept as a fixed 8 KiB bitmap, one bit per port.
+ * Lookups are a single array read with no boxing, so the accept path can check it for every connection,
+ * and updates are lock-free.
+ */
+public final class PortSet {
+    private static final int MAX_PORT = 65535;
+
+    private final AtomicLongArray words = new AtomicLongArray((MAX_PORT >> 6) + 1);
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    /**
+     * Add a port
+     * @return true if the port was not in the set yet
+     */
+    public boolean add(int port) {
+        checkPort(port);
+        long bit = 1L << port;
+        int index = port >>> 6;
+        long word;
+        do {
+            word = words.get(index);
+            if ((word & bit) != 0) {
+                return false;
+            }
+        } while (!words.compareAndSet(index, word, word | bit));
+        size.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Remove a port
+     * @return true if the port was in the set
+     */
+    public boolean remove(int port) {
+        if (port < 0 || port > MAX_PORT) {
+            return false;
+        }
+        long bit = 1L << port;
+        int index = port >>> 6;
+        long word;
+        do {
+            word = words.get(index);
+            if ((word & bit) == 0) {
+                return false;
+            }
+        } while (!words.compareAndSet(index, word, word & ~bit));
+        size.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Check whether a port is in the set
+     */
+    public boolean contains(int port) {
+        return port >= 0 && port <= MAX_PORT && (words.get(port >>> 6) & 1L << port) != 0;
+    }
+
+    /**
+     * Get the number of ports in the set
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Check whether the set has no ports
+     */
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    /**
+     * Remove every port
+     */
+    public void clear() {
+        for (int i = 0; i < words.length(); i++) {
+            long word = words.getAndSet(i, 0);
+            size.addAndGet(-Long.bitCount(word));
+        }
+    }
+
+    /**
+     * Get the ports in ascending order
+     */
+    public List<Integer> toList() {
+        List<Integer> ports = new ArrayList<>(size());
+        for (int i = 0; i < words.length(); i++) {
+            long word = words.get(i);
+            while (word != 0) {
+                ports.add(i << 6 | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return ports;
+    }
+
+    @Override
+    public String toString() {
+        return describe(toList());
+    }
+
+    /**
+     * Read a port list from the config, where each entry is a port or an inclusive range like "30000-30500"
+     * @param entries the raw config entries
+     * @param invalid called with every entry that is not a valid port or range
+     * @return the distinct ports in the order they were listed
+     */
+    public static List<Integer> parse(Collection<?> entries, Consumer<String> invalid) {
+        PortSet seen = new PortSet();
+        List<Integer> ports = new ArrayList<>();
+        for (Object entry : entries) {
+            String text = String.valueOf(entry).trim();
+            int dash = text.indexOf('-', 1);
+            int first;
+            int last;
+            try {
+                first = Integer.parseInt((dash < 0 ? text : text.substring(0, dash)).trim());
+                last = dash < 0 ? first : Integer.parseInt(text.substring(dash + 1).trim());
+            } catch (NumberFormatException e) {
+                invalid.accept(text);
+                continue;
+            }
+            if (first < 1 || last > MAX_PORT || first > last) {
+                invalid.accept(text);
+                continue;
+            }
+            for (int port = first; port <= last; port++) {
+                if (seen.add(port)) {
+                    ports.add(port);
+                }
+            }
+        }
+        return ports;
+    }
+
+    /**
+     * Describe ports for the console with consecutive runs collapsed, e.g. "25566, 30000-30500"
+     */
+    public static String describe(Collection<Integer> ports) {
+        return describe(ports, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Describe ports for the console with consecutive runs collapsed, listing at most maxRanges runs
+     * and counting the ports left out, e.g. "25566, 30000-30500 and 12 more"
+     */
+    public static String describe(Collection<Integer> ports, int maxRanges) {
+        int[] sorted = ports.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+        StringBuilder out = new StringBuilder();
+        int ranges = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (ranges++ == maxRanges) {
+                return out.append(" and ").append(sorted.length - i).append(" more").toString();
+            }
+            int start = sorted[i];
+            while (i + 1 < sorted.length && sorted[i + 1] == sorted[i] + 1) {
+                i++;
+            }
+            if (out.length() > 0) {
+                out.append(", ");
+            }
+            out.append(start);
+            if (sorted[i] != start) {
+                out.append('-').append(sorted[i]);
+            }
+        }
+        return out.toString();
+    }
+
+    private static void checkPort(int port) {
+        if (port < 0 || port > MAX_PORT) {
+            throw new IllegalArgumentException("Port out of range: " + port);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package me.threefour.omniport;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Traffic and connection counters for a single port.
+ * All counters are striped adders, so the forwarding threads never contend on them.
+ */
+public class PortStats {
+    private final int port;
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public PortStats(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Count bytes received from clients on this port
+     */
+    public void addBytesIn(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    /**
+     * Count bytes sent back to clients on this port
+     */
+    public void addBytesOut(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    /**
+     * Count a connection that was admitted
+     */
+    public void connectionAccepted() {
+        accepted.increment();
+    }
+
+    /**
+     * Count a connection that was turned away (blocked port, rate limit, connection limit, backends down, workers busy)
+     */
+    public void connectionRejected() {
+        rejected.increment();
+    }
+
+    /**
+     * Count an admitted connection that could not reach the backend
+     */
+    public void connectionFailed() {
+        failed.increment();
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+}
@@ -0,0 +1,60 @@
+package me.threefour.omniport;
+
+/**
+ * What the forwarding engines need from whoever runs them.
+ * Implemented by the plugin, and by stand-ins so the engines can be benchmarked outside a server.
+ */
+public interface ProxyHost {
+
+    /**
+     * Get the port of the server connections are forwarded to
+     */
+    int getMainServerPort();
+
+    /**
+     * Get the backend connect timeout in milliseconds (0 = none)
+     */
+    int getConnectTimeout();
+
+    /**
+     * Get the shared forwarding buffer pool
+     */
+    BufferPool getBufferPool();
+
+    /**
+     * Get the traffic counters and latency histograms
+     */
+    ProxyStats getStats();
+
+    /**
+     * Get the cached server-list response used to answer status pings
+     * @return the cache, or null if pings are always proxied
+     */
+    StatusCache getStatusCache();
+
+    /**
+     * Get the pool of connections to the main server opened ahead of time
+     * @return the pool, or null if every client connects to the backend itself
+     */
+    BackendPool getBackendPool();
+
+    /**
+     * Get the bounded pool the blocking engine forwards traffic on, two workers per connection
+     */
+    WorkerPool getForwardingPool();
+
+    /**
+     * Log a message
+     */
+    void log(String message);
+
+    /**
+     * Log a per-connection event
+     */
+    void logConnectionEvent(String message);
+
+    /**
+     * Stop tracking a connection once it has closed
+     */
+    void removeConnection(long id);
+}
@@ -0,0 +1,834 @@
+package me.threefour.omniport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The TCP side of OmniPort: accept loops, admission checks, connection tracking and the forwarding engines.
+ * Has no Bukkit dependencies, so the same code runs inside the plugin and in the standalone stress test.
+ */
+public class ProxyServer implements ProxyHost {
+    // Swapped as a whole on reload, so a reader never sees half of the old and half of the new values
+    private volatile ProxySettings settings;
+    private final BufferPool bufferPool;
+    private final LogPipeline logPipeline;
+    private final Logger logger;
+    private final SocketAddress backendAddress;
+    private final ProxyStats stats = new ProxyStats();
+    private final Map<Integer, List<ServerSocketChannel>> listeners = new ConcurrentHashMap<>();
+    private final PortSet activePorts = new PortSet();
+    private final PortSet blockedPorts = new PortSet();
+    private final ConnectionRegistry connections = new ConnectionRegistry();
+    private final AtomicInteger currentConnections = new AtomicInteger(0);
+    private WorkerPool handshakePool;
+    private WorkerPool forwardingPool;
+    private AcceptorGroup acceptorGroup;
+    private NioProxyEngine nioEngine;
+    private HostnameResolver hostnameResolver;
+    private StatusCache statusCache;
+    private BackendPool backendPool;
+    private volatile RateLimiter rateLimiter;
+    private TimeoutWheel timeoutWheel;
+    private BackendRouter router;
+    private int acceptors;
+    private volatile boolean isRunning = false;
+
+    /**
+     * @param settings the settings to run with
+     * @param bufferPool pool the forwarding buffers are borrowed from
+     * @param logPipeline pipeline console output is written through
+     * @param logger logger for stack traces
+     */
+    public ProxyServer(ProxySettings settings, BufferPool bufferPool, LogPipeline logPipeline, Logger logger) {
+        this.settings = settings;
+        this.bufferPool = bufferPool;
+        this.logPipeline = logPipeline;
+        this.logger = logger;
+        this.backendAddress = settings.getBackendSocket() != null
+            ? UnixDomainSocketAddress.of(settings.getBackendSocket())
+            : new InetSocketAddress("127.0.0.1", settings.getMainServerPort());
+    }
+
+    /**
+     * Create the proxy threads and engine, then bind every port and start accepting connections
+     * @param ports the ports to listen on
+     */
+    public void start(List<Integer> ports) {
+        // Resolve client hostnames in the background if enabled
+        if (settings.isResolveHostnames()) {
+            hostnameResolver = new HostnameResolver(settings.getDnsCacheTtl(), settings.getDnsCacheSize());
+            log(OmniPort.INFO + "Resolving client hostnames in the background");
+        }
+
+        // Answer server-list pings from a cached response if enabled
+        if (settings.isStatusCache()) {
+            statusCache = new StatusCache(this, backendAddress, settings.getStatusRefreshInterval());
+            statusCache.start();
+            log(OmniPort.INFO + "Answering status pings from a cache refreshed every §f" + settings.getStatusRefreshInterval() + "ms");
+        }
+
+        // Limit how fast a single address or subnet may open connections if enabled
+        rateLimiter = createRateLimiter(settings);
+
+        // Enforce handshake, idle and session timeouts for every connection from one thread
+        timeoutWheel = new TimeoutWheel(this::getSettings);
+        timeoutWheel.start();
+
+        // Keep connections to the main server ready for new clients if enabled
+        if (settings.isBackendPool()) {
+            backendPool = new BackendPool(this, backendAddress, settings.getBackendPoolMinSize(),
+                                          settings.getBackendPoolMaxSize(), settings.getBackendPoolIdleTimeout());
+            backendPool.start();
+            log(OmniPort.INFO + "Keeping up to §f" + settings.getBackendPoolMaxSize() + "§b backend connections ready");
+        }
+
+        // Pick a backend for every connection, skipping backends that are down if health checks are enabled
+        Backend main = new Backend(Routing.MAIN, backendAddress, 1, createHealth(Routing.MAIN, backendAddress));
+        router = new BackendRouter(main, settings.getRouting(), spec -> createHealth(spec.getName(), spec.getAddress()));
+        router.start();
+        for (Map.Entry<String, List<Integer>> route : router.getRoutedPorts().entrySet()) {
+            log(OmniPort.INFO + "Routing §f" + PortSet.describe(route.getValue(), 8) + "§b to §f" + router.describe(route.getKey()));
+        }
+
+        if (backendAddress instanceof UnixDomainSocketAddress) {
+            log(OmniPort.INFO + "Forwarding over Unix domain socket §f" + settings.getBackendSocket());
+        }
+
+        // Bounded pools for the blocking engine: one for handshakes and backend connects, one forwarding traffic
+        handshakePool = new WorkerPool("handshake", proxyThreadFactory("OmniPort-Handshake-"),
+                                       settings.getHandshakeWorkers(), settings.getHandshakeQueue());
+        forwardingPool = new WorkerPool("forwarding", proxyThreadFactory("OmniPort-Forward-"), forwardingWorkers(settings), 0);
+        if (settings.isVirtualThreads()) {
+            log(OmniPort.INFO + "Running proxy threads on §fvirtual threads");
+        }
+
+        // Start the non-blocking engine if selected
+        if ("nio".equalsIgnoreCase(settings.getEngine())) {
+            try {
+                nioEngine = new NioProxyEngine(this, settings.getReactorThreads());
+                nioEngine.start();
+                log(OmniPort.INFO + "Using §fnio§b proxy engine with §f" + nioEngine.getReactorCount() + "§b reactor threads");
+            } catch (IOException e) {
+                logError("Could not start nio proxy engine, falling back to blocking engine", e);
+                nioEngine = null;
+            }
+        } else {
+            log(OmniPort.INFO + "Using §fblocking§b proxy engine");
+        }
+
+        // Open several listeners per port if asked, the kernel spreads new connections across them
+        acceptors = settings.getAcceptors() > 0 ? settings.getAcceptors() : Runtime.getRuntime().availableProcessors();
+        if (acceptors > 1) {
+            if (isReusePortSupported()) {
+                log(OmniPort.INFO + "Accepting on §f" + acceptors + "§b threads, each with its own SO_REUSEPORT listener per port");
+            } else {
+                log(OmniPort.WARNING + "SO_REUSEPORT is not supported on this platform, using one listener per port");
+                acceptors = 1;
+            }
+        }
+
+        // Every listener is served by one of the acceptor threads, one per listener of a port
+        try {
+            acceptorGroup = new AcceptorGroup(this, acceptors, new AcceptorGroup.Handler() {
+                @Override
+                public void accepted(SocketChannel client, int port, PortStats portStats) throws IOException {
+                    admit(client, port, portStats);
+                }
+
+                @Override
+                public void acceptFailed(int port, IOException e) {
+                    logWarning("Error accepting client connection on port " + port, e);
+                }
+            });
+        } catch (IOException e) {
+            logError("Could not open acceptor selectors", e);
+            return;
+        }
+
+        // Start servers on each port
+        isRunning = true;
+        acceptorGroup.start();
+        addPorts(ports);
+    }
+
+    /**
+     * Bind ports in parallel and start accepting on them, ports already listening are skipped
+     * @param ports the ports to add
+     * @return the ports that were bound
+     */
+    public List<Integer> addPorts(Collection<Integer> ports) {
+        List<Integer> added = new ArrayList<>();
+        if (!isRunning) {
+            return added;
+        }
+        List<Integer> pending = new ArrayList<>();
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (int port : ports) {
+            if (!activePorts.contains(port)) {
+                pending.add(port);
+                tasks.add(() -> bindPort(port));
+            }
+        }
+        // A few short-lived threads bind them, however many ports there are
+        int binders = Math.max(1, Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+        try (ExecutorService executor = Executors.newFixedThreadPool(binders, Thread.ofPlatform().name("OmniPort-Bind-", 0).factory())) {
+            List<Future<Boolean>> results = executor.invokeAll(tasks);
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i).get()) {
+                    added.add(pending.get(i));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logError("Could not start servers", e);
+        }
+
+        // Logged once as ranges so hundreds of ports do not flood the console
+        if (!added.isEmpty()) {
+            log(OmniPort.SUCCESS + "Server started on " + (added.size() == 1 ? "port" : added.size() + " ports") +
+                ": §f" + PortSet.describe(added, 32) + "§a (forwarding to §f" + describeBackend(backendAddress) + "§a)");
+        }
+        return added;
+    }
+
+    /**
+     * Open a port's listeners and register them with the acceptors
+     * @return true if the port is now accepting
+     */
+    private boolean bindPort(int port) {
+        List<ServerSocketChannel> opened = new ArrayList<>();
+        try {
+            for (int i = 0; i < acceptors; i++) {
+                opened.add(openListener(port, acceptors > 1));
+            }
+            PortStats portStats = stats.port(port);
+            for (int i = 0; i < opened.size(); i++) {
+                acceptorGroup.register(opened.get(i), port, portStats, i);
+            }
+        } catch (IOException e) {
+            logError("Could not start server on port " + port, e);
+            for (ServerSocketChannel listener : opened) {
+                closeQuietly(listener);
+            }
+            return false;
+        }
+        listeners.put(port, opened);
+        activePorts.add(port);
+        return true;
+    }
+
+    /**
+     * Stop accepting on ports right away and let the connections already on them finish.
+     * Whatever is still open on a removed port when the drain timeout runs out is closed.
+     * @param ports the ports to remove
+     * @param drainTimeout how long open connections may keep going, in milliseconds (0 = close them now)
+     * @return the ports that were removed
+     */
+    public List<Integer> removePorts(Collection<Integer> ports, long drainTimeout) {
+        List<Integer> removed = new ArrayList<>();
+        for (int port : ports) {
+            List<ServerSocketChannel> closing = listeners.remove(port);
+            if (closing == null) {
+                continue;
+            }
+            activePorts.remove(port);
+            blockedPorts.remove(port);
+            for (ServerSocketChannel listener : closing) {
+                closeQuietly(listener);
+            }
+            removed.add(port);
+        }
+        if (removed.isEmpty()) {
+            return removed;
+        }
+
+        long draining = 0;
+        for (int port : removed) {
+            draining += connections.size(port);
+        }
+        log(OmniPort.INFO + "Stopped accepting on " + (removed.size() == 1 ? "port" : "ports") + " §f" +
+            PortSet.describe(removed, 32) + "§b, §f" + draining + "§b connections draining");
+        if (draining > 0) {
+            long removedAt = System.nanoTime();
+            Executor deadline = CompletableFuture.delayedExecutor(Math.max(0, drainTimeout), TimeUnit.MILLISECONDS);
+            deadline.execute(() -> closeDrained(removed, removedAt));
+        }
+        return removed;
+    }
+
+    /**
+     * Close the connections still open on removed ports, unless the port has been added back since
+     */
+    private void closeDrained(List<Integer> ports, long removedAt) {
+        int[] closed = {0};
+        for (int port : ports) {
+            if (activePorts.contains(port)) {
+                continue;
+            }
+            connections.forEach(port, info -> {
+                if (info.getConnectNanos() - removedAt <= 0) {
+                    info.close();
+                    closed[0]++;
+                }
+            });
+        }
+        if (closed[0] > 0) {
+            log(OmniPort.WARNING + "Closed §f" + closed[0] + "§e connections still open on removed ports after the drain timeout");
+        }
+    }
+
+    /**
+     * Swap in reloaded settings without pausing traffic. Timeouts, the connection limit, logging and
+     * rate limits apply at once; engine, thread, listener and backend settings only apply after a restart.
+     * @param updated the reloaded settings, with the same main server port
+     */
+    public void updateSettings(ProxySettings updated) {
+        ProxySettings previous = settings;
+        List<String> restart = new ArrayList<>();
+        restartNeeded(restart, "engine", !previous.getEngine().equalsIgnoreCase(updated.getEngine()));
+        restartNeeded(restart, "reactor-threads", previous.getReactorThreads() != updated.getReactorThreads());
+        restartNeeded(restart, "virtual-threads", previous.isVirtualThreads() != updated.isVirtualThreads());
+        restartNeeded(restart, "acceptors", previous.getAcceptors() != updated.getAcceptors());
+        restartNeeded(restart, "accept-backlog", previous.getAcceptBacklog() != updated.getAcceptBacklog());
+        restartNeeded(restart, "backend-socket", !Objects.equals(previous.getBackendSocket(), updated.getBackendSocket()));
+        restartNeeded(restart, "backend-pool", previous.isBackendPool() != updated.isBackendPool());
+        restartNeeded(restart, "backend-health", previous.isBackendHealth() != updated.isBackendHealth()
+            || previous.getBackendHealthInterval() != updated.getBackendHealthInterval()
+            || previous.getBackendHealthFailureThreshold() != updated.getBackendHealthFailureThreshold()
+            || previous.getBackendHealthRecoveryThreshold() != updated.getBackendHealthRecoveryThreshold());
+        restartNeeded(restart, "workers.handshake-queue", previous.getHandshakeQueue() != updated.getHandshakeQueue());
+        restartNeeded(restart, "routing", !previous.getRouting().equals(updated.getRouting()));
+        restartNeeded(restart, "status-cache", previous.isStatusCache() != updated.isStatusCache());
+        restartNeeded(restart, "dns", previous.isResolveHostnames() != updated.isResolveHostnames());
+
+        settings = updated;
+        if (handshakePool != null) {
+            handshakePool.setMaxThreads(updated.getHandshakeWorkers());
+            forwardingPool.setMaxThreads(forwardingWorkers(updated));
+        }
+        if (rateLimitChanged(previous, updated)) {
+            rateLimiter = createRateLimiter(updated);
+        }
+        log(OmniPort.INFO + "Connection timeout: §f" + updated.getConnectionTimeout() + "ms§b, Max connections: §f" + updated.getMaxConnections());
+        if (!restart.isEmpty()) {
+            log(OmniPort.WARNING + "Changes to §f" + String.join(", ", restart) + "§e take effect after a restart");
+        }
+    }
+
+    private static void restartNeeded(List<String> names, String name, boolean changed) {
+        if (changed) {
+            names.add(name);
+        }
+    }
+
+    private static boolean rateLimitChanged(ProxySettings previous, ProxySettings updated) {
+        return previous.isRateLimit() != updated.isRateLimit()
+            || previous.getRateLimitAddressRate() != updated.getRateLimitAddressRate()
+            || previous.getRateLimitAddressBurst() != updated.getRateLimitAddressBurst()
+            || previous.getRateLimitSubnetRate() != updated.getRateLimitSubnetRate()
+            || previous.getRateLimitSubnetBurst() != updated.getRateLimitSubnetBurst()
+            || previous.getRateLimitIpv4Prefix() != updated.getRateLimitIpv4Prefix()
+            || previous.getRateLimitIpv6Prefix() != updated.getRateLimitIpv6Prefix()
+            || previous.getRateLimitTableSize() != updated.getRateLimitTableSize();
+    }
+
+    private ThreadFactory proxyThreadFactory(String prefix) {
+        return settings.isVirtualThreads()
+            ? Thread.ofVirtual().name(prefix, 0).factory()
+            : Thread.ofPlatform().name(prefix, 0).factory();
+    }
+
+    /**
+     * Get the forwarding thread limit, by default enough for both directions of every allowed connection
+     */
+    private static int forwardingWorkers(ProxySettings settings) {
+        if (settings.getForwardingWorkers() > 0) {
+            return settings.getForwardingWorkers();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, 2L * Math.max(1, settings.getMaxConnections()));
+    }
+
+    /**
+     * Create the health prober and circuit breaker of a backend
+     * @return the breaker, or null if backend health checks are disabled
+     */
+    private BackendHealth createHealth(String name, SocketAddress address) {
+        if (!settings.isBackendHealth()) {
+            return null;
+        }
+        return new BackendHealth(this, name, address, settings.getBackendHealthInterval(), this::getConnectTimeout,
+                                 settings.getBackendHealthFailureThreshold(), settings.getBackendHealthRecoveryThreshold());
+    }
+
+    /**
+     * Create the rate limiter the settings ask for
+     * @return the limiter, or null if connection rates are not limited
+     */
+    private RateLimiter createRateLimiter(ProxySettings settings) {
+        if (!settings.isRateLimit()) {
+            return null;
+        }
+        log(OmniPort.INFO + "Limiting each address to §f" + settings.getRateLimitAddressRate() + "§b connections/s (burst §f" +
+            settings.getRateLimitAddressBurst() + "§b), each subnet to §f" + settings.getRateLimitSubnetRate() +
+            "§b connections/s (burst §f" + settings.getRateLimitSubnetBurst() + "§b)");
+        return new RateLimiter(settings.getRateLimitAddressRate(), settings.getRateLimitAddressBurst(),
+                               settings.getRateLimitSubnetRate(), settings.getRateLimitSubnetBurst(),
+                               settings.getRateLimitIpv4Prefix(), settings.getRateLimitIpv6Prefix(),
+                               settings.getRateLimitTableSize());
+    }
+
+    /**
+     * Bind a listener on a port with the configured backlog
+     * @param reusePort whether other listeners share the port through SO_REUSEPORT
+     */
+    private ServerSocketChannel openListener(int port, boolean reusePort) throws IOException {
+        ServerSocketChannel serverSocket = ServerSocketChannel.open();
+        try {
+            if (reusePort) {
+                serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            serverSocket.bind(new InetSocketAddress(port), settings.getAcceptBacklog());
+            return serverSocket;
+        } catch (IOException e) {
+            closeQuietly(serverSocket);
+            throw e;
+        }
+    }
+
+    /**
+     * Check whether listeners on this platform can share a port
+     */
+    private static boolean isReusePortSupported() {
+        try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(ServerSocketChannel serverSocket) {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    /**
+     * Close every listener, the engines and the proxy threads
+     */
+    public void stop() {
+        isRunning = false;
+
+        // Stop accepting before the listeners go away
+        if (acceptorGroup != null) {
+            acceptorGroup.shutdown();
+            acceptorGroup = null;
+        }
+
+        for (List<ServerSocketChannel> portListeners : listeners.values()) {
+            for (ServerSocketChannel serverSocket : portListeners) {
+                try {
+                    serverSocket.close();
+                } catch (IOException e) {
+                    logWarning("Error closing server socket", e);
+                }
+            }
+        }
+
+        listeners.clear();
+        activePorts.clear();
+        blockedPorts.clear();
+        log(OmniPort.INFO + "All OmniPort servers stopped");
+
+        // Stop hostname lookups
+        if (hostnameResolver != null) {
+            hostnameResolver.shutdown();
+            hostnameResolver = null;
+        }
+
+        // Stop refreshing the status response
+        if (statusCache != null) {
+            statusCache.shutdown();
+            statusCache = null;
+        }
+
+        // Stop probing the backends
+        if (router != null) {
+            router.shutdown();
+        }
+
+        // Close the ready backend connections
+        if (backendPool != null) {
+            backendPool.shutdown();
+            backendPool = null;
+        }
+
+        // Stop enforcing timeouts, the engines close what is left
+        if (timeoutWheel != null) {
+            timeoutWheel.shutdown();
+            timeoutWheel = null;
+        }
+
+        // Shutdown the non-blocking engine
+        if (nioEngine != null) {
+            nioEngine.shutdown();
+            nioEngine = null;
+        }
+
+        // Close what is still open so blocked reads return, then interrupt the workers and wait for them, within one deadline
+        connections.forEach(ConnectionInfo::close);
+        if (handshakePool != null) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.getShutdownTimeout());
+            for (WorkerPool pool : new WorkerPool[] {handshakePool, forwardingPool}) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (!pool.shutdown(left)) {
+                    log(OmniPort.WARNING + "Some §f" + pool.getName() + "§e workers were still running after §f" +
+                        settings.getShutdownTimeout() + "ms§e, leaving them behind");
+                }
+            }
+            handshakePool = null;
+            forwardingPool = null;
+        }
+
+        connections.clear();
+    }
+
+    /**
+     * Run the admission checks for a freshly accepted client and hand it to the selected engine
+     */
+    private void admit(SocketChannel clientChannel, int port, PortStats portStats) throws IOException {
+        Socket clientSocket = clientChannel.socket();
+
+        // Check if port is blocked
+        if (blockedPorts.contains(port)) {
+            portStats.connectionRejected();
+            logSummarized(LogPipeline.Event.REJECTED_BLOCKED, port);
+            clientSocket.close();
+            return;
+        }
+
+        // Check the client's rate limits before anything is allocated for it
+        if (rateLimiter != null && !rateLimiter.tryAcquire(clientSocket.getInetAddress())) {
+            portStats.connectionRejected();
+            logSummarized(LogPipeline.Event.REJECTED_RATE, port);
+            clientSocket.close();
+            return;
+        }
+
+        // Pick the backend now, so a client whose backends are all down is refused before a slot or thread is spent on it
+        Backend backend = router.select(port);
+        if (backend == null) {
+            portStats.connectionRejected();
+            logSummarized(LogPipeline.Event.REJECTED_BACKEND_DOWN, port);
+            clientSocket.close();
+            return;
+        }
+
+        // Reserve a connection slot, every port competes for the same limit
+        if (!tryReserveConnection()) {
+            portStats.connectionRejected();
+            logSummarized(LogPipeline.Event.REJECTED_LIMIT, port);
+            clientSocket.close();
+            return;
+        }
+
+        portStats.connectionAccepted();
+
+        // Create connection info, the hostname is filled in later if lookups are enabled
+        ConnectionInfo connectionInfo = new ConnectionInfo(clientSocket.getInetAddress(), port);
+        connectionInfo.setBackend(backend);
+        if (hostnameResolver != null) {
+            hostnameResolver.resolve(connectionInfo);
+        }
+
+        // Track the connection
+        long connectionId = addConnection(connectionInfo);
+        // Scheduled before the engine sees the connection, so it can always be cancelled when the connection closes
+        connectionInfo.setTimeout(timeoutWheel.schedule(connectionInfo));
+
+        if (settings.isLogConnectionEvents()) {
+            log(OmniPort.INFO + "Client connected on port §f" + port + "§b from §f" +
+               clientSocket.getInetAddress() +
+               "§b (Active connections: §f" + currentConnections.get() + "§b)");
+        } else {
+            logSummarized(LogPipeline.Event.ACCEPTED, port);
+        }
+
+        // Handle the client using the selected engine
+        if (nioEngine != null) {
+            nioEngine.register(clientChannel, connectionInfo, connectionId);
+        } else if (!handshakePool.execute(new ClientHandler(clientChannel, connectionInfo, this, connectionId))) {
+            // Every worker is busy and the queue is full, refuse rather than start more threads
+            portStats.connectionRejected();
+            logSummarized(LogPipeline.Event.REJECTED_BUSY, port);
+            clientSocket.close();
+            removeConnection(connectionId);
+        }
+    }
+
+    /**
+     * Take one connection slot if the limit allows it. The check and the increment happen in a single
+     * compare-and-set, so accept loops on different ports can never push the count past the limit.
+     */
+    private boolean tryReserveConnection() {
+        int max = settings.getMaxConnections();
+        int current;
+        do {
+            current = currentConnections.get();
+            if (current >= max) {
+                return false;
+            }
+        } while (!currentConnections.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Describe a backend address for the console, e.g. "port 25565", "10.0.0.2:25565" or "unix:/run/paper.sock"
+     */
+    static String describeBackend(SocketAddress address) {
+        if (address instanceof InetSocketAddress inet) {
+            if (inet.getAddress() != null && inet.getAddress().isLoopbackAddress()) {
+                return "port " + inet.getPort();
+            }
+            return inet.getHostString() + ":" + inet.getPort();
+        }
+        return "unix:" + ((UnixDomainSocketAddress) address).getPath();
+    }
+
+    /**
+     * Get the settings this server runs with
+     */
+    public ProxySettings getSettings() {
+        return settings;
+    }
+
+    @Override
+    public int getMainServerPort() {
+        return settings.getMainServerPort();
+    }
+
+    /**
+     * Get the address of the main server, a loopback port or a Unix domain socket
+     */
+    public SocketAddress getBackendAddress() {
+        return backendAddress;
+    }
+
+    /**
+     * Get the idle timeout in milliseconds (0 = none)
+     */
+    public int getConnectionTimeout() {
+        return settings.getConnectionTimeout();
+    }
+
+    @Override
+    public int getConnectTimeout() {
+        return settings.getConnectTimeout();
+    }
+
+    @Override
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    @Override
+    public ProxyStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public StatusCache getStatusCache() {
+        return statusCache;
+    }
+
+    /**
+     * Get the wheel enforcing connection timeouts
+     * @return the wheel, or null if the server is not running
+     */
+    public TimeoutWheel getTimeoutWheel() {
+        return timeoutWheel;
+    }
+
+    /**
+     * Get the per-address and per-subnet rate limits
+     * @return the limiter, or null if connection rates are not limited
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    @Override
+    public BackendPool getBackendPool() {
+        return backendPool;
+    }
+
+    /**
+     * Get the router that picks a backend for every connection
+     * @return the router, or null if the server has not started
+     */
+    public BackendRouter getRouter() {
+        return router;
+    }
+
+    /**
+     * Get the bounded pool the blocking engine reads handshakes and connects backends on
+     * @return the pool, or null if the server has not started
+     */
+    public WorkerPool getHandshakePool() {
+        return handshakePool;
+    }
+
+    @Override
+    public WorkerPool getForwardingPool() {
+        return forwardingPool;
+    }
+
+    /**
+     * Get the list of active additional ports
+     */
+    public List<Integer> getActivePorts() {
+        return activePorts.toList();
+    }
+
+    /**
+     * Get the open connections, which can be counted and walked by port without copying
+     */
+    public ConnectionRegistry getConnections() {
+        return connections;
+    }
+
+    /**
+     * Get block status for all ports
+     */
+    public Map<Integer, Boolean> getPortBlockStatus() {
+        Map<Integer, Boolean> status = new TreeMap<>();
+        for (int port : activePorts.toList()) {
+            status.put(port, blockedPorts.contains(port));
+        }
+        return status;
+    }
+
+    /**
+     * Block or unblock a port
+     * @return true if successful, false if port not found
+     */
+    public boolean setPortBlocked(int port, boolean blocked) {
+        if (!activePorts.contains(port)) {
+            return false;
+        }
+
+        if (blocked) {
+            blockedPorts.add(port);
+        } else {
+            blockedPorts.remove(port);
+        }
+        log((blocked ? OmniPort.WARNING : OmniPort.SUCCESS) + "Port " + port + " is now " + (blocked ? "§c§lblocked" : "§a§lunblocked"));
+        return true;
+    }
+
+    /**
+     * Check if a port is blocked
+     */
+    public boolean isPortBlocked(int port) {
+        return blockedPorts.contains(port);
+    }
+
+    /**
+     * Add a client connection to tracking
+     */
+    public long addConnection(ConnectionInfo connectionInfo) {
+        long id = connections.register(connectionInfo);
+        if (connectionInfo.getBackend() != null) {
+            connectionInfo.getBackend().connectionOpened();
+        }
+        return id;
+    }
+
+    @Override
+    public void removeConnection(long id) {
+        ConnectionInfo info = connections.remove(id);
+        if (info != null) {
+            stats.getSessionLength().record(System.nanoTime() - info.getConnectNanos());
+            if (info.getBackend() != null) {
+                info.getBackend().connectionClosed();
+            }
+            TimeoutWheel.Entry timeout = info.getTimeout();
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+        connectionClosed();
+    }
+
+    /**
+     * Called when a client connection is closed
+     */
+    public void connectionClosed() {
+        currentConnections.decrementAndGet();
+    }
+
+    /**
+     * Get the current number of active connections
+     */
+    public int getCurrentConnections() {
+        return currentConnections.get();
+    }
+
+    @Override
+    public void log(String message) {
+        logPipeline.offer(OmniPort.PREFIX + message);
+    }
+
+    @Override
+    public void logConnectionEvent(String message) {
+        if (settings.isLogConnectionEvents()) {
+            log(message);
+        }
+    }
+
+    /**
+     * Count an event on a port, to be reported in the next periodic summary
+     */
+    public void logSummarized(LogPipeline.Event event, int port) {
+        logPipeline.count(event, port);
+    }
+
+    private void logWarning(String message, Exception e) {
+        log(OmniPort.WARNING + message + ": " + e.getMessage());
+        if (settings.isDebug()) {
+            logger.log(Level.WARNING, message, e);
+        }
+    }
+
+    private void logError(String message, Exception e) {
+        log(OmniPort.ERROR + message + ": " + e.getMessage());
+        logger.log(Level.SEVERE, message, e);
+    }
+}
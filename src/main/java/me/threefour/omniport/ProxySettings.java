@@ -0,0 +1,629 @@
+package me.threefour.omniport;
+
+/**
+ * Immutable snapshot of the settings the TCP proxy runs with.
+ * Built from config.yml by the plugin, or directly by the stress test harness.
+ */
+public final class ProxySettings {
+    private final int mainServerPort;
+    private final String backendSocket;
+    private final Routing routing;
+    private final int connectionTimeout;
+    private final int handshakeTimeout;
+    private final long maxSession;
+    private final int connectTimeout;
+    private final int maxConnections;
+    private final String engine;
+    private final int reactorThreads;
+    private final int acceptors;
+    private final int acceptBacklog;
+    private final int handshakeWorkers;
+    private final int handshakeQueue;
+    private final int forwardingWorkers;
+    private final long shutdownTimeout;
+    private final boolean virtualThreads;
+    private final boolean logConnectionEvents;
+    private final boolean resolveHostnames;
+    private final long dnsCacheTtl;
+    private final int dnsCacheSize;
+    private final boolean statusCache;
+    private final long statusRefreshInterval;
+    private final boolean backendPool;
+    private final int backendPoolMinSize;
+    private final int backendPoolMaxSize;
+    private final long backendPoolIdleTimeout;
+    private final boolean backendHealth;
+    private final long backendHealthInterval;
+    private final int backendHealthFailureThreshold;
+    private final int backendHealthRecoveryThreshold;
+    private final boolean rateLimit;
+    private final double rateLimitAddressRate;
+    private final int rateLimitAddressBurst;
+    private final double rateLimitSubnetRate;
+    private final int rateLimitSubnetBurst;
+    private final int rateLimitIpv4Prefix;
+    private final int rateLimitIpv6Prefix;
+    private final int rateLimitTableSize;
+    private final boolean debug;
+
+    private ProxySettings(Builder builder) {
+        this.mainServerPort = builder.mainServerPort;
+        this.backendSocket = builder.backendSocket;
+        this.routing = builder.routing;
+        this.connectionTimeout = builder.connectionTimeout;
+        this.handshakeTimeout = builder.handshakeTimeout;
+        this.maxSession = builder.maxSession;
+        this.connectTimeout = builder.connectTimeout;
+        this.maxConnections = builder.maxConnections;
+        this.engine = builder.engine;
+        this.reactorThreads = builder.reactorThreads;
+        this.acceptors = builder.acceptors;
+        this.acceptBacklog = builder.acceptBacklog;
+        this.handshakeWorkers = builder.handshakeWorkers;
+        this.handshakeQueue = builder.handshakeQueue;
+        this.forwardingWorkers = builder.forwardingWorkers;
+        this.shutdownTimeout = builder.shutdownTimeout;
+        this.virtualThreads = builder.virtualThreads;
+        this.logConnectionEvents = builder.logConnectionEvents;
+        this.resolveHostnames = builder.resolveHostnames;
+        this.dnsCacheTtl = builder.dnsCacheTtl;
+        this.dnsCacheSize = builder.dnsCacheSize;
+        this.statusCache = builder.statusCache;
+        this.statusRefreshInterval = builder.statusRefreshInterval;
+        this.backendPool = builder.backendPool;
+        this.backendPoolMinSize = builder.backendPoolMinSize;
+        this.backendPoolMaxSize = builder.backendPoolMaxSize;
+        this.backendPoolIdleTimeout = builder.backendPoolIdleTimeout;
+        this.backendHealth = builder.backendHealth;
+        this.backendHealthInterval = builder.backendHealthInterval;
+        this.backendHealthFailureThreshold = builder.backendHealthFailureThreshold;
+        this.backendHealthRecoveryThreshold = builder.backendHealthRecoveryThreshold;
+        this.rateLimit = builder.rateLimit;
+        this.rateLimitAddressRate = builder.rateLimitAddressRate;
+        this.rateLimitAddressBurst = builder.rateLimitAddressBurst;
+        this.rateLimitSubnetRate = builder.rateLimitSubnetRate;
+        this.rateLimitSubnetBurst = builder.rateLimitSubnetBurst;
+        this.rateLimitIpv4Prefix = builder.rateLimitIpv4Prefix;
+        this.rateLimitIpv6Prefix = builder.rateLimitIpv6Prefix;
+        this.rateLimitTableSize = builder.rateLimitTableSize;
+        this.debug = builder.debug;
+    }
+
+    /**
+     * Start building settings, pre-filled with the config.yml defaults
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Port of the server connections are forwarded to
+     */
+    public int getMainServerPort() {
+        return mainServerPort;
+    }
+
+    /**
+     * Path of the Unix domain socket connections are forwarded to instead of the main server port
+     * @return the path, or null to forward over loopback TCP
+     */
+    public String getBackendSocket() {
+        return backendSocket;
+    }
+
+    /**
+     * Extra backends, the groups they are balanced in and the ports routed to them
+     */
+    public Routing getRouting() {
+        return routing;
+    }
+
+    /**
+     * How long either direction of a connection may stay silent, in milliseconds (0 = no limit)
+     */
+    public int getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    /**
+     * How long a client may take to send its handshake, in milliseconds (0 = no limit)
+     */
+    public int getHandshakeTimeout() {
+        return handshakeTimeout;
+    }
+
+    /**
+     * Longest a connection may stay open, in milliseconds (0 = no limit)
+     */
+    public long getMaxSession() {
+        return maxSession;
+    }
+
+    /**
+     * How long a connect to the main server may take, in milliseconds (0 = no limit)
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Maximum number of concurrent connections across all ports
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Forwarding engine, "blocking" or "nio"
+     */
+    public String getEngine() {
+        return engine;
+    }
+
+    /**
+     * Number of nio reactor threads (0 = one per core)
+     */
+    public int getReactorThreads() {
+        return reactorThreads;
+    }
+
+    /**
+     * Number of acceptor threads, each with its own SO_REUSEPORT listener on every port (0 = one per core)
+     */
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    /**
+     * Length of each listener's queue of connections waiting to be accepted (0 = JDK default)
+     */
+    public int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    /**
+     * Most threads the blocking engine runs handshakes and backend connects on
+     */
+    public int getHandshakeWorkers() {
+        return handshakeWorkers;
+    }
+
+    /**
+     * Most accepted clients waiting for a handshake worker before new ones are refused
+     */
+    public int getHandshakeQueue() {
+        return handshakeQueue;
+    }
+
+    /**
+     * Most threads the blocking engine forwards traffic on (0 = two per allowed connection)
+     */
+    public int getForwardingWorkers() {
+        return forwardingWorkers;
+    }
+
+    /**
+     * Time to wait for proxy threads to finish when the server stops, in milliseconds
+     */
+    public long getShutdownTimeout() {
+        return shutdownTimeout;
+    }
+
+    /**
+     * Whether accept loops and blocking proxy threads run on virtual threads
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Whether every connect and disconnect is logged individually
+     */
+    public boolean isLogConnectionEvents() {
+        return logConnectionEvents;
+    }
+
+    /**
+     * Whether client hostnames are looked up in the background
+     */
+    public boolean isResolveHostnames() {
+        return resolveHostnames;
+    }
+
+    /**
+     * How long resolved hostnames are cached, in milliseconds
+     */
+    public long getDnsCacheTtl() {
+        return dnsCacheTtl;
+    }
+
+    /**
+     * Maximum number of cached hostnames
+     */
+    public int getDnsCacheSize() {
+        return dnsCacheSize;
+    }
+
+    /**
+     * Whether status pings are answered from a cached copy of the main server's response
+     */
+    public boolean isStatusCache() {
+        return statusCache;
+    }
+
+    /**
+     * How often the cached status response is refreshed, in milliseconds
+     */
+    public long getStatusRefreshInterval() {
+        return statusRefreshInterval;
+    }
+
+    /**
+     * Whether connections to the main server are opened ahead of time
+     */
+    public boolean isBackendPool() {
+        return backendPool;
+    }
+
+    /**
+     * Ready backend connections kept even when nobody is joining
+     */
+    public int getBackendPoolMinSize() {
+        return backendPoolMinSize;
+    }
+
+    /**
+     * Maximum number of ready backend connections
+     */
+    public int getBackendPoolMaxSize() {
+        return backendPoolMaxSize;
+    }
+
+    /**
+     * How long a ready backend connection may wait for a client, in milliseconds
+     */
+    public long getBackendPoolIdleTimeout() {
+        return backendPoolIdleTimeout;
+    }
+
+    /**
+     * Whether the main server is probed and new clients are refused while it is down
+     */
+    public boolean isBackendHealth() {
+        return backendHealth;
+    }
+
+    /**
+     * Time between health probes, in milliseconds
+     */
+    public long getBackendHealthInterval() {
+        return backendHealthInterval;
+    }
+
+    /**
+     * Failed backend connects in a row that mark the main server as down
+     */
+    public int getBackendHealthFailureThreshold() {
+        return backendHealthFailureThreshold;
+    }
+
+    /**
+     * Successful probes in a row that mark the main server as up again
+     */
+    public int getBackendHealthRecoveryThreshold() {
+        return backendHealthRecoveryThreshold;
+    }
+
+    /**
+     * Whether connection rates are limited per address and per subnet
+     */
+    public boolean isRateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * Connections per second a single address may open
+     */
+    public double getRateLimitAddressRate() {
+        return rateLimitAddressRate;
+    }
+
+    /**
+     * Connections a single address may open at once
+     */
+    public int getRateLimitAddressBurst() {
+        return rateLimitAddressBurst;
+    }
+
+    /**
+     * Connections per second a whole subnet may open
+     */
+    public double getRateLimitSubnetRate() {
+        return rateLimitSubnetRate;
+    }
+
+    /**
+     * Connections a whole subnet may open at once
+     */
+    public int getRateLimitSubnetBurst() {
+        return rateLimitSubnetBurst;
+    }
+
+    /**
+     * Prefix length of an IPv4 subnet
+     */
+    public int getRateLimitIpv4Prefix() {
+        return rateLimitIpv4Prefix;
+    }
+
+    /**
+     * Prefix length of an IPv6 subnet
+     */
+    public int getRateLimitIpv6Prefix() {
+        return rateLimitIpv6Prefix;
+    }
+
+    /**
+     * Number of addresses, and of subnets, tracked at once
+     */
+    public int getRateLimitTableSize() {
+        return rateLimitTableSize;
+    }
+
+    /**
+     * Whether stack traces are logged for warnings
+     */
+    public boolean isDebug() {
+        return debug;
+    }
+
+    public static final class Builder {
+        private int mainServerPort = 25565;
+        private String backendSocket = null;
+        private Routing routing = Routing.none();
+        private int connectionTimeout = 30000;
+        private int handshakeTimeout = 5000;
+        private long maxSession = 0;
+        private int connectTimeout = 5000;
+        private int maxConnections = 100;
+        private String engine = "blocking";
+        private int reactorThreads = 0;
+        private int acceptors = 1;
+        private int acceptBacklog = 1024;
+        private int handshakeWorkers = 64;
+        private int handshakeQueue = 1024;
+        private int forwardingWorkers = 0;
+        private long shutdownTimeout = 5000;
+        private boolean virtualThreads = false;
+        private boolean logConnectionEvents = true;
+        private boolean resolveHostnames = false;
+        private long dnsCacheTtl = 300000;
+        private int dnsCacheSize = 1024;
+        private boolean statusCache = false;
+        private long statusRefreshInterval = 5000;
+        private boolean backendPool = false;
+        private int backendPoolMinSize = 2;
+        private int backendPoolMaxSize = 32;
+        private long backendPoolIdleTimeout = 15000;
+        private boolean backendHealth = true;
+        private long backendHealthInterval = 2000;
+        private int backendHealthFailureThreshold = 3;
+        private int backendHealthRecoveryThreshold = 2;
+        private boolean rateLimit = false;
+        private double rateLimitAddressRate = 2.0;
+        private int rateLimitAddressBurst = 5;
+        private double rateLimitSubnetRate = 10.0;
+        private int rateLimitSubnetBurst = 30;
+        private int rateLimitIpv4Prefix = 24;
+        private int rateLimitIpv6Prefix = 64;
+        private int rateLimitTableSize = 16384;
+        private boolean debug = false;
+
+        private Builder() {
+        }
+
+        public Builder mainServerPort(int mainServerPort) {
+            this.mainServerPort = mainServerPort;
+            return this;
+        }
+
+        public Builder backendSocket(String backendSocket) {
+            this.backendSocket = backendSocket == null || backendSocket.isEmpty() ? null : backendSocket;
+            return this;
+        }
+
+        public Builder routing(Routing routing) {
+            this.routing = routing;
+            return this;
+        }
+
+        public Builder connectionTimeout(int connectionTimeout) {
+            this.connectionTimeout = connectionTimeout;
+            return this;
+        }
+
+        public Builder handshakeTimeout(int handshakeTimeout) {
+            this.handshakeTimeout = handshakeTimeout;
+            return this;
+        }
+
+        public Builder maxSession(long maxSession) {
+            this.maxSession = maxSession;
+            return this;
+        }
+
+        public Builder connectTimeout(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        public Builder maxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder engine(String engine) {
+            this.engine = engine;
+            return this;
+        }
+
+        public Builder reactorThreads(int reactorThreads) {
+            this.reactorThreads = reactorThreads;
+            return this;
+        }
+
+        public Builder acceptors(int acceptors) {
+            this.acceptors = acceptors;
+            return this;
+        }
+
+        public Builder acceptBacklog(int acceptBacklog) {
+            this.acceptBacklog = acceptBacklog;
+            return this;
+        }
+
+        public Builder handshakeWorkers(int handshakeWorkers) {
+            this.handshakeWorkers = handshakeWorkers;
+            return this;
+        }
+
+        public Builder handshakeQueue(int handshakeQueue) {
+            this.handshakeQueue = handshakeQueue;
+            return this;
+        }
+
+        public Builder forwardingWorkers(int forwardingWorkers) {
+            this.forwardingWorkers = forwardingWorkers;
+            return this;
+        }
+
+        public Builder shutdownTimeout(long shutdownTimeout) {
+            this.shutdownTimeout = shutdownTimeout;
+            return this;
+        }
+
+        public Builder virtualThreads(boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        public Builder logConnectionEvents(boolean logConnectionEvents) {
+            this.logConnectionEvents = logConnectionEvents;
+            return this;
+        }
+
+        public Builder resolveHostnames(boolean resolveHostnames) {
+            this.resolveHostnames = resolveHostnames;
+            return this;
+        }
+
+        public Builder dnsCacheTtl(long dnsCacheTtl) {
+            this.dnsCacheTtl = dnsCacheTtl;
+            return this;
+        }
+
+        public Builder dnsCacheSize(int dnsCacheSize) {
+            this.dnsCacheSize = dnsCacheSize;
+            return this;
+        }
+
+        public Builder statusCache(boolean statusCache) {
+            this.statusCache = statusCache;
+            return this;
+        }
+
+        public Builder statusRefreshInterval(long statusRefreshInterval) {
+            this.statusRefreshInterval = statusRefreshInterval;
+            return this;
+        }
+
+        public Builder backendPool(boolean backendPool) {
+            this.backendPool = backendPool;
+            return this;
+        }
+
+        public Builder backendPoolMinSize(int backendPoolMinSize) {
+            this.backendPoolMinSize = backendPoolMinSize;
+            return this;
+        }
+
+        public Builder backendPoolMaxSize(int backendPoolMaxSize) {
+            this.backendPoolMaxSize = backendPoolMaxSize;
+            return this;
+        }
+
+        public Builder backendPoolIdleTimeout(long backendPoolIdleTimeout) {
+            this.backendPoolIdleTimeout = backendPoolIdleTimeout;
+            return this;
+        }
+
+        public Builder backendHealth(boolean backendHealth) {
+            this.backendHealth = backendHealth;
+            return this;
+        }
+
+        public Builder backendHealthInterval(long backendHealthInterval) {
+            this.backendHealthInterval = backendHealthInterval;
+            return this;
+        }
+
+        public Builder backendHealthFailureThreshold(int backendHealthFailureThreshold) {
+            this.backendHealthFailureThreshold = backendHealthFailureThreshold;
+            return this;
+        }
+
+        public Builder backendHealthRecoveryThreshold(int backendHealthRecoveryThreshold) {
+            this.backendHealthRecoveryThreshold = backendHealthRecoveryThreshold;
+            return this;
+        }
+
+        public Builder rateLimit(boolean rateLimit) {
+            this.rateLimit = rateLimit;
+            return this;
+        }
+
+        public Builder rateLimitAddressRate(double rateLimitAddressRate) {
+            this.rateLimitAddressRate = rateLimitAddressRate;
+            return this;
+        }
+
+        public Builder rateLimitAddressBurst(int rateLimitAddressBurst) {
+            this.rateLimitAddressBurst = rateLimitAddressBurst;
+            return this;
+        }
+
+        public Builder rateLimitSubnetRate(double rateLimitSubnetRate) {
+            this.rateLimitSubnetRate = rateLimitSubnetRate;
+            return this;
+        }
+
+        public Builder rateLimitSubnetBurst(int rateLimitSubnetBurst) {
+            this.rateLimitSubnetBurst = rateLimitSubnetBurst;
+            return this;
+        }
+
+        public Builder rateLimitIpv4Prefix(int rateLimitIpv4Prefix) {
+            this.rateLimitIpv4Prefix = rateLimitIpv4Prefix;
+            return this;
+        }
+
+        public Builder rateLimitIpv6Prefix(int rateLimitIpv6Prefix) {
+            this.rateLimitIpv6Prefix = rateLimitIpv6Prefix;
+            return this;
+        }
+
+        public Builder rateLimitTableSize(int rateLimitTableSize) {
+            this.rateLimitTableSize = rateLimitTableSize;
+            return this;
+        }
+
+        public Builder debug(boolean debug) {
+            this.debug = debug;
+            return this;
+        }
+
+        public ProxySettings build() {
+            return new ProxySettings(this);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package me.threefour.omniport;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects per-port counters and latency histograms for everything OmniPort forwards
+ */
+public class ProxyStats {
+    /**
+     * Key of the bucket for protocol versions that are not counted on their own
+     */
+    public static final int OTHER_PROTOCOL = -1;
+    // Releases are numbered well below this, anything higher is a snapshot or made up by the client
+    private static final int MAX_PROTOCOL_VERSION = 4095;
+    // Distinct versions counted on their own, each one is a metrics series
+    private static final int MAX_PROTOCOL_VERSIONS = 64;
+
+    private final Map<Integer, PortStats> ports = new ConcurrentHashMap<>();
+    private final LatencyHistogram backendConnect = new LatencyHistogram();
+    private final LatencyHistogram firstByte = new LatencyHistogram();
+    private final LatencyHistogram sessionLength = new LatencyHistogram();
+    private final Map<MinecraftHandshake.Intent, LongAdder> intents = new EnumMap<>(MinecraftHandshake.Intent.class);
+    private final Map<Integer, LongAdder> protocolVersions = new ConcurrentHashMap<>();
+    private final LongAdder malformedHandshakes = new LongAdder();
+
+    public ProxyStats() {
+        // Filled once up front, so concurrent readers only ever see the adders change
+        for (MinecraftHandshake.Intent intent : MinecraftHandshake.Intent.values()) {
+            intents.put(intent, new LongAdder());
+        }
+    }
+
+    /**
+     * Get the counters for a port, creating them on first use
+     */
+    public PortStats port(int port) {
+        PortStats stats = ports.get(port);
+        if (stats == null) {
+            stats = ports.computeIfAbsent(port, PortStats::new);
+        }
+        return stats;
+    }
+
+    /**
+     * Get the counters of every port seen so far
+     */
+    public Map<Integer, PortStats> getPorts() {
+        return Collections.unmodifiableMap(ports);
+    }
+
+    /**
+     * Time taken to connect to the backend server
+     */
+    public LatencyHistogram getBackendConnect() {
+        return backendConnect;
+    }
+
+    /**
+     * Time from accepting a client until the backend's first byte reaches it
+     */
+    public LatencyHistogram getFirstByte() {
+        return firstByte;
+    }
+
+    /**
+     * Total length of finished sessions
+     */
+    public LatencyHistogram getSessionLength() {
+        return sessionLength;
+    }
+
+    /**
+     * Count a handshake by intent and protocol version
+     */
+    public void recordHandshake(MinecraftHandshake handshake) {
+        intents.get(handshake.getIntent()).increment();
+        if (handshake.getIntent() == MinecraftHandshake.Intent.LEGACY_PING) {
+            return;
+        }
+        int version = handshake.getProtocolVersion();
+        LongAdder counter = protocolVersions.get(version);
+        if (counter == null) {
+            counter = newProtocolCounter(version);
+        }
+        counter.increment();
+    }
+
+    /**
+     * Start counting a protocol version, or hand back the shared bucket once it is implausible or the table is full.
+     * Clients pick the version they send, so without the cap anyone could grow the table and the metrics without end.
+     */
+    private LongAdder newProtocolCounter(int version) {
+        if (version < 0 || version > MAX_PROTOCOL_VERSION || protocolVersions.size() >= MAX_PROTOCOL_VERSIONS) {
+            return protocolVersions.computeIfAbsent(OTHER_PROTOCOL, v -> new LongAdder());
+        }
+        // Rare, at most once per counted version, and keeps the size check and the insert together
+        synchronized (protocolVersions) {
+            if (protocolVersions.size() >= MAX_PROTOCOL_VERSIONS && !protocolVersions.containsKey(version)) {
+                return protocolVersions.computeIfAbsent(OTHER_PROTOCOL, v -> new LongAdder());
+            }
+            return protocolVersions.computeIfAbsent(version, v -> new LongAdder());
+        }
+    }
+
+    /**
+     * Count a connection whose first bytes were not a valid handshake
+     */
+    public void handshakeMalformed() {
+        malformedHandshakes.increment();
+    }
+
+    /**
+     * Get the number of handshakes seen with an intent
+     */
+    public long getHandshakes(MinecraftHandshake.Intent intent) {
+        return intents.get(intent).sum();
+    }
+
+    /**
+     * Get the number of handshakes seen per protocol version, with {@link #OTHER_PROTOCOL} counting
+     * implausible versions and any beyond the first few dozen
+     */
+    public Map<Integer, LongAdder> getProtocolVersions() {
+        return Collections.unmodifiableMap(protocolVersions);
+    }
+
+    /**
+     * Get the number of connections that did not start with a valid handshake
+     */
+    public long getMalformedHandshakes() {
+        return malformedHandshakes.sum();
+    }
+}
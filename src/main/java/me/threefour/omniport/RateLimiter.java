@@ -0,0 +1,107 @@
+package me.threefour.omniport;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-address and per-subnet connection rate limits, checked by the accept loops before anything is
+ * allocated for a client. Both limits are token buckets in fixed-size lock-free tables, so a flood from
+ * many different addresses costs no extra memory and never blocks the accept threads on each other.
+ */
+public class RateLimiter {
+    private final TokenBucketTable addresses;
+    private final TokenBucketTable subnets;
+    private final int ipv4Prefix;
+    private final int ipv6Prefix;
+    private final long startNanos = System.nanoTime();
+    private final LongAdder addressRejected = new LongAdder();
+    private final LongAdder subnetRejected = new LongAdder();
+
+    /**
+     * Slowest refill rate, one connection every 1000 seconds. Anything slower would push a bucket's
+     * full-at time past what its 48 bits of timestamp can hold.
+     */
+    public static final double MIN_RATE = 0.001;
+
+    /**
+     * @param addressRate connections per second a single address may open
+     * @param addressBurst connections a single address may open at once
+     * @param subnetRate connections per second a whole subnet may open
+     * @param subnetBurst connections a whole subnet may open at once
+     * @param ipv4Prefix prefix length of an IPv4 subnet
+     * @param ipv6Prefix prefix length of an IPv6 subnet
+     * @param tableSize number of addresses, and of subnets, tracked at once
+     */
+    public RateLimiter(double addressRate, int addressBurst, double subnetRate, int subnetBurst,
+                       int ipv4Prefix, int ipv6Prefix, int tableSize) {
+        this.addresses = new TokenBucketTable(tableSize, clampRate(addressRate), addressBurst);
+        this.subnets = new TokenBucketTable(tableSize, clampRate(subnetRate), subnetBurst);
+        this.ipv4Prefix = Math.max(0, Math.min(32, ipv4Prefix));
+        this.ipv6Prefix = Math.max(0, Math.min(128, ipv6Prefix));
+    }
+
+    /**
+     * Take a connection from the client's address and subnet budgets
+     * @param address the client's address
+     * @return true if the connection may proceed
+     */
+    public boolean tryAcquire(InetAddress address) {
+        long now = (System.nanoTime() - startNanos) / 1000 + 1;
+        byte[] bytes = address.getAddress();
+        if (!addresses.tryAcquire(key(bytes, bytes.length * 8), now)) {
+            addressRejected.increment();
+            return false;
+        }
+        if (!subnets.tryAcquire(key(bytes, bytes.length == 4 ? ipv4Prefix : ipv6Prefix), now)) {
+            subnetRejected.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of connections rejected over a single address's limit
+     */
+    public long getAddressRejected() {
+        return addressRejected.sum();
+    }
+
+    /**
+     * Get the number of connections rejected over a subnet's limit
+     */
+    public long getSubnetRejected() {
+        return subnetRejected.sum();
+    }
+
+    /**
+     * Get the number of tracked addresses and subnets replaced by new ones
+     */
+    public long getEvictions() {
+        return addresses.getEvictions() + subnets.getEvictions();
+    }
+
+    /**
+     * Fold the first prefix bits of an address into a key, tagged with the address family and prefix length
+     */
+    private static long key(byte[] address, int prefix) {
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < address.length; i++) {
+            int keep = prefix - i * 8;
+            int b = keep >= 8 ? address[i] & 0xFF : keep <= 0 ? 0 : address[i] & (0xFF << (8 - keep)) & 0xFF;
+            if (i < 8) {
+                high = high << 8 | b;
+            } else {
+                low = low << 8 | b;
+            }
+        }
+        return high ^ Long.rotateLeft(low, 31) ^ ((long) address.length << 56) ^ ((long) prefix << 48);
+    }
+
+    /**
+     * Keep a rate at or above {@link #MIN_RATE}, zero, negative and NaN rates included
+     */
+    static double clampRate(double rate) {
+        return rate >= MIN_RATE ? rate : MIN_RATE;
+    }
+}
@@ -0,0 +1,288 @@
+package me.threefour.omniport;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Immutable description of the servers OmniPort forwards to besides the main server, the groups they are
+ * balanced in and which ports go where. Ports without a route go to the main server, which is always
+ * available under the name "main".
+ */
+public final class Routing {
+    public static final String MAIN = "main";
+
+    /**
+     * How a group picks a member for each new connection
+     */
+    public enum Balance {
+        // Members take turns in proportion to their weight
+        WEIGHTED("weighted"),
+        // The member with the fewest active connections per unit of weight
+        LEAST_CONNECTIONS("least-connections");
+
+        private final String label;
+
+        Balance(String label) {
+            this.label = label;
+        }
+
+        /**
+         * Name used in config.yml
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Look up a strategy by its config name
+         * @return the strategy, or null if the name is unknown
+         */
+        public static Balance fromLabel(String label) {
+            for (Balance balance : values()) {
+                if (balance.label.equalsIgnoreCase(label)) {
+                    return balance;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final Routing NONE = new Routing(Map.of(), Map.of(), Map.of());
+
+    private final Map<String, BackendSpec> backends;
+    private final Map<String, GroupSpec> groups;
+    private final Map<Integer, String> routes;
+
+    private Routing(Map<String, BackendSpec> backends, Map<String, GroupSpec> groups, Map<Integer, String> routes) {
+        this.backends = Collections.unmodifiableMap(backends);
+        this.groups = Collections.unmodifiableMap(groups);
+        this.routes = Collections.unmodifiableMap(routes);
+    }
+
+    /**
+     * Routing that sends every port to the main server
+     */
+    public static Routing none() {
+        return NONE;
+    }
+
+    /**
+     * Start describing backends, groups and routes
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Get the extra backends by name, in the order they were defined
+     */
+    public Map<String, BackendSpec> getBackends() {
+        return backends;
+    }
+
+    /**
+     * Get the backend groups by name, in the order they were defined
+     */
+    public Map<String, GroupSpec> getGroups() {
+        return groups;
+    }
+
+    /**
+     * Get the backend or group name each routed port forwards to
+     */
+    public Map<Integer, String> getRoutes() {
+        return routes;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Routing routing && backends.equals(routing.backends)
+            && groups.equals(routing.groups) && routes.equals(routing.routes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(backends, groups, routes);
+    }
+
+    /**
+     * Read a backend address from the config: "host:port", a bare port on loopback or "unix:/path/to/socket"
+     * @throws IllegalArgumentException if the address cannot be read
+     */
+    public static SocketAddress parseAddress(String text) {
+        String value = text.trim();
+        if (value.startsWith("unix:")) {
+            return UnixDomainSocketAddress.of(value.substring("unix:".length()));
+        }
+        int colon = value.lastIndexOf(':');
+        String host = colon < 0 ? "127.0.0.1" : value.substring(0, colon);
+        int port;
+        try {
+            port = Integer.parseInt(colon < 0 ? value : value.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("not a host:port address: " + text);
+        }
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException("port out of range: " + text);
+        }
+        // IPv6 literals are written as [::1]:25565
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        return new InetSocketAddress(host, port);
+    }
+
+    /**
+     * A server connections can be forwarded to
+     */
+    public static final class BackendSpec {
+        private final String name;
+        private final SocketAddress address;
+        private final int weight;
+
+        BackendSpec(String name, SocketAddress address, int weight) {
+            this.name = name;
+            this.address = address;
+            this.weight = weight;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public SocketAddress getAddress() {
+            return address;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof BackendSpec spec && name.equals(spec.name)
+                && address.equals(spec.address) && weight == spec.weight;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, address, weight);
+        }
+    }
+
+    /**
+     * Backends that share the connections of the ports routed to the group
+     */
+    public static final class GroupSpec {
+        private final String name;
+        private final Balance balance;
+        private final List<String> members;
+
+        GroupSpec(String name, Balance balance, List<String> members) {
+            this.name = name;
+            this.balance = balance;
+            this.members = List.copyOf(members);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Balance getBalance() {
+            return balance;
+        }
+
+        public List<String> getMembers() {
+            return members;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof GroupSpec spec && name.equals(spec.name)
+                && balance == spec.balance && members.equals(spec.members);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, balance, members);
+        }
+    }
+
+    public static final class Builder {
+        private final Map<String, BackendSpec> backends = new LinkedHashMap<>();
+        private final Map<String, GroupSpec> groups = new LinkedHashMap<>();
+        private final Map<Integer, String> routes = new LinkedHashMap<>();
+        private final List<String> problems = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        public Builder backend(String name, SocketAddress address, int weight) {
+            if (MAIN.equals(name) || backends.containsKey(name)) {
+                problems.add("backend name §f" + name + "§e is already taken");
+            } else {
+                backends.put(name, new BackendSpec(name, address, Math.max(1, weight)));
+            }
+            return this;
+        }
+
+        public Builder group(String name, Balance balance, List<String> members) {
+            if (MAIN.equals(name) || backends.containsKey(name) || groups.containsKey(name)) {
+                problems.add("group name §f" + name + "§e is already taken");
+            } else {
+                groups.put(name, new GroupSpec(name, balance, members));
+            }
+            return this;
+        }
+
+        public Builder route(int port, String target) {
+            routes.put(port, target);
+            return this;
+        }
+
+        /**
+         * Check every name resolves, dropping group members and routes that point nowhere
+         * @param invalid called with a description of everything dropped
+         */
+        public Routing build(Consumer<String> invalid) {
+            problems.forEach(invalid);
+            Map<String, GroupSpec> checkedGroups = new LinkedHashMap<>();
+            for (GroupSpec group : groups.values()) {
+                List<String> members = new ArrayList<>();
+                for (String member : group.members) {
+                    if (MAIN.equals(member) || backends.containsKey(member)) {
+                        members.add(member);
+                    } else {
+                        invalid.accept("group §f" + group.name + "§e lists unknown backend §f" + member);
+                    }
+                }
+                if (members.isEmpty()) {
+                    invalid.accept("group §f" + group.name + "§e has no backends");
+                } else {
+                    checkedGroups.put(group.name, new GroupSpec(group.name, group.balance, members));
+                }
+            }
+            Map<Integer, String> checkedRoutes = new LinkedHashMap<>();
+            for (Map.Entry<Integer, String> route : routes.entrySet()) {
+                String target = route.getValue();
+                if (MAIN.equals(target) || backends.containsKey(target) || checkedGroups.containsKey(target)) {
+                    checkedRoutes.put(route.getKey(), target);
+                } else {
+                    invalid.accept("port §f" + route.getKey() + "§e routes to unknown backend or group §f" + target);
+                }
+            }
+            if (backends.isEmpty() && checkedGroups.isEmpty() && checkedRoutes.isEmpty()) {
+                return NONE;
+            }
+            return new Routing(new LinkedHashMap<>(backends), checkedGroups, checkedRoutes);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package me.threefour.omniport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a recent copy of the main server's server-list response, so status pings on the extra ports can be
+ * answered by the engines without ever opening a backend connection.
+ * The copy is refreshed on a single background thread, one status round trip per interval.
+ */
+public class StatusCache {
+    // By convention a client that does not know the server's version pings with protocol -1
+    private static final int PING_PROTOCOL_VERSION = -1;
+    private static final int TIMEOUT = 2000;
+    // Sent as the handshake's server port when pinging over a Unix domain socket
+    private static final int DEFAULT_PORT = 25565;
+    private static final int MAX_RESPONSE_LENGTH = 256 * 1024;
+    // Serve a stale copy through a few failed refreshes, but not for long after the server went away
+    private static final int MAX_AGE_INTERVALS = 3;
+
+    private final ProxyHost plugin;
+    private final SocketAddress backend;
+    private final long refreshInterval;
+    private final LongAdder served = new LongAdder();
+    private final LongAdder refreshFailures = new LongAdder();
+    private ScheduledExecutorService scheduler;
+    private volatile byte[] response;
+    private volatile long refreshedAt;
+    private volatile boolean failing = false;
+
+    /**
+     * @param plugin host used for logging
+     * @param backend address of the server to ping, a loopback port or a Unix domain socket
+     * @param refreshInterval how often to refresh the response, in milliseconds
+     */
+    public StatusCache(ProxyHost plugin, SocketAddress backend, long refreshInterval) {
+        this.plugin = plugin;
+        this.backend = backend;
+        this.refreshInterval = Math.max(1000, refreshInterval);
+    }
+
+    /**
+     * Start refreshing in the background, the first refresh happens right away
+     */
+    public void start() {
+        // A second thread enforces the timeout, channel reads would otherwise wait forever on a hung server
+        scheduler = Executors.newScheduledThreadPool(2, Thread.ofPlatform().name("OmniPort-Status").daemon().factory());
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, refreshInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop refreshing and forget the cached response
+     */
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        response = null;
+    }
+
+    /**
+     * Get the status response packet, framed and ready to send
+     * @return the packet, or null if there is no response recent enough to serve
+     */
+    public byte[] getResponse() {
+        byte[] current = response;
+        if (current == null || System.currentTimeMillis() - refreshedAt > refreshInterval * MAX_AGE_INTERVALS) {
+            return null;
+        }
+        return current;
+    }
+
+    /**
+     * Get the time of the last successful refresh
+     * @return epoch milliseconds, or 0 if the server has never answered
+     */
+    public long getRefreshedAt() {
+        return refreshedAt;
+    }
+
+    /**
+     * Count a status request answered from the cache
+     */
+    public void statusServed() {
+        served.increment();
+    }
+
+    /**
+     * Get the number of status requests answered from the cache
+     */
+    public long getServed() {
+        return served.sum();
+    }
+
+    /**
+     * Get the number of refreshes that could not reach the server
+     */
+    public long getRefreshFailures() {
+        return refreshFailures.sum();
+    }
+
+    private void refresh() {
+        try {
+            response = fetch();
+            refreshedAt = System.currentTimeMillis();
+            if (failing) {
+                failing = false;
+                plugin.log(OmniPort.SUCCESS + "Status cache is refreshing again");
+            }
+        } catch (IOException e) {
+            refreshFailures.increment();
+            if (!failing) {
+                failing = true;
+                plugin.log(OmniPort.WARNING + "Could not refresh the status cache, pings are proxied until it recovers §8(" +
+                          e.getMessage() + ")");
+            }
+        }
+    }
+
+    /**
+     * Do one status round trip against the server and keep the response packet exactly as it was sent
+     */
+    private byte[] fetch() throws IOException {
+        SocketChannel channel = backend instanceof InetSocketAddress
+            ? SocketChannel.open() : SocketChannel.open(StandardProtocolFamily.UNIX);
+        ScheduledFuture<?> watchdog = scheduler.schedule(() -> closeQuietly(channel), TIMEOUT, TimeUnit.MILLISECONDS);
+        try (channel) {
+            channel.connect(backend);
+
+            String hostString = backend instanceof InetSocketAddress inet ? inet.getHostString() : "localhost";
+            int port = backend instanceof InetSocketAddress inet ? inet.getPort() : DEFAULT_PORT;
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            byte[] host = hostString.getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream handshake = new ByteArrayOutputStream();
+            writeVarInt(handshake, 0x00);
+            writeVarInt(handshake, PING_PROTOCOL_VERSION);
+            writeVarInt(handshake, host.length);
+            handshake.write(host);
+            handshake.write(port >> 8);
+            handshake.write(port);
+            // Next state: status
+            writeVarInt(handshake, 1);
+            writeVarInt(request, handshake.size());
+            handshake.writeTo(request);
+            // Status request: length 1, packet id 0
+            request.write(1);
+            request.write(0x00);
+            OutputStream out = Channels.newOutputStream(channel);
+            out.write(request.toByteArray());
+            out.flush();
+
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            int length = readVarInt(in);
+            if (length <= 1 || length > MAX_RESPONSE_LENGTH) {
+                throw new IOException("Bad status response length " + length);
+            }
+            ByteArrayOutputStream packet = new ByteArrayOutputStream(length + 5);
+            writeVarInt(packet, length);
+            byte[] body = new byte[length];
+            in.readFully(body);
+            if (body[0] != 0x00) {
+                throw new IOException("Unexpected packet 0x" + Integer.toHexString(body[0]) + " instead of a status response");
+            }
+            packet.write(body);
+            return packet.toByteArray();
+        } finally {
+            watchdog.cancel(false);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    private static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int i = 0; i < 5; i++) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Server closed the connection");
+            }
+            value |= (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("VarInt too long");
+    }
+
+    private static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
@@ -0,0 +1,103 @@
+package me.threefour.omniport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The client side of one server-list ping answered from the {@link StatusCache}: skips the handshake that was
+ * already sniffed, answers the status request with the cached response and echoes the ping back as the pong.
+ * Works on the engine's forwarding buffer, so both engines can drive it.
+ */
+public class StatusExchange {
+    // Status request and ping are tiny, anything bigger is not a status client
+    private static final int MAX_PACKET_LENGTH = 16;
+
+    private static final int EXPECT_HANDSHAKE = 0;
+    private static final int EXPECT_REQUEST = 1;
+    private static final int EXPECT_PING = 2;
+    private static final int FINISHED = 3;
+
+    private final byte[] statusResponse;
+    private int state = EXPECT_HANDSHAKE;
+
+    /**
+     * @param statusResponse the cached status response packet
+     */
+    public StatusExchange(byte[] statusResponse) {
+        this.statusResponse = statusResponse;
+    }
+
+    /**
+     * Consume the next complete packet from the client
+     * @param in bytes received from the client, ready for reading; consumed packets are skipped
+     * @return the reply to send, or null if more bytes are needed first
+     * @throws IOException if the client sent something a status client never sends
+     */
+    public ByteBuffer next(ByteBuffer in) throws IOException {
+        while (state != FINISHED) {
+            int start = in.position();
+            int length = readVarInt(in);
+            if (length == -1 || in.remaining() < length) {
+                in.position(start);
+                return null;
+            }
+            // Every packet carries at least its id, an empty one is not from a Minecraft client
+            if (length < 1) {
+                throw new IOException("Empty packet during status");
+            }
+            int end = in.position() + length;
+
+            if (state == EXPECT_HANDSHAKE) {
+                // Already read by the sniffer, only the framing matters here
+                in.position(end);
+                state = EXPECT_REQUEST;
+                continue;
+            }
+            if (length > MAX_PACKET_LENGTH) {
+                throw new IOException("Unexpected packet of " + length + " bytes during status");
+            }
+
+            int id = in.get();
+            if (state == EXPECT_REQUEST && id == 0x00 && length == 1) {
+                state = EXPECT_PING;
+                return ByteBuffer.wrap(statusResponse).asReadOnlyBuffer();
+            }
+            if (state == EXPECT_PING && id == 0x01 && length == 9) {
+                // The pong is the ping sent straight back
+                ByteBuffer pong = ByteBuffer.allocate(10);
+                pong.put((byte) 9).put((byte) 0x01).putLong(in.getLong()).flip();
+                state = FINISHED;
+                return pong;
+            }
+            in.position(end);
+            throw new IOException("Unexpected packet 0x" + Integer.toHexString(id) + " during status");
+        }
+        return null;
+    }
+
+    /**
+     * Check whether the pong has been handed out, after which the connection can close
+     */
+    public boolean isFinished() {
+        return state == FINISHED;
+    }
+
+    /**
+     * Read a VarInt, leaving the position undefined if it is incomplete
+     * @return the value, or -1 if more bytes are needed
+     */
+    private static int readVarInt(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int i = 0; i < 3; i++) {
+            if (!in.hasRemaining()) {
+                return -1;
+            }
+            byte b = in.get();
+            value |= (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Packet length too long during status");
+    }
+}
@@ -0,0 +1,287 @@
+package me.threefour.omniport;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Hashed timing wheel that enforces the handshake, backend connect, idle and session timeouts of every connection
+ * from one thread.
+ * Each connection has a single entry, filed under its earliest deadline. Reads only stamp the time on the
+ * connection; when an entry comes due it looks at those stamps and either closes the connection or moves itself
+ * to the new deadline, so traffic costs the wheel nothing and scheduling, cancelling and expiring are all O(1).
+ */
+public class TimeoutWheel implements Runnable {
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // 51.2 seconds per turn, longer deadlines wait out whole turns
+    private static final int SLOTS = 512;
+    private static final int MASK = SLOTS - 1;
+
+    /**
+     * Why a connection was closed
+     */
+    public enum Cause {
+        HANDSHAKE("handshake"),
+        CONNECT("connect"),
+        IDLE("idle"),
+        SESSION("session");
+
+        private final String label;
+
+        Cause(String label) {
+            this.label = label;
+        }
+
+        /**
+         * Lower-case name for the console and metrics
+         */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final Supplier<ProxySettings> settings;
+    private final Entry[] slots = new Entry[SLOTS];
+    private final Queue<Entry> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Entry> cancelled = new ConcurrentLinkedQueue<>();
+    private final Map<Cause, LongAdder> expired = new EnumMap<>(Cause.class);
+    private final Thread thread;
+    private final long startNanos = System.nanoTime();
+    // Only touched by the wheel thread
+    private long tick = 0;
+    private volatile boolean running = false;
+
+    /**
+     * @param settings the current settings, read every time a deadline is worked out so reloads apply at once
+     */
+    public TimeoutWheel(Supplier<ProxySettings> settings) {
+        this.settings = settings;
+        for (Cause cause : Cause.values()) {
+            expired.put(cause, new LongAdder());
+        }
+        this.thread = new Thread(this, "OmniPort-Timeouts");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Start the wheel thread
+     */
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Stop the wheel thread, connections still tracked are left open
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Start enforcing timeouts on a connection
+     * @return the entry to cancel once the connection is closed
+     */
+    public Entry schedule(ConnectionInfo connection) {
+        Entry entry = new Entry(this, connection);
+        scheduled.add(entry);
+        return entry;
+    }
+
+    /**
+     * Get the number of connections closed for a cause
+     */
+    public long getExpired(Cause cause) {
+        return expired.get(cause).sum();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            long next = startNanos + (tick + 1) * TICK_NANOS;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+
+            // Entries join and leave between ticks, the slots are only ever touched from this thread
+            Entry entry;
+            while ((entry = cancelled.poll()) != null) {
+                unlink(entry);
+            }
+            while ((entry = scheduled.poll()) != null) {
+                // New entries, and entries that may have gained an earlier deadline
+                unlink(entry);
+                if (!entry.cancelled) {
+                    check(entry, System.nanoTime());
+                }
+            }
+
+            tick++;
+            expireSlot();
+        }
+    }
+
+    /**
+     * Go through the entries of the slot the wheel just reached
+     */
+    private void expireSlot() {
+        int index = (int) (tick & MASK);
+        Entry entry = slots[index];
+        slots[index] = null;
+        long now = System.nanoTime();
+        while (entry != null) {
+            Entry next = entry.next;
+            entry.prev = null;
+            entry.next = null;
+            entry.slot = -1;
+            if (entry.cancelled) {
+                // Already gone
+            } else if (entry.rounds > 0) {
+                entry.rounds--;
+                link(entry, index);
+            } else {
+                check(entry, now);
+            }
+            entry = next;
+        }
+    }
+
+    /**
+     * Close the connection if one of its deadlines has passed, otherwise file it under the earliest one left
+     */
+    private void check(Entry entry, long now) {
+        ProxySettings current = settings.get();
+        ConnectionInfo connection = entry.connection;
+        Cause cause = null;
+        long deadline = 0;
+
+        long handshakeTimeout = TimeUnit.MILLISECONDS.toNanos(current.getHandshakeTimeout());
+        if (handshakeTimeout > 0 && !connection.isHandshakeSettled()) {
+            deadline = connection.getConnectNanos() + handshakeTimeout;
+            cause = Cause.HANDSHAKE;
+        }
+        long connectTimeout = TimeUnit.MILLISECONDS.toNanos(current.getConnectTimeout());
+        long connectStart = connection.getBackendConnectStart();
+        if (connectTimeout > 0 && connectStart != 0 && (cause == null || connectStart + connectTimeout - deadline < 0)) {
+            deadline = connectStart + connectTimeout;
+            cause = Cause.CONNECT;
+        }
+        // Either direction going quiet counts, so a stalled backend is caught as well as a stalled client
+        long idleTimeout = TimeUnit.MILLISECONDS.toNanos(current.getConnectionTimeout());
+        if (idleTimeout > 0) {
+            long quietSince = Math.min(connection.getLastClientRead(), connection.getLastServerRead());
+            if (cause == null || quietSince + idleTimeout - deadline < 0) {
+                deadline = quietSince + idleTimeout;
+                cause = Cause.IDLE;
+            }
+        }
+        long sessionTimeout = TimeUnit.MILLISECONDS.toNanos(current.getMaxSession());
+        if (sessionTimeout > 0 && (cause == null || connection.getConnectNanos() + sessionTimeout - deadline < 0)) {
+            deadline = connection.getConnectNanos() + sessionTimeout;
+            cause = Cause.SESSION;
+        }
+
+        if (cause == null) {
+            // Nothing to enforce right now, look again in case the settings are reloaded
+            file(entry, now + (long) SLOTS * TICK_NANOS, now);
+        } else if (deadline - now <= 0) {
+            entry.cancelled = true;
+            expired.get(cause).increment();
+            connection.setTimeoutCause(cause);
+            try {
+                connection.close();
+            } catch (RuntimeException e) {
+                // The engine owns the connection, never let it stop the wheel
+            }
+        } else {
+            file(entry, deadline, now);
+        }
+    }
+
+    /**
+     * File an entry under the slot its deadline falls in, at least one tick ahead
+     */
+    private void file(Entry entry, long deadline, long now) {
+        long ticks = Math.max(1, (deadline - now + TICK_NANOS - 1) / TICK_NANOS);
+        entry.rounds = (ticks - 1) / SLOTS;
+        link(entry, (int) ((tick + ticks) & MASK));
+    }
+
+    private void link(Entry entry, int index) {
+        entry.slot = index;
+        entry.prev = null;
+        entry.next = slots[index];
+        if (entry.next != null) {
+            entry.next.prev = entry;
+        }
+        slots[index] = entry;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.slot < 0) {
+            return;
+        }
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            slots[entry.slot] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+        entry.slot = -1;
+    }
+
+    /**
+     * A connection's place on the wheel
+     */
+    public static final class Entry {
+        private final TimeoutWheel wheel;
+        private final ConnectionInfo connection;
+        private volatile boolean cancelled = false;
+        // Only touched by the wheel thread
+        private Entry prev;
+        private Entry next;
+        private int slot = -1;
+        private long rounds;
+
+        private Entry(TimeoutWheel wheel, ConnectionInfo connection) {
+            this.wheel = wheel;
+            this.connection = connection;
+        }
+
+        /**
+         * Work out the deadlines again on the next tick, for when one may have moved earlier
+         */
+        public void recheck() {
+            if (!cancelled) {
+                wheel.scheduled.add(this);
+            }
+        }
+
+        /**
+         * Stop enforcing timeouts, called once the connection is closed
+         */
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                wheel.cancelled.add(this);
+            }
+        }
+    }
+}
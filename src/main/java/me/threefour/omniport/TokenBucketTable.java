@@ -0,0 +1,118 @@
+package me.threefour.omniport;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size, lock-free table of token buckets keyed by a 64-bit value.
+ * Each bucket is a single long holding a key tag and the time the bucket will next be full
+ * (the generic cell rate algorithm), so taking a token is one CAS.
+ * Keys hash into small sets of slots and a new key takes over the most idle slot of its set,
+ * so memory stays the same however many distinct keys show up.
+ */
+final class TokenBucketTable {
+    private static final int WAYS = 4;
+    private static final int TAG_SHIFT = 48;
+    private static final long TIME_MASK = (1L << TAG_SHIFT) - 1;
+    // Caps the interval and the tolerance, so now + tolerance + interval stays inside TIME_MASK for years of uptime
+    private static final long MAX_AHEAD = 1L << (TAG_SHIFT - 2);
+
+    private final AtomicLongArray slots;
+    private final int setMask;
+    private final long seed = ThreadLocalRandom.current().nextLong();
+    // Microseconds per token, and how far ahead of now the bucket may run before it is empty
+    private final long interval;
+    private final long tolerance;
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity number of buckets, rounded down to a power of two
+     * @param ratePerSecond tokens added per second
+     * @param burst maximum number of tokens
+     */
+    TokenBucketTable(int capacity, double ratePerSecond, int burst) {
+        int sets = Integer.highestOneBit(Math.max(1, capacity / WAYS));
+        this.slots = new AtomicLongArray(sets * WAYS);
+        this.setMask = sets - 1;
+        // Zero, negative and NaN rates would leave the interval at Long.MAX_VALUE or 1 and turn limiting off
+        if (!(ratePerSecond > 0)) {
+            throw new IllegalArgumentException("rate must be above 0: " + ratePerSecond);
+        }
+        this.interval = Math.max(1, Math.min(MAX_AHEAD, Math.round(1_000_000 / ratePerSecond)));
+        long extraTokens = Math.max(1, burst) - 1L;
+        this.tolerance = extraTokens > MAX_AHEAD / interval ? MAX_AHEAD : interval * extraTokens;
+    }
+
+    /**
+     * Take a token from a key's bucket
+     * @param key the key
+     * @param now current time in microseconds, positive and below 2^48
+     * @return true if a token was available
+     */
+    boolean tryAcquire(long key, long now) {
+        long hash = mix(key ^ seed);
+        // Tag 0 marks an empty slot
+        long tag = hash >>> TAG_SHIFT == 0 ? 1 : hash >>> TAG_SHIFT;
+        int base = ((int) hash & setMask) * WAYS;
+
+        retry:
+        while (true) {
+            int victim = base;
+            long victimState = 0;
+            long victimFull = Long.MAX_VALUE;
+            for (int i = base; i < base + WAYS; i++) {
+                long state = slots.get(i);
+                if (state != 0 && state >>> TAG_SHIFT == tag) {
+                    long full = Math.max(state & TIME_MASK, now);
+                    if (full - now > tolerance) {
+                        return false;
+                    }
+                    if (slots.compareAndSet(i, state, tag << TAG_SHIFT | (full + interval))) {
+                        return true;
+                    }
+                    // Another accept for the same key got there first
+                    continue retry;
+                }
+                // An empty slot, then the one that has been full for longest
+                long fullAt = state == 0 ? -1 : state & TIME_MASK;
+                if (fullAt < victimFull) {
+                    victim = i;
+                    victimState = state;
+                    victimFull = fullAt;
+                }
+            }
+
+            // First token for a key that has no bucket
+            if (slots.compareAndSet(victim, victimState, tag << TAG_SHIFT | (now + interval))) {
+                if (victimState != 0) {
+                    evictions.increment();
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Get the number of buckets taken over by a different key
+     */
+    long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Get the number of buckets in the table
+     */
+    int getCapacity() {
+        return slots.length();
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,381 @@
+package me.threefour.omniport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Forwards Bedrock (RakNet over UDP) traffic from additional ports to Geyser's listener.
+ * Every client address gets its own upstream socket so Geyser sees one peer per player,
+ * and all ports share a single selector thread and receive buffer.
+ * UDP sources can be spoofed, so the number of sessions is capped overall and per address;
+ * datagrams from new sources beyond the caps are dropped before any socket is opened for them.
+ */
+public class UdpForwarder implements Runnable {
+    private static final int MAX_DATAGRAM_SIZE = 65535;
+    private static final long SELECT_TIMEOUT = 1000;
+
+    private final OmniPort plugin;
+    private final InetSocketAddress target;
+    private final long sessionTimeout;
+    private final int maxSessions;
+    private final int maxSessionsPerAddress;
+    private final Selector selector;
+    private final List<Listener> listeners = new ArrayList<>();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    private Thread thread;
+    private volatile boolean running = false;
+    private long lastExpiryCheck = System.currentTimeMillis();
+    // Only touched by the forwarding thread
+    private final Map<InetAddress, Integer> sessionsPerAddress = new HashMap<>();
+    private int totalSessions = 0;
+
+    /**
+     * @param plugin host used for logging
+     * @param target Geyser's listener
+     * @param sessionTimeout time without traffic before a client is forgotten, in milliseconds
+     * @param maxSessions most clients across all ports (0 = no limit)
+     * @param maxSessionsPerAddress most clients from one IP address (0 = no limit)
+     */
+    public UdpForwarder(OmniPort plugin, InetSocketAddress target, long sessionTimeout,
+                        int maxSessions, int maxSessionsPerAddress) throws IOException {
+        this.plugin = plugin;
+        this.target = target;
+        this.sessionTimeout = sessionTimeout;
+        this.maxSessions = Math.max(0, maxSessions);
+        this.maxSessionsPerAddress = Math.max(0, maxSessionsPerAddress);
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Bind a UDP listener on the given port
+     * @throws IOException if the port could not be bound
+     */
+    public void bind(int port) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.bind(new InetSocketAddress(port));
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        Listener listener = new Listener(port, channel);
+        listeners.add(listener);
+        channel.register(selector, SelectionKey.OP_READ, listener);
+    }
+
+    /**
+     * Start the forwarding thread
+     */
+    public void start() {
+        running = true;
+        thread = new Thread(this, "OmniPort-Bedrock");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop forwarding and close every listener and session
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+        if (thread != null) {
+            try {
+                thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Get the address datagrams are forwarded to
+     */
+    public InetSocketAddress getTarget() {
+        return target;
+    }
+
+    /**
+     * Get per-port statistics for every bound listener
+     */
+    public List<Listener> getListeners() {
+        return new ArrayList<>(listeners);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    Object attachment = key.attachment();
+                    if (attachment instanceof Listener) {
+                        receiveFromClients((Listener) attachment);
+                    } else {
+                        receiveFromTarget((Session) attachment);
+                    }
+                }
+
+                expireSessions();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                plugin.log(plugin.ERROR + "Bedrock forwarder stopped unexpectedly §8(" + e.getMessage() + ")");
+            }
+        } finally {
+            closeAll();
+        }
+    }
+
+    /**
+     * Drain every datagram waiting on a listener and pass it to the client's upstream socket
+     */
+    private void receiveFromClients(Listener listener) throws IOException {
+        SocketAddress source;
+        while ((source = listener.channel.receive(buffer)) != null) {
+            buffer.flip();
+            int length = buffer.remaining();
+
+            Session session = listener.sessions.get(source);
+            if (session == null) {
+                session = openSession(listener, (InetSocketAddress) source);
+                if (session == null) {
+                    buffer.clear();
+                    continue;
+                }
+            }
+
+            session.lastSeen = System.currentTimeMillis();
+            try {
+                session.upstream.write(buffer);
+                listener.packetsIn.increment();
+                listener.bytesIn.add(length);
+            } catch (IOException e) {
+                // Geyser is not reachable right now, RakNet will retransmit
+                listener.dropped.increment();
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Drain every datagram Geyser sent to a session and send it back to the client
+     */
+    private void receiveFromTarget(Session session) {
+        Listener listener = session.listener;
+        try {
+            while (session.upstream.read(buffer) > 0) {
+                buffer.flip();
+                int length = buffer.remaining();
+                if (listener.channel.send(buffer, session.client) == 0) {
+                    listener.dropped.increment();
+                } else {
+                    listener.packetsOut.increment();
+                    listener.bytesOut.add(length);
+                }
+                buffer.clear();
+            }
+            session.lastSeen = System.currentTimeMillis();
+        } catch (IOException e) {
+            // Usually an ICMP port unreachable from a stopped Geyser listener
+            buffer.clear();
+            listener.dropped.increment();
+        }
+    }
+
+    private Session openSession(Listener listener, InetSocketAddress client) {
+        // Over a cap the datagram is dropped, a real client retries and gets in once a session expires
+        int fromAddress = sessionsPerAddress.getOrDefault(client.getAddress(), 0);
+        if (maxSessions > 0 && totalSessions >= maxSessions || maxSessionsPerAddress > 0 && fromAddress >= maxSessionsPerAddress) {
+            listener.sessionsRefused.increment();
+            return null;
+        }
+
+        DatagramChannel upstream = null;
+        try {
+            upstream = DatagramChannel.open();
+            upstream.configureBlocking(false);
+            upstream.connect(target);
+
+            Session session = new Session(listener, client, upstream);
+            upstream.register(selector, SelectionKey.OP_READ, session);
+            listener.sessions.put(client, session);
+            listener.sessionsOpened.increment();
+            sessionsPerAddress.merge(client.getAddress(), 1, Integer::sum);
+            totalSessions++;
+            return session;
+        } catch (IOException e) {
+            listener.dropped.increment();
+            if (upstream != null) {
+                try {
+                    upstream.close();
+                } catch (IOException ignored) {
+                    // Ignore
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Close sessions that have not seen traffic in either direction for the session timeout
+     */
+    private void expireSessions() {
+        long now = System.currentTimeMillis();
+        if (now - lastExpiryCheck < SELECT_TIMEOUT) {
+            return;
+        }
+        lastExpiryCheck = now;
+
+        for (Listener listener : listeners) {
+            Iterator<Session> sessions = listener.sessions.values().iterator();
+            while (sessions.hasNext()) {
+                Session session = sessions.next();
+                if (now - session.lastSeen > sessionTimeout) {
+                    sessions.remove();
+                    closeSession(session);
+                    listener.sessionsExpired.increment();
+                }
+            }
+        }
+    }
+
+    private void closeSession(Session session) {
+        session.close();
+        totalSessions--;
+        sessionsPerAddress.computeIfPresent(session.client.getAddress(), (address, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private void closeAll() {
+        for (Listener listener : listeners) {
+            for (Session session : listener.sessions.values()) {
+                closeSession(session);
+            }
+            listener.sessions.clear();
+            try {
+                listener.channel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    /**
+     * A bound Bedrock port with its client sessions and traffic counters
+     */
+    public static final class Listener {
+        private final int port;
+        private final DatagramChannel channel;
+        private final Map<SocketAddress, Session> sessions = new HashMap<>();
+        private final LongAdder packetsIn = new LongAdder();
+        private final LongAdder packetsOut = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder sessionsOpened = new LongAdder();
+        private final LongAdder sessionsExpired = new LongAdder();
+        private final LongAdder sessionsRefused = new LongAdder();
+        private volatile int activeSessions = 0;
+
+        private Listener(int port, DatagramChannel channel) {
+            this.port = port;
+            this.channel = channel;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public int getActiveSessions() {
+            return activeSessions;
+        }
+
+        public long getPacketsIn() {
+            return packetsIn.sum();
+        }
+
+        public long getPacketsOut() {
+            return packetsOut.sum();
+        }
+
+        public long getBytesIn() {
+            return bytesIn.sum();
+        }
+
+        public long getBytesOut() {
+            return bytesOut.sum();
+        }
+
+        public long getDropped() {
+            return dropped.sum();
+        }
+
+        public long getSessionsOpened() {
+            return sessionsOpened.sum();
+        }
+
+        public long getSessionsExpired() {
+            return sessionsExpired.sum();
+        }
+
+        /**
+         * Get the number of new clients turned away because a session cap was reached
+         */
+        public long getSessionsRefused() {
+            return sessionsRefused.sum();
+        }
+    }
+
+    /**
+     * One Bedrock client and the upstream socket that represents it towards Geyser
+     */
+    private static final class Session {
+        private final Listener listener;
+        private final InetSocketAddress client;
+        private final DatagramChannel upstream;
+        private long lastSeen = System.currentTimeMillis();
+
+        Session(Listener listener, InetSocketAddress client, DatagramChannel upstream) {
+            this.listener = listener;
+            this.client = client;
+            this.upstream = upstream;
+            listener.activeSessions++;
+        }
+
+        void close() {
+            listener.activeSessions--;
+            try {
+                upstream.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
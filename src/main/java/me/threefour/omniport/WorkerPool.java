@@ -0,0 +1,149 @@
+package me.threefour.omniport;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of proxy threads with a bounded queue in front of it. Threads are started as tasks arrive up to
+ * the limit and stop again after a minute without work; once every thread is busy and the queue is full, new
+ * tasks are refused instead of starting more threads, so a flood of clients can never exhaust the server.
+ */
+public class WorkerPool {
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final int queueCapacity;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param name name for the console and metrics
+     * @param factory creates the pool's threads, platform or virtual
+     * @param maxThreads most threads running tasks at once
+     * @param queueCapacity most tasks waiting for a thread (0 = hand tasks straight to a thread or refuse them)
+     */
+    public WorkerPool(String name, ThreadFactory factory, int maxThreads, int queueCapacity) {
+        this.name = name;
+        this.queueCapacity = Math.max(0, queueCapacity);
+        BlockingQueue<Runnable> queue = this.queueCapacity > 0
+            ? new ArrayBlockingQueue<>(this.queueCapacity)
+            : new SynchronousQueue<>();
+        int threads = Math.max(1, maxThreads);
+        // Core size equals the limit so threads are started before anything is queued, idle ones still time out
+        this.executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue, factory);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Run a task on the pool
+     * @return false if every thread is busy and the queue is full, or the pool has shut down
+     */
+    public boolean execute(Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return false;
+        }
+    }
+
+    /**
+     * Change the thread limit, threads above a lower limit stop once their current task is done
+     */
+    public void setMaxThreads(int maxThreads) {
+        int threads = Math.max(1, maxThreads);
+        // The core size may never exceed the maximum, so the order depends on the direction
+        if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        } else {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+    }
+
+    /**
+     * Stop taking tasks, interrupt the running ones and wait for them to finish
+     * @param timeout time to wait, in milliseconds
+     * @return true if every thread finished in time
+     */
+    public boolean shutdown(long timeout) {
+        executor.shutdownNow();
+        try {
+            return executor.awaitTermination(Math.max(0, timeout), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return executor.isTerminated();
+        }
+    }
+
+    /**
+     * Get the pool's name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the most threads running tasks at once
+     */
+    public int getMaxThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Get the number of threads running a task right now
+     */
+    public int getActive() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Get the number of threads started, busy or idle
+     */
+    public int getThreads() {
+        return executor.getPoolSize();
+    }
+
+    /**
+     * Get the most threads the pool has had at once
+     */
+    public int getLargest() {
+        return executor.getLargestPoolSize();
+    }
+
+    /**
+     * Get the number of tasks waiting for a thread
+     */
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Get the most tasks that can wait for a thread
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Get the number of tasks refused because the pool was full
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Get the number of tasks finished
+     */
+    public long getCompleted() {
+        return executor.getCompletedTaskCount();
+    }
+}
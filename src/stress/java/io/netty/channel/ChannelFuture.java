@@ -0,0 +1,10 @@
+package io.netty.channel;
+
+import io.netty.util.concurrent.Future;
+
+/**
+ * Stand-in for the Netty interface {@code NettyPortBinder} reflects on, Netty is not on the stress test's classpath
+ */
+public interface ChannelFuture extends Future<Void> {
+    ChannelOutboundInvoker channel();
+}
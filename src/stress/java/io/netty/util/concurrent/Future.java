@@ -0,0 +1,8 @@
+package io.netty.util.concurrent;
+
+/**
+ * Stand-in for the Netty interface {@code NettyPortBinder} reflects on, Netty is not on the stress test's classpath
+ */
+public interface Future<V> {
+    Future<V> awaitUninterruptibly();
+}
@@ -0,0 +1,92 @@
+package me.threefour.omniport;
+
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOutboundInvoker;
+import io.netty.util.concurrent.Future;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stand-in for the server's connection listener that {@link NettyPortBinder} binds in-process ports on.
+ * Like the real one it keeps a synchronized list of channel futures and adds to it while holding the list's lock.
+ * Its listeners only queue connections in the backlog, which is enough to tell whether a port is accepting.
+ */
+final class FakeConnectionListener implements AutoCloseable {
+    // Looked up by name, like the server's own field
+    private final List<ChannelFuture> channels = Collections.synchronizedList(new ArrayList<>());
+    private final List<ServerSocketChannel> opened = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Bind a port, called by reflection with the same signature as the server's listener
+     * @param address address to bind, null for every address
+     */
+    public void startTcpServerListener(InetAddress address, int port) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.bind(address == null ? new InetSocketAddress(port) : new InetSocketAddress(address, port));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        opened.add(channel);
+        synchronized (channels) {
+            channels.add(new Listening(channel));
+        }
+    }
+
+    /**
+     * Get the number of listeners bound and not yet closed
+     */
+    int getOpenListeners() {
+        synchronized (opened) {
+            return (int) opened.stream().filter(ServerSocketChannel::isOpen).count();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (opened) {
+            opened.forEach(FakeConnectionListener::closeQuietly);
+        }
+    }
+
+    private static void closeQuietly(ServerSocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    /**
+     * A bound listener as both its channel and the future of binding it
+     */
+    private static final class Listening implements ChannelFuture, ChannelOutboundInvoker {
+        private final ServerSocketChannel channel;
+
+        Listening(ServerSocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public ChannelOutboundInvoker channel() {
+            return this;
+        }
+
+        @Override
+        public ChannelFuture close() {
+            closeQuietly(channel);
+            return this;
+        }
+
+        @Override
+        public Future<Void> awaitUninterruptibly() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package me.threefour.omniport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loopback backend standing in for the Minecraft server. It speaks just enough of the protocol framing to be
+ * realistic: it reads the handshake, answers status requests and pings, completes a login with a login success
+ * packet and then echoes everything the client sends, like play traffic bouncing off the server.
+ */
+final class FakeMinecraftServer implements AutoCloseable {
+    static final int PROTOCOL_VERSION = 770;
+    static final int STATE_STATUS = 1;
+    static final int STATE_LOGIN = 2;
+    private static final int MAX_FRAME = 2 * 1024 * 1024;
+    private static final String STATUS_JSON =
+        "{\"version\":{\"name\":\"1.21.5\",\"protocol\":" + PROTOCOL_VERSION + "},"
+        + "\"players\":{\"max\":100000,\"online\":0},\"description\":{\"text\":\"OmniPort stress backend\"}}";
+
+    private final ServerSocket listener;
+    private final LongAdder statusRequests = new LongAdder();
+    private final LongAdder logins = new LongAdder();
+
+    FakeMinecraftServer() throws IOException {
+        this(0);
+    }
+
+    /**
+     * @param port loopback port to listen on, 0 for any free port
+     */
+    FakeMinecraftServer(int port) throws IOException {
+        listener = new ServerSocket();
+        listener.setReuseAddress(true);
+        listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 4096);
+        Thread.ofPlatform().daemon().name("stress-backend-accept").start(this::acceptLoop);
+    }
+
+    int getPort() {
+        return listener.getLocalPort();
+    }
+
+    long getStatusRequests() {
+        return statusRequests.sum();
+    }
+
+    long getLogins() {
+        return logins.sum();
+    }
+
+    private void acceptLoop() {
+        try {
+            while (!listener.isClosed()) {
+                Socket socket = listener.accept();
+                Thread.ofVirtual().name("stress-backend").start(() -> serve(socket));
+            }
+        } catch (IOException e) {
+            // Listener closed
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+
+            // Handshake: protocol version, server address, server port, next state
+            DataInputStream handshake = readPacket(in, 0x00);
+            readVarInt(handshake);
+            readString(handshake);
+            handshake.readUnsignedShort();
+            int nextState = readVarInt(handshake);
+
+            if (nextState == STATE_STATUS) {
+                readPacket(in, 0x00);
+                statusRequests.increment();
+                writePacket(out, 0x00, string(STATUS_JSON));
+                long payload = readPacket(in, 0x01).readLong();
+                writePacket(out, 0x01, longBytes(payload));
+            } else if (nextState == STATE_LOGIN) {
+                String name = readString(readPacket(in, 0x00));
+                UUID uuid = UUID.nameUUIDFromBytes(("OfflinePlayer:" + name).getBytes(StandardCharsets.UTF_8));
+                ByteArrayOutputStream success = new ByteArrayOutputStream();
+                DataOutputStream body = new DataOutputStream(success);
+                body.writeLong(uuid.getMostSignificantBits());
+                body.writeLong(uuid.getLeastSignificantBits());
+                body.write(string(name));
+                writeVarInt(body, 0);
+                // Counted before answering, so a client that saw its login succeed is always counted
+                logins.increment();
+                writePacket(out, 0x02, success.toByteArray());
+
+                // Play state: bounce everything back
+                in.transferTo(out);
+            }
+        } catch (IOException e) {
+            // Client went away
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        listener.close();
+    }
+
+    /**
+     * Read one length-prefixed packet and check its id
+     * @return a stream over the packet body after the id
+     */
+    static DataInputStream readPacket(DataInputStream in, int expectedId) throws IOException {
+        int length = readVarInt(in);
+        if (length <= 0 || length > MAX_FRAME) {
+            throw new IOException("Bad frame length " + length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        DataInputStream packet = new DataInputStream(new ByteArrayInputStream(frame));
+        int id = readVarInt(packet);
+        if (id != expectedId) {
+            throw new IOException("Expected packet 0x" + Integer.toHexString(expectedId) + " but got 0x" + Integer.toHexString(id));
+        }
+        return packet;
+    }
+
+    /**
+     * Write one length-prefixed packet in a single write
+     */
+    static void writePacket(OutputStream out, int id, byte[] body) throws IOException {
+        ByteArrayOutputStream packet = new ByteArrayOutputStream(body.length + 10);
+        writeVarInt(packet, id);
+        packet.write(body);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(packet.size() + 5);
+        writeVarInt(frame, packet.size());
+        packet.writeTo(frame);
+        out.write(frame.toByteArray());
+        out.flush();
+    }
+
+    static byte[] handshake(String address, int port, int nextState) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        writeVarInt(body, PROTOCOL_VERSION);
+        body.write(string(address));
+        body.writeShort(port);
+        writeVarInt(body, nextState);
+        return bytes.toByteArray();
+    }
+
+    static byte[] loginStart(String name) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.write(string(name));
+        UUID uuid = UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8));
+        body.writeLong(uuid.getMostSignificantBits());
+        body.writeLong(uuid.getLeastSignificantBits());
+        return bytes.toByteArray();
+    }
+
+    static byte[] string(String value) throws IOException {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(utf8.length + 5);
+        writeVarInt(bytes, utf8.length);
+        bytes.write(utf8);
+        return bytes.toByteArray();
+    }
+
+    static byte[] longBytes(long value) {
+        byte[] bytes = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+        return bytes;
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = readVarInt(in);
+        if (length < 0 || length > 32767 * 3) {
+            throw new IOException("Bad string length " + length);
+        }
+        byte[] utf8 = new byte[length];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException();
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("VarInt too long");
+    }
+
+    static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
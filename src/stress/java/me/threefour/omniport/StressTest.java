@@ -0,0 +1,1194 @@
+package me.threefour.omniport;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+import java.util.logging.Logger;
+
+/**
+ * Runs OmniPort's listeners and forwarding engines outside Paper, in front of {@link FakeMinecraftServer},
+ * and drives them with thousands of concurrent clients. The phases run in order:
+ * <ol>
+ *     <li>connect: every client logs in through the proxy and stays connected, and the connection registry is walked</li>
+ *     <li>throughput: every client bounces payloads off the backend for a fixed time</li>
+ *     <li>limit: more clients than max-connections connect at once across all ports</li>
+ *     <li>blocked: clients connect at once to a blocked port and to open ports</li>
+ *     <li>rate-limit: one address, then its neighbours, connect faster than their buckets allow</li>
+ *     <li>reload: a port is removed under live connections, another is added and the limit is lowered</li>
+ *     <li>in-process: ports are reloaded on a stand-in for the server's own listener</li>
+ *     <li>timeouts: silent, idle and busy clients are closed by the right deadline</li>
+ *     <li>workers: a burst of silent clients fills the handshake pool and its queue (blocking engine only)</li>
+ *     <li>malformed-status: status clients send an empty packet, then others log in through the same proxy</li>
+ *     <li>backend-down: the backend goes away and comes back while clients keep arriving</li>
+ *     <li>routing: logins are spread over weighted and least-connections backend groups</li>
+ * </ol>
+ * Exits with status 1 if any check failed.
+ */
+public final class StressTest {
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 30000;
+
+    private int connections = 2000;
+    private int portCount = 4;
+    private String engine = "blocking";
+    private boolean virtualThreads = true;
+    private int payloadSize = 1024;
+    private int durationSeconds = 10;
+    private int concurrency = 256;
+    private int limit = 200;
+    private boolean backendPool = false;
+    private int acceptors = 1;
+    private final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        StressTest test = new StressTest();
+        test.parse(args);
+        test.run();
+        if (!test.failures.isEmpty()) {
+            test.failures.forEach(failure -> System.out.println("FAILED: " + failure));
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--connections" -> connections = Integer.parseInt(value);
+                case "--ports" -> portCount = Integer.parseInt(value);
+                case "--engine" -> engine = value;
+                case "--virtual-threads" -> virtualThreads = Boolean.parseBoolean(value);
+                case "--payload" -> payloadSize = Integer.parseInt(value);
+                case "--duration" -> durationSeconds = Integer.parseInt(value);
+                case "--concurrency" -> concurrency = Integer.parseInt(value);
+                case "--limit" -> limit = Integer.parseInt(value);
+                case "--backend-pool" -> backendPool = Boolean.parseBoolean(value);
+                case "--acceptors" -> acceptors = Integer.parseInt(value);
+                default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        System.out.printf("OmniPort stress test: %,d connections over %d ports, %s engine, %s threads, %d acceptor threads%n",
+            connections, portCount, engine, virtualThreads ? "virtual" : "platform", acceptors);
+
+        try (FakeMinecraftServer backend = new FakeMinecraftServer()) {
+            runLoad(backend);
+            runLimit(backend);
+            runBlocked(backend);
+            runRateLimit(backend);
+            runReload(backend);
+            runInProcessReload(backend);
+            runTimeouts(backend);
+            runWorkers(backend);
+            runMalformedStatus(backend);
+            runBackendDown();
+            runRouting(backend);
+            System.out.printf("Backend saw %,d logins and %,d status requests%n", backend.getLogins(), backend.getStatusRequests());
+        }
+    }
+
+    /**
+     * Connect phase followed by the throughput phase on the same connections
+     */
+    private void runLoad(FakeMinecraftServer backend) throws Exception {
+        int threadsIdle = ManagementFactory.getThreadMXBean().getThreadCount();
+        long bindStart = System.nanoTime();
+        ProxyHarness proxy = new ProxyHarness(backend, connections);
+        List<Integer> ports = proxy.getPorts();
+        System.out.printf("[listen] %,d ports bound in %.1fms, %d threads started%n",
+            proxy.getServer().getActivePorts().size(), (System.nanoTime() - bindStart) / 1e6,
+            ManagementFactory.getThreadMXBean().getThreadCount() - threadsIdle);
+        if (proxy.getServer().getActivePorts().size() != ports.size()) {
+            failures.add("only " + proxy.getServer().getActivePorts().size() + " of " + ports.size() + " ports bound");
+        }
+        try {
+            long heapBefore = usedHeap();
+            long directBefore = usedDirect();
+            int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+            // Connect phase: log in and hold the connection
+            List<Socket> sockets = Collections.synchronizedList(new ArrayList<>(connections));
+            AtomicInteger failed = new AtomicInteger();
+            Semaphore inFlight = new Semaphore(concurrency);
+            long start = System.nanoTime();
+            try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < connections; i++) {
+                    int port = ports.get(i % ports.size());
+                    String name = "Stress" + i;
+                    inFlight.acquire();
+                    clients.submit(() -> {
+                        try {
+                            sockets.add(login(port, name));
+                        } catch (IOException e) {
+                            failed.incrementAndGet();
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                }
+            }
+            double connectSeconds = (System.nanoTime() - start) / 1e9;
+            int connected = sockets.size();
+            System.out.printf("[connect] %,d logged in, %,d failed in %.2fs (%,.0f connections/s)%n",
+                connected, failed.get(), connectSeconds, connected / connectSeconds);
+
+            long heapPerConnection = (usedHeap() - heapBefore) / Math.max(1, connected);
+            long directPerConnection = (usedDirect() - directBefore) / Math.max(1, connected);
+            int threadsAfter = ManagementFactory.getThreadMXBean().getThreadCount();
+            System.out.printf("[connect] memory per connection: %,d bytes heap, %,d bytes direct (includes client and backend sides)%n",
+                heapPerConnection, directPerConnection);
+            System.out.printf("[connect] platform threads: %d before, %d with all clients connected%n", threadsBefore, threadsAfter);
+            if (connected != connections) {
+                failures.add("only " + connected + " of " + connections + " clients could log in below the limit");
+            }
+            checkRegistry(proxy, connected);
+
+            // Throughput phase: every client bounces payloads off the backend
+            LongAdder bytes = new LongAdder();
+            LongAdder errors = new LongAdder();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+            start = System.nanoTime();
+            try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (Socket socket : sockets) {
+                    clients.submit(() -> bounce(socket, deadline, bytes, errors));
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long total = bytes.sum();
+            System.out.printf("[throughput] %,d MB round-tripped in %.2fs (%,.1f MB/s each way), %d errors%n",
+                total / (1024 * 1024), seconds, total / seconds / (1024 * 1024), errors.sum());
+
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            proxy.awaitIdle();
+            printLatency(proxy.getServer().getStats());
+            ProxyStats stats = proxy.getServer().getStats();
+            System.out.printf("[handshakes] %,d login, %,d status, %,d malformed%n",
+                stats.getHandshakes(MinecraftHandshake.Intent.LOGIN), stats.getHandshakes(MinecraftHandshake.Intent.STATUS),
+                stats.getMalformedHandshakes());
+            if (stats.getHandshakes(MinecraftHandshake.Intent.LOGIN) != connected) {
+                failures.add("read " + stats.getHandshakes(MinecraftHandshake.Intent.LOGIN) + " login handshakes from " + connected + " clients");
+            }
+            BackendPool pool = proxy.getServer().getBackendPool();
+            if (pool != null) {
+                System.out.printf("[backend-pool] %,d hits, %,d misses, %,d expired%n", pool.getHits(), pool.getMisses(), pool.getExpired());
+                if (pool.getHits() + pool.getMisses() != connected) {
+                    failures.add((pool.getHits() + pool.getMisses()) + " backend pool lookups for " + connected + " clients");
+                }
+            }
+        } finally {
+            proxy.close();
+        }
+    }
+
+    /**
+     * Fire more clients than the connection limit at every port at once and check the limit held
+     */
+    private void runLimit(FakeMinecraftServer backend) throws Exception {
+        ProxyHarness proxy = new ProxyHarness(backend, limit);
+        try {
+            Outcome outcome = burst(proxy, limit * 4, -1);
+            System.out.printf("[limit] %,d attempts against a limit of %,d: %,d admitted, %,d rejected, peak %,d active%n",
+                limit * 4, limit, outcome.admitted.get(), outcome.rejected.get(), outcome.peak);
+            printBacklogDrops("limit", proxy, limit * 4);
+            if (outcome.peak > limit || outcome.admitted.get() > limit) {
+                failures.add("max-connections " + limit + " exceeded (peak " + outcome.peak + ", admitted " + outcome.admitted + ")");
+            }
+            if (outcome.admitted.get() < limit) {
+                failures.add("only " + outcome.admitted + " connections admitted below a limit of " + limit);
+            }
+        } finally {
+            proxy.close();
+        }
+    }
+
+    /**
+     * Block the first port and hit every port at once, no client on the blocked port may get through
+     */
+    private void runBlocked(FakeMinecraftServer backend) throws Exception {
+        ProxyHarness proxy = new ProxyHarness(backend, connections);
+        try {
+            int blockedPort = proxy.getPorts().get(0);
+            proxy.getServer().setPortBlocked(blockedPort, true);
+            int attempts = Math.min(connections, limit * 4);
+            Outcome outcome = burst(proxy, attempts, blockedPort);
+            long openRejected = 0;
+            for (PortStats stats : proxy.getServer().getStats().getPorts().values()) {
+                if (stats.getPort() != blockedPort) {
+                    openRejected += stats.getRejected();
+                }
+            }
+            System.out.printf("[blocked] %,d attempts, %,d admitted through port %d while blocked, %,d rejected there, %,d rejected on open ports%n",
+                attempts, outcome.blockedAdmitted.get(), blockedPort,
+                proxy.getServer().getStats().port(blockedPort).getRejected(), openRejected);
+            printBacklogDrops("blocked", proxy, attempts);
+            if (outcome.blockedAdmitted.get() > 0) {
+                failures.add(outcome.blockedAdmitted + " connections got through blocked port " + blockedPort);
+            }
+            if (openRejected > 0) {
+                failures.add(openRejected + " connections on open ports were rejected while port " + blockedPort + " was blocked");
+            }
+        } finally {
+            proxy.close();
+        }
+    }
+
+    /**
+     * Hammer the proxy from one address, then from its neighbours, and check both token buckets held
+     */
+    private void runRateLimit(FakeMinecraftServer backend) throws Exception {
+        int addressBurst = 10;
+        int subnetBurst = 40;
+        double rate = 1.0;
+        ProxyHarness proxy = new ProxyHarness(backend, connections, builder -> builder
+            .rateLimit(true)
+            .rateLimitAddressRate(rate)
+            .rateLimitAddressBurst(addressBurst)
+            .rateLimitSubnetRate(rate)
+            .rateLimitSubnetBurst(subnetBurst));
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            int port = proxy.getPorts().get(0);
+            long start = System.nanoTime();
+            int single = 0;
+            for (int i = 0; i < addressBurst * 10; i++) {
+                single += tryLogin(port, "Rate" + i, InetAddress.getByName("127.0.0.1"), sockets);
+            }
+
+            // Neighbouring addresses share the /24 budget the first one already drew from
+            int neighbours = 0;
+            for (int host = 2; host < 10; host++) {
+                InetAddress address = InetAddress.getByName("127.0.0." + host);
+                for (int i = 0; i < addressBurst; i++) {
+                    neighbours += tryLogin(port, "Rate" + host + "_" + i, address, sockets);
+                }
+            }
+            // Tokens that trickled back in while the phase ran
+            int refill = (int) Math.ceil((System.nanoTime() - start) / 1e9 * rate) + 1;
+
+            RateLimiter limiter = proxy.getServer().getRateLimiter();
+            System.out.printf("[rate-limit] one address: %,d of %,d admitted (burst %d), neighbours: %,d of %,d admitted (subnet burst %d), %,d rejected by address, %,d by subnet%n",
+                single, addressBurst * 10, addressBurst, neighbours, 8 * addressBurst, subnetBurst,
+                limiter.getAddressRejected(), limiter.getSubnetRejected());
+            if (single > addressBurst + refill) {
+                failures.add(single + " connections admitted from one address with a burst of " + addressBurst);
+            }
+            if (single < addressBurst) {
+                failures.add("only " + single + " connections admitted from one address with a burst of " + addressBurst);
+            }
+            if (single + neighbours > subnetBurst + refill) {
+                failures.add((single + neighbours) + " connections admitted from one subnet with a burst of " + subnetBurst);
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                closeQuietly(socket);
+            }
+            proxy.close();
+        }
+    }
+
+    /**
+     * Remove a port under live connections, add a new one and lower the limit, all on the running server
+     */
+    private void runReload(FakeMinecraftServer backend) throws Exception {
+        ProxyHarness proxy = new ProxyHarness(backend, connections);
+        List<Socket> draining = new ArrayList<>();
+        try {
+            ProxyServer server = proxy.getServer();
+            int removedPort = proxy.getPorts().get(0);
+            for (int i = 0; i < 10; i++) {
+                draining.add(login(removedPort, "Drain" + i));
+            }
+
+            long drainTimeout = 1000;
+            server.removePorts(List.of(removedPort), drainTimeout);
+            boolean refused = tryLogin(removedPort, "Refused", null, new ArrayList<>()) == 0;
+            int echoingDuringDrain = countEchoing(draining);
+
+            int addedPort = freePorts(1).get(0);
+            server.addPorts(List.of(addedPort));
+            List<Socket> added = new ArrayList<>();
+            boolean addedWorks = tryLogin(addedPort, "Added", null, added) == 1;
+            added.forEach(StressTest::closeQuietly);
+
+            Thread.sleep(drainTimeout + 1000);
+            int echoingAfterDrain = countEchoing(draining);
+            proxy.awaitIdle();
+
+            // Lower the limit in place and check it holds for new connections
+            int lowered = 3;
+            server.updateSettings(proxy.settings(backend, lowered).build());
+            List<Socket> limited = new ArrayList<>();
+            int admitted = 0;
+            for (int i = 0; i < lowered * 2; i++) {
+                admitted += tryLogin(addedPort, "Limited" + i, null, limited);
+            }
+            limited.forEach(StressTest::closeQuietly);
+
+            System.out.printf("[reload] removed port %d: new logins %s, %d of %d connections echoing while draining, %d after the %dms deadline; added port %d %s; %d of %d admitted after lowering the limit to %d%n",
+                removedPort, refused ? "refused" : "accepted", echoingDuringDrain, draining.size(), echoingAfterDrain, drainTimeout,
+                addedPort, addedWorks ? "accepting" : "not accepting", admitted, lowered * 2, lowered);
+            if (!refused) {
+                failures.add("removed port " + removedPort + " still accepted a login");
+            }
+            if (echoingDuringDrain != draining.size()) {
+                failures.add("only " + echoingDuringDrain + " of " + draining.size() + " connections survived the start of the drain");
+            }
+            if (echoingAfterDrain != 0) {
+                failures.add(echoingAfterDrain + " connections on the removed port outlived the drain timeout");
+            }
+            if (!addedWorks) {
+                failures.add("added port " + addedPort + " did not accept a login");
+            }
+            if (admitted != lowered) {
+                failures.add(admitted + " connections admitted after lowering max-connections to " + lowered);
+            }
+        } finally {
+            draining.forEach(StressTest::closeQuietly);
+            proxy.close();
+        }
+    }
+
+    /**
+     * Reload in-process ports several times on a stand-in for the server's listener, checking earlier ports stay
+     * listed and blockable, a removed port can be added back, and shutdown closes every listener ever bound
+     */
+    private void runInProcessReload(FakeMinecraftServer backend) throws Exception {
+        FakeConnectionListener listener = new FakeConnectionListener();
+        ProxyHarness proxy = new ProxyHarness(backend, connections, freePorts(1), builder -> builder);
+        try {
+            ProxyServer server = proxy.getServer();
+            PortManager ports = new PortManager(server, server, () -> NettyPortBinder.forListener(listener));
+            List<Integer> fresh = freePorts(4);
+            List<Integer> wanted = new ArrayList<>(proxy.getPorts());
+            wanted.addAll(fresh.subList(0, 2));
+            ports.reload(wanted, true, 1000);
+            // The second reload must bind next to the first one's ports, not look the listener up again
+            wanted.addAll(fresh.subList(2, 4));
+            ports.reload(wanted, true, 1000);
+            int inProcess = (int) fresh.stream().filter(ports::isInProcessPort).count();
+            int listed = ports.getActivePorts().size();
+
+            int port = fresh.get(0);
+            boolean blocks = ports.setPortBlocked(port, true) && !accepts(port);
+            boolean unblocks = ports.setPortBlocked(port, false) && accepts(port);
+
+            wanted.remove(Integer.valueOf(port));
+            ports.reload(wanted, true, 1000);
+            boolean removed = !accepts(port) && !ports.getActivePorts().contains(port);
+            wanted.add(port);
+            ports.reload(wanted, true, 1000);
+            boolean readded = ports.isInProcessPort(port) && accepts(port);
+
+            ports.shutdown();
+            int leftOpen = listener.getOpenListeners();
+            int accepting = (int) fresh.stream().filter(StressTest::accepts).count();
+
+            System.out.printf("[in-process] %d of %d ports bound in-process over two reloads, %d of %d listed; block %s, unblock %s; removed port %s, added back %s; %d listeners and %d ports left open after shutdown%n",
+                inProcess, fresh.size(), listed, wanted.size(), blocks ? "refused" : "failed", unblocks ? "accepting" : "failed",
+                removed ? "closed" : "still open", readded ? "in-process" : "failed", leftOpen, accepting);
+            if (inProcess != fresh.size() || listed != wanted.size()) {
+                failures.add("after two reloads " + inProcess + " of " + fresh.size() + " ports were in-process and " +
+                             listed + " of " + wanted.size() + " listed");
+            }
+            if (!blocks || !unblocks) {
+                failures.add("in-process port " + port + " could not be " + (!blocks ? "blocked" : "unblocked"));
+            }
+            if (!removed || !readded) {
+                failures.add("in-process port " + port + " was " + (!removed ? "not closed on removal" : "not bound again when added back"));
+            }
+            if (leftOpen != 0 || accepting != 0) {
+                failures.add(leftOpen + " in-process listeners outlived shutdown");
+            }
+        } finally {
+            listener.close();
+            proxy.close();
+        }
+    }
+
+    /**
+     * Check whether anything is listening on a loopback port
+     */
+    private static boolean accepts(int port) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Leave some clients silent before their handshake, some silent after logging in and keep the rest busy,
+     * then check each group is closed by the right deadline and nothing is closed early
+     */
+    private void runTimeouts(FakeMinecraftServer backend) throws Exception {
+        int handshakeTimeout = 500;
+        int idleTimeout = 1000;
+        int maxSession = 3000;
+        int group = 10;
+        ProxyHarness proxy = new ProxyHarness(backend, connections, builder -> builder
+            .handshakeTimeout(handshakeTimeout)
+            .connectionTimeout(idleTimeout)
+            .maxSession(maxSession));
+        List<Socket> silent = new ArrayList<>();
+        List<Socket> idle = new ArrayList<>();
+        List<Socket> busy = new ArrayList<>();
+        try {
+            int port = proxy.getPorts().get(0);
+            for (int i = 0; i < group; i++) {
+                Socket socket = new Socket();
+                socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT);
+                silent.add(socket);
+                idle.add(login(port, "Idle" + i));
+                busy.add(login(port, "Busy" + i));
+            }
+
+            // Keep one group talking for twice the idle timeout, the others say nothing
+            long start = System.nanoTime();
+            int busyDropped = 0;
+            while (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(idleTimeout * 2L)) {
+                busyDropped = Math.max(busyDropped, busy.size() - countEchoing(busy));
+                Thread.sleep(100);
+            }
+            int silentClosed = countClosed(silent);
+            int idleClosed = countClosed(idle);
+
+            // Talking does not help past the session limit
+            int busyClosed = 0;
+            while (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(maxSession + 1000L)) {
+                busyClosed = busy.size() - countEchoing(busy);
+                Thread.sleep(100);
+            }
+            proxy.awaitIdle();
+
+            TimeoutWheel wheel = proxy.getServer().getTimeoutWheel();
+            long handshakeExpired = wheel.getExpired(TimeoutWheel.Cause.HANDSHAKE);
+            long idleExpired = wheel.getExpired(TimeoutWheel.Cause.IDLE);
+            long sessionExpired = wheel.getExpired(TimeoutWheel.Cause.SESSION);
+            System.out.printf("[timeouts] %d of %d silent before the handshake closed, %d of %d idle closed, %d of %d busy dropped early and %d closed at the session limit; expired %d handshake, %d idle, %d session%n",
+                silentClosed, group, idleClosed, group, busyDropped, group, busyClosed, handshakeExpired, idleExpired, sessionExpired);
+            if (silentClosed != group || handshakeExpired != group) {
+                failures.add(silentClosed + " silent clients closed and " + handshakeExpired + " handshake timeouts counted, expected " + group);
+            }
+            if (idleClosed != group || idleExpired != group) {
+                failures.add(idleClosed + " idle clients closed and " + idleExpired + " idle timeouts counted, expected " + group);
+            }
+            if (busyDropped != 0) {
+                failures.add(busyDropped + " busy connections closed before the session limit");
+            }
+            if (busyClosed != group || sessionExpired != group) {
+                failures.add(busyClosed + " busy clients closed and " + sessionExpired + " session timeouts counted, expected " + group);
+            }
+        } finally {
+            silent.forEach(StressTest::closeQuietly);
+            idle.forEach(StressTest::closeQuietly);
+            busy.forEach(StressTest::closeQuietly);
+            proxy.close();
+        }
+    }
+
+    /**
+     * Count and walk the open connections by port the way /omniport connections does, checking every
+     * connection is listed once under its own port, and time it
+     */
+    private void checkRegistry(ProxyHarness proxy, int expected) {
+        ConnectionRegistry registry = proxy.getServer().getConnections();
+        int[] walked = {0};
+        int[] misplaced = {0};
+        int counted = 0;
+        long start = System.nanoTime();
+        for (int port : registry.getPorts()) {
+            counted += registry.size(port);
+            registry.forEach(port, info -> {
+                walked[0]++;
+                if (info.getPort() != port || registry.get(info.getId()) != info) {
+                    misplaced[0]++;
+                }
+            });
+        }
+        double micros = (System.nanoTime() - start) / 1000.0;
+        System.out.printf("[registry] %,d connections on %d ports counted and walked in %.0fus%n",
+            registry.size(), registry.getPorts().size(), micros);
+        if (registry.size() != expected || counted != expected || walked[0] != expected || misplaced[0] != 0) {
+            failures.add("registry held " + registry.size() + ", counted " + counted + " by port and walked " + walked[0] +
+                         " (" + misplaced[0] + " misplaced) with " + expected + " clients connected");
+        }
+
+        // The paged /omniport connections listing over the same registry
+        int port = registry.getPorts().get(0);
+        start = System.nanoTime();
+        ConnectionQuery.Result byBytes = ConnectionQuery.parse(new String[] {"port:" + port, "sort:bytes", "1"}, 0).run(registry);
+        ConnectionQuery.Result all = ConnectionQuery.parse(new String[] {"ip:127.0.0.0/8", "sort:duration", "100000"}, 0).run(registry);
+        double queryMicros = (System.nanoTime() - start) / 2000.0;
+        ConnectionQuery.Result none = ConnectionQuery.parse(new String[] {"min:1h"}, 0).run(registry);
+        System.out.printf("[registry] paged listing: %d on port %d, %d from 127.0.0.0/8 over %d pages, %d connected over an hour, %.0fus per query%n",
+            byBytes.getMatched(), port, all.getMatched(), all.getPages(), none.getMatched(), queryMicros);
+        if (byBytes.getMatched() != registry.size(port) || byBytes.getConnections().size() != Math.min(ConnectionQuery.PAGE_SIZE, registry.size(port))
+            || all.getMatched() != expected || all.getPage() != all.getPages() || none.getMatched() != 0) {
+            failures.add("paged listing matched " + byBytes.getMatched() + " of " + registry.size(port) + " on port " + port + ", " +
+                         all.getMatched() + " of " + expected + " from loopback and " + none.getMatched() + " over an hour");
+        }
+    }
+
+    /**
+     * Hold every handshake worker with clients that never send a handshake, check the queue fills and the rest
+     * are refused without starting threads, then check stopping the proxy ends every worker well within its deadline
+     */
+    private void runWorkers(FakeMinecraftServer backend) throws Exception {
+        if (!"blocking".equals(engine)) {
+            System.out.println("[workers] skipped, the nio engine does not use worker pools");
+            return;
+        }
+        int workers = 4;
+        int queue = 8;
+        int burst = 30;
+        int shutdownTimeout = 5000;
+        // With the status cache on, handshake workers wait for the handshake before connecting the backend
+        ProxyHarness proxy = new ProxyHarness(backend, connections, builder -> builder
+            .statusCache(true)
+            .handshakeTimeout(1000)
+            .handshakeWorkers(workers)
+            .handshakeQueue(queue)
+            .shutdownTimeout(shutdownTimeout));
+        List<Socket> silent = new ArrayList<>();
+        List<Socket> held = new ArrayList<>();
+        try {
+            WorkerPool handshakePool = proxy.getServer().getHandshakePool();
+            WorkerPool forwardingPool = proxy.getServer().getForwardingPool();
+            StatusCache statusCache = proxy.getServer().getStatusCache();
+            long cacheDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (statusCache.getResponse() == null && System.nanoTime() - cacheDeadline < 0) {
+                Thread.sleep(10);
+            }
+
+            int port = proxy.getPorts().get(0);
+            for (int i = 0; i < burst; i++) {
+                Socket socket = new Socket();
+                socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT);
+                silent.add(socket);
+            }
+            Thread.sleep(100);
+            int busy = handshakePool.getActive();
+            int queued = handshakePool.getQueued();
+            long refused = handshakePool.getRejected();
+            silent.forEach(StressTest::closeQuietly);
+            proxy.awaitIdle();
+
+            int logins = 20;
+            for (int i = 0; i < logins; i++) {
+                tryLogin(port, "Worker" + i, null, held);
+            }
+            int forwarding = forwardingPool.getActive();
+            int peakHandshake = handshakePool.getLargest();
+
+            long stopStart = System.nanoTime();
+            proxy.close();
+            long stopMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stopStart);
+            int closedByStop = countClosed(held);
+
+            System.out.printf("[workers] %d silent clients against %d handshake workers and a queue of %d: %d busy, %d queued, %,d refused, peak %d threads; %d logins on %d forwarding workers; stop took %dms and closed %d of %d, %d threads left%n",
+                burst, workers, queue, busy, queued, refused, peakHandshake, held.size(), forwarding, stopMillis,
+                closedByStop, held.size(), handshakePool.getThreads() + forwardingPool.getThreads());
+            if (busy != workers || queued != queue || refused != burst - workers - queue) {
+                failures.add("handshake pool held " + busy + " busy and " + queued + " queued and refused " + refused +
+                             " instead of " + workers + ", " + queue + " and " + (burst - workers - queue));
+            }
+            if (peakHandshake > workers) {
+                failures.add("handshake pool started " + peakHandshake + " threads with a limit of " + workers);
+            }
+            if (held.size() != logins || forwarding != logins * 2) {
+                failures.add(held.size() + " of " + logins + " logins went through on " + forwarding + " forwarding workers");
+            }
+            if (stopMillis >= shutdownTimeout || closedByStop != held.size()
+                || handshakePool.getThreads() + forwardingPool.getThreads() != 0) {
+                failures.add("stopping took " + stopMillis + "ms, closed " + closedByStop + " of " + held.size() +
+                             " connections and left " + (handshakePool.getThreads() + forwardingPool.getThreads()) + " workers");
+            }
+        } finally {
+            silent.forEach(StressTest::closeQuietly);
+            held.forEach(StressTest::closeQuietly);
+            proxy.close();
+        }
+    }
+
+    /**
+     * Send a status handshake followed by a zero-length packet from more clients than there are reactors,
+     * check each is closed on its own and the proxy still admits and forwards clients afterwards
+     */
+    private void runMalformedStatus(FakeMinecraftServer backend) throws Exception {
+        int malformed = Math.max(16, Runtime.getRuntime().availableProcessors() * 2);
+        int logins = 20;
+        ProxyHarness proxy = new ProxyHarness(backend, connections, builder -> builder.statusCache(true));
+        List<Socket> bad = new ArrayList<>();
+        List<Socket> held = new ArrayList<>();
+        try {
+            StatusCache statusCache = proxy.getServer().getStatusCache();
+            long cacheDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (statusCache.getResponse() == null && System.nanoTime() - cacheDeadline < 0) {
+                Thread.sleep(10);
+            }
+
+            List<Integer> ports = proxy.getPorts();
+            for (int i = 0; i < malformed; i++) {
+                int port = ports.get(i % ports.size());
+                Socket socket = new Socket();
+                bad.add(socket);
+                socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT);
+                OutputStream out = socket.getOutputStream();
+                FakeMinecraftServer.writePacket(out, 0x00,
+                    FakeMinecraftServer.handshake("localhost", port, FakeMinecraftServer.STATE_STATUS));
+                // A packet length of 0, with no room for even a packet id
+                out.write(0x00);
+                out.flush();
+            }
+            int closed = 0;
+            for (Socket socket : bad) {
+                try {
+                    socket.setSoTimeout(2000);
+                    if (socket.getInputStream().read() == -1) {
+                        closed++;
+                    }
+                } catch (IOException e) {
+                    closed++;
+                }
+            }
+
+            int admitted = 0;
+            for (int i = 0; i < logins; i++) {
+                admitted += tryLogin(ports.get(i % ports.size()), "AfterMalformed" + i, null, held);
+            }
+            int echoing = countEchoing(held);
+            held.forEach(StressTest::closeQuietly);
+            bad.forEach(StressTest::closeQuietly);
+            proxy.awaitIdle();
+
+            System.out.printf("[malformed-status] %d of %d clients sending an empty status packet closed; %d of %d logins admitted afterwards, %d echoing%n",
+                closed, malformed, admitted, logins, echoing);
+            if (closed != malformed) {
+                failures.add("only " + closed + " of " + malformed + " clients sending an empty status packet were closed");
+            }
+            if (admitted != logins || echoing != logins) {
+                failures.add(admitted + " of " + logins + " logins admitted and " + echoing +
+                             " echoing after clients sent empty status packets");
+            }
+        } finally {
+            bad.forEach(StressTest::closeQuietly);
+            held.forEach(StressTest::closeQuietly);
+            proxy.close();
+        }
+    }
+
+    /**
+     * Take a backend away under the proxy, check new clients are refused without tying anything up,
+     * then bring it back on the same port and check clients get through again
+     */
+    private void runBackendDown() throws Exception {
+        FakeMinecraftServer backend = new FakeMinecraftServer();
+        int backendPort = backend.getPort();
+        ProxyHarness proxy = new ProxyHarness(backend, connections, builder -> builder
+            .backendHealthInterval(100)
+            .backendHealthFailureThreshold(2)
+            .backendHealthRecoveryThreshold(2));
+        try {
+            BackendRouter router = proxy.getServer().getRouter();
+            BackendHealth health = router.getBackend(Routing.MAIN).getHealth();
+            int port = proxy.getPorts().get(0);
+            List<Socket> before = new ArrayList<>();
+            boolean upBefore = tryLogin(port, "BeforeOutage", null, before) == 1;
+            before.forEach(StressTest::closeQuietly);
+
+            backend.close();
+            long downAt = System.nanoTime();
+            boolean opened = awaitState(health, BackendHealth.State.OPEN);
+            long detectMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - downAt);
+
+            int attempts = 100;
+            long start = System.nanoTime();
+            int admitted = 0;
+            for (int i = 0; i < attempts; i++) {
+                admitted += tryLogin(port, "Outage" + i, null, new ArrayList<>());
+            }
+            double refuseMicros = (System.nanoTime() - start) / 1000.0 / attempts;
+            int trackedDuringOutage = proxy.getServer().getCurrentConnections();
+
+            backend = new FakeMinecraftServer(backendPort);
+            long upAt = System.nanoTime();
+            boolean closed = awaitState(health, BackendHealth.State.CLOSED);
+            long recoverMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - upAt);
+            List<Socket> after = new ArrayList<>();
+            boolean upAfter = tryLogin(port, "AfterOutage", null, after) == 1;
+            after.forEach(StressTest::closeQuietly);
+            proxy.awaitIdle();
+
+            System.out.printf("[backend-down] breaker opened %dms after the backend went away, %d of %d logins admitted while down (%.0fus each to refuse), %,d refused by the breaker; closed again %dms after it came back, probe connect %s%n",
+                detectMillis, admitted, attempts, refuseMicros, router.getRejected(), recoverMillis,
+                BackendHealth.formatLatency(health.getLastLatency()));
+            if (!upBefore || !upAfter) {
+                failures.add("logins failed with the backend up (before outage: " + upBefore + ", after: " + upAfter + ")");
+            }
+            if (!opened) {
+                failures.add("circuit breaker did not open after the backend went away");
+            }
+            if (!closed) {
+                failures.add("circuit breaker did not close after the backend came back");
+            }
+            if (admitted != 0 || router.getRejected() < attempts) {
+                failures.add(admitted + " logins admitted and only " + router.getRejected() + " refused while the backend was down");
+            }
+            if (trackedDuringOutage != 0) {
+                failures.add(trackedDuringOutage + " connections tracked while the breaker was open");
+            }
+        } finally {
+            proxy.close();
+            backend.close();
+        }
+    }
+
+    /**
+     * Route ports to a weighted group, a least-connections group, a single backend and the main server,
+     * check each backend gets its share, then take a group member away and check its share moves to the other
+     */
+    private void runRouting(FakeMinecraftServer main) throws Exception {
+        if (portCount < 4) {
+            System.out.println("[routing] skipped, needs at least 4 ports");
+            return;
+        }
+        FakeMinecraftServer heavy = new FakeMinecraftServer();
+        FakeMinecraftServer light = new FakeMinecraftServer();
+        FakeMinecraftServer single = new FakeMinecraftServer();
+        List<Integer> ports = freePorts(portCount);
+        Routing routing = Routing.builder()
+            .backend("heavy", new InetSocketAddress("127.0.0.1", heavy.getPort()), 3)
+            .backend("light", new InetSocketAddress("127.0.0.1", light.getPort()), 1)
+            .backend("single", new InetSocketAddress("127.0.0.1", single.getPort()), 1)
+            .group("split", Routing.Balance.WEIGHTED, List.of("heavy", "light"))
+            .group("fewest", Routing.Balance.LEAST_CONNECTIONS, List.of("heavy", "light"))
+            .route(ports.get(0), "split")
+            .route(ports.get(1), "fewest")
+            .route(ports.get(2), "single")
+            .build(problem -> failures.add("routing rejected: " + stripColors(problem)));
+        ProxyHarness proxy = new ProxyHarness(main, connections, ports, builder -> builder
+            .routing(routing)
+            .backendHealthInterval(100)
+            .backendHealthFailureThreshold(2));
+        List<Socket> held = new ArrayList<>();
+        try {
+            BackendRouter router = proxy.getServer().getRouter();
+            long mainBefore = main.getLogins();
+
+            // Weighted: exactly three logins to heavy for every one to light
+            int weighted = 400;
+            for (int i = 0; i < weighted; i++) {
+                List<Socket> sockets = new ArrayList<>();
+                tryLogin(ports.get(0), "Split" + i, null, sockets);
+                sockets.forEach(StressTest::closeQuietly);
+            }
+            long heavyWeighted = heavy.getLogins();
+            long lightWeighted = light.getLogins();
+            proxy.awaitIdle();
+
+            // Least connections: held clients end up spread by weight
+            int least = 200;
+            for (int i = 0; i < least; i++) {
+                tryLogin(ports.get(1), "Fewest" + i, null, held);
+            }
+            int heavyActive = router.getBackend("heavy").getActive();
+            int lightActive = router.getBackend("light").getActive();
+
+            tryLogin(ports.get(2), "Single", null, held);
+            tryLogin(ports.get(3), "Main", null, held);
+            int singleActive = router.getBackend("single").getActive();
+            int mainActive = router.getBackend(Routing.MAIN).getActive();
+            held.forEach(StressTest::closeQuietly);
+            held.clear();
+            proxy.awaitIdle();
+
+            // Failover: with light down the whole group goes to heavy
+            light.close();
+            boolean opened = awaitState(router.getBackend("light").getHealth(), BackendHealth.State.OPEN);
+            long heavyBefore = heavy.getLogins();
+            int failover = 50;
+            int admitted = 0;
+            for (int i = 0; i < failover; i++) {
+                List<Socket> sockets = new ArrayList<>();
+                admitted += tryLogin(ports.get(0), "Failover" + i, null, sockets);
+                sockets.forEach(StressTest::closeQuietly);
+            }
+            long heavyFailover = heavy.getLogins() - heavyBefore;
+            proxy.awaitIdle();
+
+            System.out.printf("[routing] weighted 3:1 split %d/%d, least-connections 3:1 held %d/%d, single %d, main %d; with light down %d of %d logins went to heavy%n",
+                heavyWeighted, lightWeighted, heavyActive, lightActive, singleActive, mainActive, heavyFailover, failover);
+            if (heavyWeighted != weighted * 3 / 4 || lightWeighted != weighted / 4) {
+                failures.add("weighted group split " + heavyWeighted + "/" + lightWeighted + " instead of " + weighted * 3 / 4 + "/" + weighted / 4);
+            }
+            if (heavyActive + lightActive != least || Math.abs(heavyActive - 3 * lightActive) > 4) {
+                failures.add("least-connections group held " + heavyActive + "/" + lightActive + " instead of about " + least * 3 / 4 + "/" + least / 4);
+            }
+            if (singleActive != 1 || single.getLogins() != 1 || mainActive != 1 || main.getLogins() - mainBefore != 1) {
+                failures.add("single backend and main server routes did not each get their one login");
+            }
+            if (!opened || admitted != failover || heavyFailover != failover) {
+                failures.add("group did not fail over to heavy (breaker opened: " + opened + ", " + admitted + " admitted, " + heavyFailover + " to heavy)");
+            }
+            for (Backend backend : router.getBackends()) {
+                if (backend.getActive() != 0) {
+                    failures.add(backend.getActive() + " connections still counted on backend " + backend.getName());
+                }
+            }
+        } finally {
+            held.forEach(StressTest::closeQuietly);
+            proxy.close();
+            heavy.close();
+            light.close();
+            single.close();
+        }
+    }
+
+    /**
+     * Wait up to five seconds for the circuit breaker to reach a state
+     */
+    private static boolean awaitState(BackendHealth health, BackendHealth.State state) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (health.getState() != state && System.nanoTime() - deadline < 0) {
+            Thread.sleep(10);
+        }
+        return health.getState() == state;
+    }
+
+    /**
+     * Count the connections the proxy has closed, without sending anything on them
+     */
+    private static int countClosed(List<Socket> sockets) {
+        int closed = 0;
+        for (Socket socket : sockets) {
+            try {
+                socket.setSoTimeout(100);
+                if (socket.getInputStream().read() == -1) {
+                    closed++;
+                }
+            } catch (SocketTimeoutException e) {
+                // Still open
+            } catch (IOException e) {
+                closed++;
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * Count the connections that still echo a small payload back
+     */
+    private static int countEchoing(List<Socket> sockets) {
+        int echoing = 0;
+        byte[] payload = new byte[16];
+        for (Socket socket : sockets) {
+            try {
+                socket.getOutputStream().write(payload);
+                new DataInputStream(socket.getInputStream()).readFully(new byte[payload.length]);
+                echoing++;
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+        return echoing;
+    }
+
+    /**
+     * Log in from a specific local address, keeping the connection if it was admitted
+     * @return 1 if admitted, 0 if rejected
+     */
+    private static int tryLogin(int port, String name, InetAddress localAddress, List<Socket> sockets) {
+        try {
+            sockets.add(login(port, name, localAddress));
+            return 1;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Start all clients together, hold admitted connections until every attempt finished
+     */
+    private Outcome burst(ProxyHarness proxy, int attempts, int blockedPort) throws Exception {
+        List<Integer> ports = proxy.getPorts();
+        Outcome outcome = new Outcome();
+        CountDownLatch ready = new CountDownLatch(attempts);
+        CountDownLatch go = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(attempts);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // Sample the server's own count while the burst runs
+        Thread sampler = Thread.ofPlatform().daemon().start(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                outcome.peak = Math.max(outcome.peak, proxy.getServer().getCurrentConnections());
+                Thread.onSpinWait();
+            }
+        });
+
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < attempts; i++) {
+                int port = ports.get(i % ports.size());
+                String name = "Burst" + i;
+                clients.submit(() -> {
+                    Socket socket = null;
+                    try {
+                        ready.countDown();
+                        go.await();
+                        socket = login(port, name);
+                        outcome.admitted.incrementAndGet();
+                        if (port == blockedPort) {
+                            outcome.blockedAdmitted.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        outcome.rejected.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    closeQuietly(socket);
+                });
+            }
+            ready.await();
+            go.countDown();
+            done.await();
+            release.countDown();
+        } finally {
+            sampler.interrupt();
+        }
+        proxy.awaitIdle();
+        return outcome;
+    }
+
+    /**
+     * Connect through the proxy and complete a login
+     */
+    private static Socket login(int port, String name) throws IOException {
+        return login(port, name, null);
+    }
+
+    /**
+     * Connect through the proxy from a given local address and complete a login
+     */
+    private static Socket login(int port, String name, InetAddress localAddress) throws IOException {
+        Socket socket = new Socket();
+        try {
+            if (localAddress != null) {
+                socket.bind(new InetSocketAddress(localAddress, 0));
+            }
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(READ_TIMEOUT);
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT);
+            OutputStream out = socket.getOutputStream();
+            FakeMinecraftServer.writePacket(out, 0x00,
+                FakeMinecraftServer.handshake("localhost", port, FakeMinecraftServer.STATE_LOGIN));
+            FakeMinecraftServer.writePacket(out, 0x00, FakeMinecraftServer.loginStart(name));
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            String loggedIn = FakeMinecraftServer.readString(skipUuid(FakeMinecraftServer.readPacket(in, 0x02)));
+            if (!name.equals(loggedIn)) {
+                throw new IOException("Logged in as " + loggedIn + " instead of " + name);
+            }
+            return socket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private static DataInputStream skipUuid(DataInputStream packet) throws IOException {
+        packet.readLong();
+        packet.readLong();
+        return packet;
+    }
+
+    private void bounce(Socket socket, long deadline, LongAdder bytes, LongAdder errors) {
+        byte[] payload = new byte[payloadSize];
+        byte[] response = new byte[payloadSize];
+        try {
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            while (System.nanoTime() - deadline < 0) {
+                out.write(payload);
+                in.readFully(response);
+                bytes.add(payloadSize);
+            }
+        } catch (IOException e) {
+            errors.increment();
+        }
+    }
+
+    /**
+     * Attempts the proxy never saw were dropped by the kernel because the listen backlog overflowed
+     */
+    private static void printBacklogDrops(String phase, ProxyHarness proxy, int attempts) {
+        long seen = 0;
+        for (PortStats stats : proxy.getServer().getStats().getPorts().values()) {
+            seen += stats.getAccepted() + stats.getRejected();
+        }
+        if (seen < attempts) {
+            System.out.printf("[%s] %,d attempts were dropped before reaching OmniPort (listen backlog full)%n", phase, attempts - seen);
+        }
+    }
+
+    private static void printLatency(ProxyStats stats) {
+        System.out.printf("[latency] backend connect p50 %,dus p99 %,dus, first byte p50 %,dus p99 %,dus%n",
+            stats.getBackendConnect().getPercentileMicros(50), stats.getBackendConnect().getPercentileMicros(99),
+            stats.getFirstByte().getPercentileMicros(50), stats.getFirstByte().getPercentileMicros(99));
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long usedDirect() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private static final class Outcome {
+        final AtomicInteger admitted = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+        final AtomicInteger blockedAdmitted = new AtomicInteger();
+        volatile int peak;
+    }
+
+    /**
+     * A {@link ProxyServer} on free loopback ports, configured the way the plugin would be
+     */
+    private final class ProxyHarness implements AutoCloseable {
+        private final ProxyServer server;
+        private final LogPipeline logPipeline;
+        private final List<Integer> ports;
+        private boolean closed = false;
+
+        ProxyHarness(FakeMinecraftServer backend, int maxConnections) throws IOException {
+            this(backend, maxConnections, builder -> builder);
+        }
+
+        ProxyHarness(FakeMinecraftServer backend, int maxConnections, UnaryOperator<ProxySettings.Builder> extra) throws IOException {
+            this(backend, maxConnections, freePorts(portCount), extra);
+        }
+
+        ProxyHarness(FakeMinecraftServer backend, int maxConnections, List<Integer> ports,
+                     UnaryOperator<ProxySettings.Builder> extra) throws IOException {
+            this.ports = ports;
+            ProxySettings settings = extra.apply(settings(backend, maxConnections)).build();
+            logPipeline = new LogPipeline(message -> System.out.println(stripColors(message)), OmniPort.PREFIX, 4096, 60000);
+            logPipeline.start();
+            server = new ProxyServer(settings, new BufferPool(16384, Map.of(), 4096), logPipeline, Logger.getLogger("OmniPort"));
+            server.start(ports);
+        }
+
+        /**
+         * Settings as the harness starts with them, before any phase-specific changes
+         */
+        ProxySettings.Builder settings(FakeMinecraftServer backend, int maxConnections) {
+            return ProxySettings.builder()
+                .mainServerPort(backend.getPort())
+                .maxConnections(maxConnections)
+                .engine(engine)
+                .virtualThreads(virtualThreads)
+                .logConnectionEvents(false)
+                .backendPool(backendPool)
+                .acceptors(acceptors);
+        }
+
+        ProxyServer getServer() {
+            return server;
+        }
+
+        List<Integer> getPorts() {
+            return ports;
+        }
+
+        /**
+         * Wait until the proxy has noticed every client is gone
+         */
+        void awaitIdle() throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (server.getCurrentConnections() > 0 && System.nanoTime() - deadline < 0) {
+                Thread.sleep(10);
+            }
+            if (server.getCurrentConnections() > 0) {
+                failures.add(server.getCurrentConnections() + " connections still tracked after every client closed");
+            }
+        }
+
+        @Override
+        public void close() {
+            // Phases that time the stop close early, the finally block closes again
+            if (closed) {
+                return;
+            }
+            closed = true;
+            server.stop();
+            logPipeline.shutdown();
+        }
+    }
+
+    private static List<Integer> freePorts(int count) throws IOException {
+        List<ServerSocket> sockets = new ArrayList<>();
+        List<Integer> ports = new ArrayList<>();
+        try {
+            for (int i = 0; i < count; i++) {
+                ServerSocket socket = new ServerSocket(0);
+                sockets.add(socket);
+                ports.add(socket.getLocalPort());
+            }
+        } finally {
+            for (ServerSocket socket : sockets) {
+                socket.close();
+            }
+        }
+        return ports;
+    }
+
+    private static String stripColors(String message) {
+        return message.replaceAll("§.", "");
+    }
+}
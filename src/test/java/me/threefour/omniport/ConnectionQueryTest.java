@@ -0,0 +1,315 @@
+package me.threefour.omniport;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConnectionQueryTest {
+
+    @Test
+    void noArgumentsMatchEverythingOnTheFirstPage() {
+        ConnectionQuery query = parse();
+
+        assertFalse(query.isFiltered());
+        assertEquals(ConnectionQuery.Sort.PORT, query.getSort());
+        assertEquals("none", query.describe());
+        assertTrue(query.matches(connection("203.0.113.5", 30001), System.nanoTime()));
+    }
+
+    @Test
+    void readsPortsAndPortRanges() {
+        ConnectionQuery single = parse("port:30001");
+        ConnectionQuery range = parse("port:30000-30010");
+        long now = System.nanoTime();
+
+        assertTrue(single.matches(connection("10.0.0.1", 30001), now));
+        assertFalse(single.matches(connection("10.0.0.1", 30002), now));
+        assertTrue(range.matches(connection("10.0.0.1", 30000), now));
+        assertTrue(range.matches(connection("10.0.0.1", 30010), now));
+        assertFalse(range.matches(connection("10.0.0.1", 30011), now));
+    }
+
+    @Test
+    void rejectsPortsOutOfRangeOrBackwards() {
+        assertThrows(IllegalArgumentException.class, () -> parse("port:0"));
+        assertThrows(IllegalArgumentException.class, () -> parse("port:65536"));
+        assertThrows(IllegalArgumentException.class, () -> parse("port:30010-30000"));
+        assertThrows(IllegalArgumentException.class, () -> parse("port:abc"));
+        assertThrows(IllegalArgumentException.class, () -> parse("port:"));
+    }
+
+    @Test
+    void matchesIpv4CidrRanges() {
+        ConnectionQuery query = parse("ip:10.1.0.0/15");
+        long now = System.nanoTime();
+
+        assertTrue(query.matches(connection("10.0.0.1", 30001), now));
+        assertTrue(query.matches(connection("10.1.255.254", 30001), now));
+        assertFalse(query.matches(connection("10.2.0.1", 30001), now));
+        assertFalse(query.matches(connection("11.0.0.1", 30001), now));
+    }
+
+    @Test
+    void matchesASingleAddressWithoutAPrefix() {
+        ConnectionQuery query = parse("ip:203.0.113.5");
+        long now = System.nanoTime();
+
+        assertTrue(query.matches(connection("203.0.113.5", 30001), now));
+        assertFalse(query.matches(connection("203.0.113.6", 30001), now));
+    }
+
+    @Test
+    void zeroPrefixMatchesItsWholeFamilyOnly() {
+        ConnectionQuery ipv4 = parse("ip:0.0.0.0/0");
+        ConnectionQuery ipv6 = parse("ip:::/0");
+        long now = System.nanoTime();
+
+        assertTrue(ipv4.matches(connection("203.0.113.5", 30001), now));
+        assertFalse(ipv4.matches(connection("2001:db8::1", 30001), now));
+        assertTrue(ipv6.matches(connection("2001:db8::1", 30001), now));
+        assertFalse(ipv6.matches(connection("203.0.113.5", 30001), now));
+    }
+
+    @Test
+    void matchesIpv6CidrRanges() {
+        ConnectionQuery query = parse("ip:2001:db8::/32");
+        ConnectionQuery host = parse("ip:::1/128");
+        long now = System.nanoTime();
+
+        assertTrue(query.matches(connection("2001:db8:ffff::1", 30001), now));
+        assertFalse(query.matches(connection("2001:db9::1", 30001), now));
+        assertTrue(host.matches(connection("::1", 30001), now));
+        assertFalse(host.matches(connection("::2", 30001), now));
+    }
+
+    @Test
+    void rejectsPrefixesLongerThanTheAddress() {
+        assertThrows(IllegalArgumentException.class, () -> parse("ip:10.0.0.0/33"));
+        assertThrows(IllegalArgumentException.class, () -> parse("ip:2001:db8::/129"));
+        assertThrows(IllegalArgumentException.class, () -> parse("ip:10.0.0.0/-1"));
+        assertThrows(IllegalArgumentException.class, () -> parse("ip:10.0.0.0/x"));
+    }
+
+    @Test
+    void rejectsHostNamesInsteadOfLookingThemUp() {
+        assertThrows(IllegalArgumentException.class, () -> parse("ip:example.com"));
+        assertThrows(IllegalArgumentException.class, () -> parse("ip:localhost/8"));
+        assertThrows(IllegalArgumentException.class, () -> parse("ip:10.0.0"));
+    }
+
+    @Test
+    void readsCombinedDurations() {
+        ConnectionQuery query = parse("min:1h30m");
+        ConnectionInfo info = connection("10.0.0.1", 30001);
+        long start = info.getConnectNanos();
+
+        assertTrue(query.matches(info, start + TimeUnit.MINUTES.toNanos(90)));
+        assertFalse(query.matches(info, start + TimeUnit.MINUTES.toNanos(89)));
+        assertEquals("at least 1h30m", query.describe());
+    }
+
+    @Test
+    void readsBareNumbersAsSeconds() {
+        ConnectionQuery query = parse("min:90");
+        ConnectionInfo info = connection("10.0.0.1", 30001);
+        long start = info.getConnectNanos();
+
+        assertTrue(query.matches(info, start + TimeUnit.SECONDS.toNanos(90)));
+        assertFalse(query.matches(info, start + TimeUnit.SECONDS.toNanos(89)));
+    }
+
+    @Test
+    void readsDaysAndUpperCaseUnits() {
+        ConnectionQuery query = parse("min:1D2H");
+        ConnectionInfo info = connection("10.0.0.1", 30001);
+        long start = info.getConnectNanos();
+
+        assertTrue(query.matches(info, start + TimeUnit.HOURS.toNanos(26)));
+        assertFalse(query.matches(info, start + TimeUnit.HOURS.toNanos(25)));
+    }
+
+    @Test
+    void rejectsMalformedDurations() {
+        assertThrows(IllegalArgumentException.class, () -> parse("min:abc"));
+        assertThrows(IllegalArgumentException.class, () -> parse("min:5x"));
+        assertThrows(IllegalArgumentException.class, () -> parse("min:h"));
+        assertThrows(IllegalArgumentException.class, () -> parse("min:"));
+    }
+
+    @Test
+    void protocolFilterSkipsConnectionsWithoutAHandshake() {
+        ConnectionQuery query = parse("protocol:760-770");
+        ConnectionInfo modern = connection("10.0.0.1", 30001);
+        modern.setHandshake(handshake(767));
+        ConnectionInfo old = connection("10.0.0.1", 30001);
+        old.setHandshake(handshake(47));
+        long now = System.nanoTime();
+
+        assertTrue(query.matches(modern, now));
+        assertFalse(query.matches(old, now));
+        assertFalse(query.matches(connection("10.0.0.1", 30001), now));
+    }
+
+    @Test
+    void rejectsUnknownFiltersPagesAndSorts() {
+        assertThrows(IllegalArgumentException.class, () -> parse("foo:1"));
+        assertThrows(IllegalArgumentException.class, () -> parse("0"));
+        assertThrows(IllegalArgumentException.class, () -> parse("-1"));
+        assertThrows(IllegalArgumentException.class, () -> parse("two"));
+        assertThrows(IllegalArgumentException.class, () -> parse("sort:name"));
+    }
+
+    @Test
+    void cutsOutTheRequestedPage() {
+        ConnectionRegistry registry = registry(25, 30001);
+
+        ConnectionQuery.Result result = parse("2").run(registry);
+
+        assertEquals(2, result.getPage());
+        assertEquals(3, result.getPages());
+        assertEquals(25, result.getMatched());
+        assertEquals(ConnectionQuery.PAGE_SIZE, result.getConnections().size());
+    }
+
+    @Test
+    void clampsAPagePastTheEndToTheLastOne() {
+        ConnectionRegistry registry = registry(25, 30001);
+
+        ConnectionQuery.Result result = parse("9").run(registry);
+
+        assertEquals(3, result.getPage());
+        assertEquals(3, result.getPages());
+        assertEquals(5, result.getConnections().size());
+    }
+
+    @Test
+    void emptyRegistryHasOneEmptyPage() {
+        ConnectionQuery.Result result = parse("4").run(new ConnectionRegistry());
+
+        assertEquals(1, result.getPage());
+        assertEquals(1, result.getPages());
+        assertEquals(0, result.getMatched());
+        assertEquals(0, result.getOpen());
+        assertTrue(result.getConnections().isEmpty());
+    }
+
+    @Test
+    void countsMatchesAgainstEveryOpenConnection() {
+        ConnectionRegistry registry = registry(3, 30001);
+        registry.register(connection("10.0.0.1", 30002));
+
+        ConnectionQuery.Result result = parse("port:30002").run(registry);
+
+        assertEquals(1, result.getMatched());
+        assertEquals(4, result.getOpen());
+    }
+
+    @Test
+    void sortsByPortThenNewestFirst() {
+        ConnectionRegistry registry = new ConnectionRegistry();
+        ConnectionInfo olderHigh = register(registry, 30002);
+        ConnectionInfo olderLow = register(registry, 30001);
+        ConnectionInfo newerHigh = register(registry, 30002);
+        ConnectionInfo newerLow = register(registry, 30001);
+
+        List<ConnectionInfo> page = parse().run(registry).getConnections();
+
+        assertEquals(List.of(newerLow, olderLow, newerHigh, olderHigh), page);
+    }
+
+    @Test
+    void sortsByBytesMostFirst() {
+        ConnectionRegistry registry = new ConnectionRegistry();
+        ConnectionInfo quiet = register(registry, 30001);
+        ConnectionInfo busy = register(registry, 30002);
+        ConnectionInfo middle = register(registry, 30001);
+        quiet.addBytesIn(10);
+        busy.addBytesIn(500);
+        busy.addBytesOut(500);
+        middle.addBytesOut(100);
+
+        List<ConnectionInfo> page = parse("sort:bytes").run(registry).getConnections();
+
+        assertEquals(List.of(busy, middle, quiet), page);
+    }
+
+    @Test
+    void sortsByDurationLongestFirst() {
+        ConnectionRegistry registry = new ConnectionRegistry();
+        ConnectionInfo first = connection("10.0.0.1", 30002);
+        ConnectionInfo second = connectedAfter(first, 30001);
+        ConnectionInfo third = connectedAfter(second, 30002);
+        registry.register(third);
+        registry.register(first);
+        registry.register(second);
+
+        List<ConnectionInfo> page = parse("sort:DURATION").run(registry).getConnections();
+
+        assertEquals(List.of(first, second, third), page);
+    }
+
+    @Test
+    void repeatsItsFiltersForAnotherPage() {
+        ConnectionQuery query = parse("port:30000-30010", "ip:10.0.0.0/8", "protocol:767", "min:5M", "sort:bytes", "3");
+
+        assertTrue(query.isFiltered());
+        assertEquals("port:30000-30010 ip:10.0.0.0/8 protocol:767 min:5m sort:bytes 4", query.toArguments(4));
+        assertEquals("port 30000-30010, ip 10.0.0.0/8, protocol 767, at least 5m", query.describe());
+        assertEquals("2", parse().toArguments(2));
+    }
+
+    @Test
+    void completesFilterKeysFromWhatIsTyped() {
+        assertEquals(List.of("sort:port", "sort:duration", "sort:bytes"), ConnectionQuery.complete("so"));
+        assertEquals(List.of("port:", "protocol:"), ConnectionQuery.complete("P"));
+        assertEquals(7, ConnectionQuery.complete("").size());
+        assertTrue(ConnectionQuery.complete("x").isEmpty());
+    }
+
+    private static ConnectionQuery parse(String... args) {
+        return ConnectionQuery.parse(args, 0);
+    }
+
+    private static ConnectionRegistry registry(int count, int port) {
+        ConnectionRegistry registry = new ConnectionRegistry();
+        for (int i = 0; i < count; i++) {
+            register(registry, port);
+        }
+        return registry;
+    }
+
+    private static ConnectionInfo register(ConnectionRegistry registry, int port) {
+        ConnectionInfo info = connection("10.0.0.1", port);
+        registry.register(info);
+        return info;
+    }
+
+    // Connect times come from the monotonic clock, which may not move between two quick connections
+    private static ConnectionInfo connectedAfter(ConnectionInfo previous, int port) {
+        ConnectionInfo info = connection("10.0.0.1", port);
+        while (info.getConnectNanos() <= previous.getConnectNanos()) {
+            info = connection("10.0.0.1", port);
+        }
+        return info;
+    }
+
+    private static ConnectionInfo connection(String address, int port) {
+        try {
+            return new ConnectionInfo(InetAddress.getByName(address), port);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static MinecraftHandshake handshake(int protocolVersion) {
+        return new MinecraftHandshake(protocolVersion, "localhost", 25565, MinecraftHandshake.Intent.LOGIN);
+    }
+}
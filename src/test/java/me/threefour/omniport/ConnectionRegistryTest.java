@@ -0,0 +1,222 @@
+package me.threefour.omniport;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConnectionRegistryTest {
+    // Mirrors ConnectionRegistry.SLOT_BITS
+    private static final long SLOT_MASK = (1L << 24) - 1;
+
+    @Test
+    void registerSetsGrowingIdsThatLookUpTheConnection() {
+        ConnectionRegistry registry = new ConnectionRegistry();
+        ConnectionInfo first = connection(25566);
+        ConnectionInfo second = connection(25566);
+
+        long firstId = registry.register(first);
+        long secondId = registry.register(second);
+
+        assertEquals(firstId, first.getId());
+        assertEquals(secondId, second.getId());
+        assertTrue(secondId > firstId);
+        assertSame(first, registry.get(firstId));
+        assertSame(second, registry.get(secondId));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    void reusedSlotDoesNotAnswerForTheOldId() {
+        ConnectionRegistry registry = new ConnectionRegistry();
+        ConnectionInfo old = connection(25566);
+        long oldId = registry.register(old);
+        assertSame(old, registry.remove(oldId));
+
+        ConnectionInfo replacement = connection(25566);
+        long newId = registry.register(replacement);
+
+        assertEquals(oldId & SLOT_MASK, newId & SLOT_MASK);
+        assertTrue(newId > oldId);
+        assertNull(registry.get(oldId));
+        assertNull(registry.remove(oldId));
+        assertSame(replacement, registry.get(newId));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    void removingTwiceOrAnUnknownIdDoesNothing() {
+        ConnectionRegistry registry = new ConnectionRegistry();
+        long id = registry.register(connection(25566));
+
+        registry.remove(id);
+
+        assertNull(registry.remove(id));
+        assertNull(registry.remove(-1));
+        assertNull(registry.remove(Long.MAX_VALUE));
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.size(25566));
+    }
+
+    @Test
+    void growsPastItsFirstSlotsWithoutLosingConnections() {
+        ConnectionRegistry registry = new ConnectionRegistry();
+        List<ConnectionInfo> infos = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            ConnectionInfo info = connection(30000 + i % 4);
+            registry.register(info);
+            infos.add(info);
+        }
+
+        assertEquals(1000, registry.size());
+        for (ConnectionInfo info : infos) {
+            assertSame(info, registry.get(info.getId()));
+        }
+        int[] walked = {0};
+        registry.forEach(info -> walked[0]++);
+        assertEquals(1000, walked[0]);
+        assertEquals(250, registry.size(30002));
+    }
+
+    @Test
+    void indexesPortsSortedAndWalksEachNewestFirst() {
+        ConnectionRegistry registry = new ConnectionRegistry();
+        ConnectionInfo older = connection(30001);
+        ConnectionInfo other = connection(25566);
+        ConnectionInfo newer = connection(30001);
+        registry.register(older);
+        registry.register(other);
+        registry.register(newer);
+
+        assertEquals(List.of(25566, 30001), registry.getPorts());
+        assertEquals(2, registry.size(30001));
+        assertEquals(List.of(newer, older), walk(registry, 30001));
+        assertEquals(List.of(), walk(registry, 40000));
+    }
+
+    @Test
+    void portLeavesTheIndexWithItsLastConnection() {
+        ConnectionRegistry registry = new ConnectionRegistry();
+        long first = registry.register(connection(30001));
+        long second = registry.register(connection(30001));
+
+        registry.remove(first);
+        assertEquals(List.of(30001), registry.getPorts());
+        registry.remove(second);
+
+        assertEquals(List.of(), registry.getPorts());
+        assertEquals(0, registry.size(30001));
+    }
+
+    @Test
+    void unlinksFromTheMiddleAndEndsOfAPortList() {
+        ConnectionRegistry registry = new ConnectionRegistry();
+        List<ConnectionInfo> infos = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ConnectionInfo info = connection(30001);
+            registry.register(info);
+            infos.add(info);
+        }
+
+        registry.remove(infos.get(2).getId());
+        registry.remove(infos.get(4).getId());
+        registry.remove(infos.get(0).getId());
+
+        assertEquals(List.of(infos.get(3), infos.get(1)), walk(registry, 30001));
+        assertEquals(2, registry.size(30001));
+    }
+
+    @Test
+    void walkCarriesOnWhenTheCurrentConnectionIsRemoved() {
+        ConnectionRegistry registry = new ConnectionRegistry();
+        List<ConnectionInfo> infos = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            ConnectionInfo info = connection(30001);
+            registry.register(info);
+            infos.add(info);
+        }
+
+        List<ConnectionInfo> seen = new ArrayList<>();
+        registry.forEach(30001, info -> {
+            seen.add(info);
+            registry.remove(info.getId());
+        });
+
+        assertEquals(List.of(infos.get(3), infos.get(2), infos.get(1), infos.get(0)), seen);
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    void walkSkipsAConnectionRemovedAheadOfIt() {
+        ConnectionRegistry registry = new ConnectionRegistry();
+        List<ConnectionInfo> infos = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            ConnectionInfo info = connection(30001);
+            registry.register(info);
+            infos.add(info);
+        }
+
+        List<ConnectionInfo> seen = new ArrayList<>();
+        registry.forEach(30001, info -> {
+            if (seen.isEmpty()) {
+                registry.remove(infos.get(1).getId());
+            }
+            seen.add(info);
+        });
+
+        assertEquals(List.of(infos.get(3), infos.get(2), infos.get(0)), seen);
+    }
+
+    @Test
+    void clearForgetsEveryConnectionAndOldIdsStayUnknown() {
+        ConnectionRegistry registry = new ConnectionRegistry();
+        long oldId = registry.register(connection(30001));
+        registry.register(connection(30002));
+
+        registry.clear();
+
+        assertEquals(0, registry.size());
+        assertEquals(List.of(), registry.getPorts());
+        assertNull(registry.get(oldId));
+        assertNull(registry.remove(oldId));
+
+        ConnectionInfo fresh = connection(30001);
+        long newId = registry.register(fresh);
+        assertTrue(newId > oldId);
+        assertNull(registry.remove(oldId));
+        assertSame(fresh, registry.get(newId));
+        assertEquals(1, registry.size(30001));
+    }
+
+    @Test
+    void walkStartedBeforeClearSeesNothingRemoved() {
+        ConnectionRegistry registry = new ConnectionRegistry();
+        for (int i = 0; i < 3; i++) {
+            registry.register(connection(30001));
+        }
+
+        List<ConnectionInfo> seen = new ArrayList<>();
+        registry.forEach(30001, info -> {
+            seen.add(info);
+            registry.clear();
+        });
+
+        assertEquals(1, seen.size());
+    }
+
+    private static List<ConnectionInfo> walk(ConnectionRegistry registry, int port) {
+        List<ConnectionInfo> seen = new ArrayList<>();
+        registry.forEach(port, seen::add);
+        return seen;
+    }
+
+    private static ConnectionInfo connection(int port) {
+        return new ConnectionInfo(InetAddress.getLoopbackAddress(), port);
+    }
+}
@@ -0,0 +1,68 @@
+package me.threefour.omniport;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatusExchangeTest {
+    private static final byte[] RESPONSE = {3, 0x00, 1, '{'};
+    // Framing only, the sniffer has already read the handshake itself
+    private static final byte[] HANDSHAKE = {4, 0x00, 1, 2, 3};
+
+    @Test
+    void answersTheRequestAndEchoesThePing() throws IOException {
+        StatusExchange exchange = new StatusExchange(RESPONSE);
+        ByteBuffer in = buffer(HANDSHAKE, new byte[] {1, 0x00}, new byte[] {9, 0x01, 0, 0, 0, 0, 0, 0, 0, 42});
+
+        assertEquals(ByteBuffer.wrap(RESPONSE), exchange.next(in));
+        assertEquals(ByteBuffer.wrap(new byte[] {9, 0x01, 0, 0, 0, 0, 0, 0, 0, 42}), exchange.next(in));
+        assertTrue(exchange.isFinished());
+    }
+
+    @Test
+    void waitsForAPacketSplitAcrossReads() throws IOException {
+        StatusExchange exchange = new StatusExchange(RESPONSE);
+        ByteBuffer in = buffer(HANDSHAKE, new byte[] {1});
+
+        assertNull(exchange.next(in));
+        assertEquals(HANDSHAKE.length, in.position());
+    }
+
+    @Test
+    void rejectsAnEmptyPacketAfterTheHandshake() {
+        StatusExchange exchange = new StatusExchange(RESPONSE);
+        ByteBuffer in = buffer(HANDSHAKE, new byte[] {0});
+
+        assertThrows(IOException.class, () -> exchange.next(in));
+    }
+
+    @Test
+    void rejectsAnEmptyPacketInPlaceOfThePing() throws IOException {
+        StatusExchange exchange = new StatusExchange(RESPONSE);
+        ByteBuffer in = buffer(HANDSHAKE, new byte[] {1, 0x00}, new byte[] {0});
+
+        exchange.next(in);
+        assertThrows(IOException.class, () -> exchange.next(in));
+    }
+
+    @Test
+    void rejectsAnEmptyHandshake() {
+        StatusExchange exchange = new StatusExchange(RESPONSE);
+
+        assertThrows(IOException.class, () -> exchange.next(buffer(new byte[] {0})));
+    }
+
+    private static ByteBuffer buffer(byte[]... packets) {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        for (byte[] packet : packets) {
+            buffer.put(packet);
+        }
+        return buffer.flip();
+    }
+}